@@ -18,6 +18,7 @@ plugins {
     id("org.jetbrains.kotlinx.binary-compatibility-validator") version PosthogBuildConfig.Plugins.API_VALIDATOR apply true
     id("com.github.gmazzo.buildconfig") version PosthogBuildConfig.Plugins.BUILD_CONFIG apply false
     id("ru.vyarus.animalsniffer") version PosthogBuildConfig.Plugins.ANIMAL_SNIFFER apply false
+    id("me.champeau.jmh") version PosthogBuildConfig.Plugins.JMH apply false
 
     // TODO: add jacoco/codecov, gradle-versions-plugin
 }
@@ -64,6 +65,7 @@ tasks.withType<DetektCreateBaselineTask>().configureEach {
 
 apiValidation {
     ignoredProjects.add("posthog-android-sample")
+    ignoredProjects.add("posthog-benchmarks")
     // Pre-1.0 (0.x) module — public surface may change between minor versions until 1.0.0.
     ignoredProjects.add("posthog-android-surveys-compose")
 }
@@ -57,6 +57,7 @@ object PosthogBuildConfig {
         val BUILD_CONFIG = "5.5.1"
         val GUMMY_BEARS_API = "0.8.0"
         val SIGNATURE_JAVA18 = "1.0"
+        val JMH = "0.7.2"
     }
 
     object Dependencies {
@@ -75,11 +76,21 @@ object PosthogBuildConfig {
         // Provides ComponentDialog (LifecycleOwner + OnBackPressedDispatcher) for the surveys-compose UI.
         val ANDROIDX_ACTIVITY = "1.8.2"
 
+        // optional, for the posthog-server Micrometer metrics adapter
+        val MICROMETER = "1.12.5"
+
+        // optional, for the posthog-server request context propagation helpers
+        val COROUTINES = "1.7.3"
+        val REACTOR = "3.6.5"
+
         // tests
         val ANDROIDX_JUNIT = "1.2.1"
         val ANDROIDX_RUNNER = "1.6.2"
         val MOCKITO = "4.1.0" // mockito 5x requires Java 11 bytecode
         val MOCKITO_INLINE = "4.11.0" // mockito-inline 5x requires Java 11 bytecode
         val ROBOLECTRIC = "4.14.1"
+
+        // benchmarks
+        val JMH = "1.37"
     }
 }
@@ -4,7 +4,7 @@ import com.posthog.PostHogConfig
 import com.posthog.PostHogEvent
 import com.posthog.internal.PostHogQueue
 import com.posthog.internal.PostHogQueueInterface
-import com.posthog.vendor.uuid.TimeBasedEpochGenerator
+import com.posthog.vendor.uuid.ThreadLocalEpochGenerator
 import java.io.File
 import java.util.UUID
 
@@ -70,7 +70,7 @@ internal class PostHogReplayBufferQueue(
 
     fun add(event: PostHogEvent) {
         try {
-            val filename = "${TimeBasedEpochGenerator.generate()}.event"
+            val filename = "${ThreadLocalEpochGenerator.generate()}.event"
             val file = File(bufferDir, filename)
             val os = config.encryption?.encrypt(file.outputStream()) ?: file.outputStream()
             os.use { output ->
@@ -0,0 +1,46 @@
+import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
+
+plugins {
+    kotlin("jvm")
+    id("me.champeau.jmh")
+}
+
+// the benchmarks reach into internal classes (FlagEvaluator, PostHogFeatureFlagCache) directly
+evaluationDependsOn(":posthog")
+evaluationDependsOn(":posthog-server")
+
+java {
+    sourceCompatibility = PosthogBuildConfig.Build.JAVA_VERSION
+    targetCompatibility = PosthogBuildConfig.Build.JAVA_VERSION
+}
+
+tasks.withType<KotlinCompile>().configureEach {
+    compilerOptions.postHogConfig(strict = false)
+}
+
+tasks.named<KotlinCompile>("compileJmhKotlin") {
+    listOf(":posthog", ":posthog-server").forEach { path ->
+        val friend = project(path)
+        friendPaths.from(friend.layout.buildDirectory.dir("classes/kotlin/main"))
+        friendPaths.from(friend.tasks.named<Jar>("jar").flatMap { it.archiveFile })
+    }
+}
+
+jmh {
+    jmhVersion.set(PosthogBuildConfig.Dependencies.JMH)
+    // report allocations per operation next to the throughput, so allocation regressions show up too
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    // e.g. ./gradlew :posthog-benchmarks:jmh -Pjmh.includes=FlagEvaluatorBenchmark
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+dependencies {
+    jmhImplementation(project(":posthog-server"))
+    jmhImplementation(platform("com.squareup.okhttp3:okhttp-bom:${PosthogBuildConfig.Dependencies.OKHTTP}"))
+    jmhImplementation("com.squareup.okhttp3:okhttp")
+    jmhImplementation("com.squareup.okhttp3:mockwebserver:${PosthogBuildConfig.Dependencies.OKHTTP}")
+}
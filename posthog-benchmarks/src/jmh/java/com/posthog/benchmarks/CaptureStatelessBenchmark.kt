@@ -0,0 +1,58 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogConfig
+import com.posthog.PostHogStateless
+import com.posthog.PostHogStatelessInterface
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * [PostHogStateless.captureStateless] up to the queue: property assembly, the before send
+ * callbacks and sanitizing, with a queue that drops the event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class CaptureStatelessBenchmark {
+    private val queue = DiscardingQueue()
+
+    private lateinit var posthog: PostHogStatelessInterface
+
+    @Setup
+    fun setUp() {
+        val config =
+            PostHogConfig(
+                API_KEY,
+                queueProvider = { _, _, _, _, _ -> queue },
+            )
+        posthog = PostHogStateless.with(config)
+    }
+
+    @TearDown
+    fun tearDown() {
+        posthog.close()
+    }
+
+    @Benchmark
+    fun captureStateless() {
+        posthog.captureStateless("benchmark event", DISTINCT_ID, eventProperties)
+    }
+
+    @Benchmark
+    fun captureStatelessWithUserProperties() {
+        posthog.captureStateless(
+            "benchmark event",
+            DISTINCT_ID,
+            eventProperties,
+            userProperties = mapOf("email" to "user@example.com"),
+            groups = mapOf("company" to "posthog"),
+        )
+    }
+}
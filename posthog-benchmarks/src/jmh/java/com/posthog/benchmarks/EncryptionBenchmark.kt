@@ -0,0 +1,66 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogAesGcmEncryption
+import com.posthog.PostHogConfig
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.io.ByteArrayOutputStream
+import java.security.SecureRandom
+import java.util.concurrent.TimeUnit
+import javax.crypto.Cipher
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Encrypting a group commit of 20 queued events with AES-GCM: a cipher looked up for every event,
+ * [PostHogAesGcmEncryption]'s stream per event, and its records encrypted in one batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class EncryptionBenchmark {
+    private val key = ByteArray(32) { it.toByte() }
+
+    private val encryption = PostHogAesGcmEncryption(key)
+
+    private val random = SecureRandom()
+
+    private val records: List<ByteArray> =
+        PostHogConfig(API_KEY).serializer.let { serializer ->
+            List(RECORDS) {
+                val output = ByteArrayOutputStream()
+                serializer.serialize(benchmarkEvent(), output.writer())
+                output.toByteArray()
+            }
+        }
+
+    @Benchmark
+    fun cipherPerRecord(): List<ByteArray> =
+        records.map { record ->
+            val nonce = ByteArray(12)
+            random.nextBytes(nonce)
+            val cipher = Cipher.getInstance("AES/GCM/NoPadding")
+            cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(key, "AES"), GCMParameterSpec(128, nonce))
+            cipher.doFinal(record)
+        }
+
+    @Benchmark
+    fun streamPerRecord(): List<ByteArray> =
+        records.map { record ->
+            val output = ByteArrayOutputStream()
+            encryption.encrypt(output).use { it.write(record) }
+            output.toByteArray()
+        }
+
+    @Benchmark
+    fun recordsBatched(): List<ByteArray> = encryption.encryptRecords(records, SEGMENT)
+
+    private companion object {
+        private const val RECORDS = 20
+        private const val SEGMENT = "0190a3b2-0000-7000-8000-000000000000.20.events"
+    }
+}
@@ -0,0 +1,68 @@
+package com.posthog.benchmarks
+
+import com.posthog.internal.FeatureFlag
+import com.posthog.internal.FeatureFlagMetadata
+import com.posthog.server.internal.FeatureFlagCacheKey
+import com.posthog.server.internal.PostHogFeatureFlagCache
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import java.util.concurrent.TimeUnit
+
+/**
+ * [PostHogFeatureFlagCache] lookups and writes as done for every remote flag call, with person
+ * properties in the key the way request handlers usually pass them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class FeatureFlagCacheBenchmark {
+    private val cache = PostHogFeatureFlagCache(maxSize = KEYS, maxAgeMs = 60_000)
+
+    private val flags: Map<String, FeatureFlag> =
+        (0 until 20).associate { index ->
+            val key = "flag-$index"
+            key to FeatureFlag(key, true, null, FeatureFlagMetadata(index, null, 1), null)
+        }
+
+    private val keys = Array(KEYS) { cacheKey(it) }
+
+    @Setup
+    fun setUp() {
+        keys.forEach { cache.put(it, flags) }
+    }
+
+    @Benchmark
+    fun hit(): Map<String, FeatureFlag>? = cache.get(keys[KEYS / 2])
+
+    @Benchmark
+    fun miss(): Map<String, FeatureFlag>? = cache.get(MISSING_KEY)
+
+    @Benchmark
+    fun put() {
+        cache.put(keys[KEYS / 2], flags)
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun hitContended(): Map<String, FeatureFlag>? = cache.get(keys[KEYS / 2])
+
+    private companion object {
+        private const val KEYS = 1_000
+
+        private val MISSING_KEY = cacheKey(-1)
+
+        private fun cacheKey(index: Int): FeatureFlagCacheKey =
+            FeatureFlagCacheKey(
+                distinctId = "user-$index",
+                groups = mapOf("company" to "company-${index % 10}"),
+                personProperties = mapOf("email" to "user-$index@example.com", "plan" to "enterprise"),
+                groupProperties = null,
+            )
+    }
+}
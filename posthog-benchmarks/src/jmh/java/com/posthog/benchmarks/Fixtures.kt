@@ -0,0 +1,58 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogEvent
+import com.posthog.internal.PostHogQueueInterface
+import java.util.Date
+import java.util.UUID
+
+internal const val API_KEY = "phc_benchmark"
+
+internal const val DISTINCT_ID = "benchmark-distinct-id"
+
+/**
+ * Properties the size of a typical server-side event.
+ */
+internal val eventProperties: Map<String, Any> =
+    mapOf(
+        "plan" to "enterprise",
+        "seats" to 42,
+        "trial" to false,
+        "\$current_url" to "https://example.com/settings/billing",
+        "tags" to listOf("alpha", "beta", "gamma"),
+        "nested" to mapOf("browser" to "Chrome", "version" to 126, "mobile" to false),
+    )
+
+internal fun benchmarkEvent(): PostHogEvent =
+    PostHogEvent(
+        "benchmark event",
+        distinctId = DISTINCT_ID,
+        properties = eventProperties.toMutableMap(),
+        timestamp = Date(),
+        uuid = UUID.randomUUID(),
+    )
+
+/**
+ * Keeps captured events reachable so the JIT can't drop the work that produced them, without
+ * paying for disk or network.
+ */
+internal class DiscardingQueue : PostHogQueueInterface<PostHogEvent> {
+    @Volatile
+    var last: PostHogEvent? = null
+
+    override fun add(record: PostHogEvent) {
+        last = record
+    }
+
+    override fun flush() {
+    }
+
+    override fun start() {
+    }
+
+    override fun stop() {
+    }
+
+    override fun clear() {
+        last = null
+    }
+}
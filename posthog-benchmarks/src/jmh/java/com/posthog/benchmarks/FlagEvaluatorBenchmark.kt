@@ -0,0 +1,101 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogConfig
+import com.posthog.internal.FlagConditionGroup
+import com.posthog.internal.FlagDefinition
+import com.posthog.internal.FlagFilters
+import com.posthog.internal.FlagProperty
+import com.posthog.internal.MultiVariateConfig
+import com.posthog.internal.PropertyOperator
+import com.posthog.internal.PropertyType
+import com.posthog.internal.VariantDefinition
+import com.posthog.server.internal.FlagEvaluator
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Local evaluation of a single flag by [FlagEvaluator], the work done per flag and per call when
+ * local evaluation is enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class FlagEvaluatorBenchmark {
+    private val evaluator = FlagEvaluator(PostHogConfig(API_KEY))
+
+    private val personProperties: Map<String, Any?> =
+        mapOf(
+            "email" to "user@example.com",
+            "plan" to "enterprise",
+            "app_version" to "2.14.3",
+            "seats" to 42,
+        )
+
+    private val rolloutFlag = flag("rollout", groups = listOf(FlagConditionGroup(null, 50.0, null)))
+
+    private val propertiesFlag =
+        flag(
+            "properties",
+            groups =
+                listOf(
+                    FlagConditionGroup(
+                        listOf(
+                            property("email", "@example.com", PropertyOperator.ICONTAINS),
+                            property("plan", listOf("team", "enterprise"), PropertyOperator.EXACT),
+                            property("app_version", "2.0.0", PropertyOperator.SEMVER_GTE),
+                            property("seats", 10, PropertyOperator.GT),
+                        ),
+                        100.0,
+                        null,
+                    ),
+                ),
+        )
+
+    private val multivariateFlag =
+        flag(
+            "multivariate",
+            groups = listOf(FlagConditionGroup(null, 100.0, null)),
+            multivariate =
+                MultiVariateConfig(
+                    listOf(
+                        VariantDefinition("control", 34.0),
+                        VariantDefinition("test", 33.0),
+                        VariantDefinition("second-test", 33.0),
+                    ),
+                ),
+        )
+
+    @Benchmark
+    fun rollout(): Any? = evaluator.matchFeatureFlagProperties(rolloutFlag, DISTINCT_ID, personProperties)
+
+    @Benchmark
+    fun personProperties(): Any? = evaluator.matchFeatureFlagProperties(propertiesFlag, DISTINCT_ID, personProperties)
+
+    @Benchmark
+    fun multivariate(): Any? = evaluator.matchFeatureFlagProperties(multivariateFlag, DISTINCT_ID, personProperties)
+
+    private fun flag(
+        key: String,
+        groups: List<FlagConditionGroup>,
+        multivariate: MultiVariateConfig? = null,
+    ): FlagDefinition =
+        FlagDefinition(
+            id = 1,
+            name = key,
+            key = key,
+            active = true,
+            filters = FlagFilters(groups, multivariate, null, null),
+            version = 1,
+        )
+
+    private fun property(
+        key: String,
+        value: Any,
+        operator: PropertyOperator,
+    ): FlagProperty = FlagProperty(key, value, operator, PropertyType.PERSON, null, null)
+}
@@ -0,0 +1,35 @@
+package com.posthog.benchmarks
+
+import com.posthog.internal.PostHogLogger
+import com.posthog.internal.PostHogNoOpLogger
+import com.posthog.internal.log
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * A per event debug log with debug logging off, built eagerly vs through the lazy
+ * [PostHogLogger.log] extension. Run with the gc profiler to compare `gc.alloc.rate.norm`.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class LoggingBenchmark {
+    private val logger: PostHogLogger = PostHogNoOpLogger()
+
+    private var event = "benchmark event"
+
+    @Benchmark
+    fun eager() {
+        logger.log("Event: $event was added to the queue.")
+    }
+
+    @Benchmark
+    fun lazy() {
+        logger.log { "Event: $event was added to the queue." }
+    }
+}
@@ -0,0 +1,108 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.internal.EndpointSpec
+import com.posthog.internal.PostHogApi
+import com.posthog.internal.PostHogQueue
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * [PostHogQueue] draining a backlog built up while offline, in batches of 100 records, the way an
+ * app sends its queue once it's back online. Every operation drains the whole backlog, or loads it
+ * from disk the way the first add after a restart does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class QueueBacklogBenchmark {
+    @Param("1000", "10000")
+    var backlog: Int = 0
+
+    private lateinit var server: MockWebServer
+
+    private lateinit var executor: ExecutorService
+
+    private lateinit var storage: File
+
+    private lateinit var queue: PostHogQueue<PostHogEvent>
+
+    @Setup
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher =
+            object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse = MockResponse().setBody("")
+            }
+        server.start()
+        executor = Executors.newSingleThreadExecutor()
+    }
+
+    @Setup(Level.Invocation)
+    fun fillBacklog() {
+        storage = Files.createTempDirectory("posthog-benchmark").toFile()
+        val config =
+            PostHogConfig(API_KEY, server.url("/").toString()).apply {
+                storagePrefix = storage.absolutePath
+                // only the explicit flush sends
+                flushAt = Int.MAX_VALUE
+                maxQueueSize = Int.MAX_VALUE
+                maxBatchSize = BATCH_SIZE
+            }
+        queue = PostHogQueue(config, EndpointSpec.batch(config, PostHogApi(config), config.storagePrefix), executor)
+        repeat(backlog) {
+            queue.add(benchmarkEvent())
+        }
+        executor.submit(Runnable { }).get()
+    }
+
+    @TearDown(Level.Invocation)
+    fun clearBacklog() {
+        // the mock server records every request, don't let them pile up across invocations
+        do {
+            val request = server.takeRequest(0, TimeUnit.MILLISECONDS)
+        } while (request != null)
+        storage.deleteRecursively()
+    }
+
+    @TearDown
+    fun tearDown() {
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+        server.shutdown()
+    }
+
+    @Benchmark
+    fun drain() {
+        queue.flush()
+        // flush runs on the queue's executor, wait for it to finish
+        executor.submit(Runnable { }).get()
+    }
+
+    @Benchmark
+    fun load() {
+        queue.reloadFromDisk()
+    }
+
+    private companion object {
+        private const val BATCH_SIZE = 100
+    }
+}
@@ -0,0 +1,94 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.internal.EndpointSpec
+import com.posthog.internal.PostHogApi
+import com.posthog.internal.PostHogQueue
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * [PostHogQueue] writing a batch of events to disk and flushing it to a local mock server, one
+ * batch per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class QueueBenchmark {
+    @Param("1", "50")
+    var batchSize: Int = 0
+
+    private lateinit var server: MockWebServer
+
+    private lateinit var storage: File
+
+    private lateinit var executor: ExecutorService
+
+    private lateinit var queue: PostHogQueue<PostHogEvent>
+
+    @Setup
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher =
+            object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse = MockResponse().setBody("")
+            }
+        server.start()
+
+        storage = Files.createTempDirectory("posthog-benchmark").toFile()
+        executor = Executors.newSingleThreadExecutor()
+
+        val config =
+            PostHogConfig(API_KEY, server.url("/").toString()).apply {
+                storagePrefix = storage.absolutePath
+                // only the explicit flush sends
+                flushAt = Int.MAX_VALUE
+                maxBatchSize = batchSize
+            }
+        queue = PostHogQueue(config, EndpointSpec.batch(config, PostHogApi(config), config.storagePrefix), executor)
+    }
+
+    @TearDown(Level.Iteration)
+    fun drainRequests() {
+        // the mock server records every request, don't let them pile up across iterations
+        do {
+            val request = server.takeRequest(0, TimeUnit.MILLISECONDS)
+        } while (request != null)
+    }
+
+    @TearDown
+    fun tearDown() {
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+        server.shutdown()
+        storage.deleteRecursively()
+    }
+
+    @Benchmark
+    fun addAndFlush() {
+        repeat(batchSize) {
+            queue.add(benchmarkEvent())
+        }
+        queue.flush()
+        // add and flush run on the queue's executor, wait for them to finish
+        executor.submit(Runnable { }).get()
+    }
+}
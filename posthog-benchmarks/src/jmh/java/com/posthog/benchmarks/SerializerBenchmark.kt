@@ -0,0 +1,140 @@
+package com.posthog.benchmarks
+
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.internal.PostHogBatchEvent
+import com.posthog.internal.PostHogEventBinaryCodec
+import com.posthog.internal.PostHogSerializer
+import com.posthog.internal.replay.RRFullSnapshotEvent
+import com.posthog.internal.replay.RRStyle
+import com.posthog.internal.replay.RRWireframe
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.CharArrayWriter
+import java.io.StringReader
+import java.util.Date
+import java.util.concurrent.TimeUnit
+
+/**
+ * Event (de)serialization as done for every record written to and read from the queue, as JSON and
+ * with the binary storage encoding, and batches and replay snapshots as written to the request
+ * body, with the streaming adapters and with reflection. Run with `-prof gc` to compare
+ * allocations as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class SerializerBenchmark {
+    private val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+
+    private val reflectiveSerializer = PostHogSerializer(PostHogConfig(API_KEY), streamingModels = false)
+
+    private val writer = CharArrayWriter(2048)
+
+    private val binaryCodec = PostHogEventBinaryCodec(PostHogConfig(API_KEY))
+
+    private val output = ByteArrayOutputStream(2048)
+
+    private lateinit var event: PostHogEvent
+
+    private lateinit var json: String
+
+    private lateinit var binary: ByteArray
+
+    private lateinit var batch: PostHogBatchEvent
+
+    private lateinit var snapshot: RRFullSnapshotEvent
+
+    @Setup
+    fun setUp() {
+        event = benchmarkEvent()
+        batch = PostHogBatchEvent(API_KEY, List(BATCH_SIZE) { benchmarkEvent() }, sentAt = Date())
+        snapshot = RRFullSnapshotEvent(listOf(wireframe(depth = 4)), 0, 0, System.currentTimeMillis())
+        serializer.serialize(event, writer)
+        json = writer.toString()
+        binaryCodec.encode(event, output)
+        binary = output.toByteArray()
+    }
+
+    @Benchmark
+    fun serializeEvent(): Int {
+        writer.reset()
+        serializer.serialize(event, writer)
+        return writer.size()
+    }
+
+    @Benchmark
+    fun deserializeEvent(): PostHogEvent? = serializer.deserialize<PostHogEvent?>(StringReader(json))
+
+    @Benchmark
+    fun encodeEventBinary(): Int {
+        output.reset()
+        binaryCodec.encode(event, output)
+        return output.size()
+    }
+
+    @Benchmark
+    fun decodeEventBinary(): PostHogEvent = binaryCodec.decode(ByteArrayInputStream(binary))
+
+    @Benchmark
+    fun serializeEventReflective(): Int {
+        writer.reset()
+        reflectiveSerializer.serialize(event, writer)
+        return writer.size()
+    }
+
+    @Benchmark
+    fun serializeBatch(): Int {
+        writer.reset()
+        serializer.serialize(batch, writer)
+        return writer.size()
+    }
+
+    @Benchmark
+    fun serializeBatchReflective(): Int {
+        writer.reset()
+        reflectiveSerializer.serialize(batch, writer)
+        return writer.size()
+    }
+
+    @Benchmark
+    fun serializeSnapshot(): Int {
+        writer.reset()
+        serializer.serialize(snapshot, writer)
+        return writer.size()
+    }
+
+    @Benchmark
+    fun serializeSnapshotReflective(): Int {
+        writer.reset()
+        reflectiveSerializer.serialize(snapshot, writer)
+        return writer.size()
+    }
+
+    /**
+     * A screen of nested views, 4 children per level
+     */
+    private fun wireframe(depth: Int): RRWireframe =
+        RRWireframe(
+            id = depth,
+            x = 0,
+            y = depth * 10,
+            width = 1080,
+            height = 200,
+            childWireframes = if (depth == 0) null else List(4) { wireframe(depth - 1) },
+            type = "text",
+            text = "Some label",
+            style = RRStyle(color = "#000000", backgroundColor = "#ffffff", fontSize = 14, paddingLeft = 8),
+        )
+
+    private companion object {
+        private const val BATCH_SIZE = 50
+    }
+}
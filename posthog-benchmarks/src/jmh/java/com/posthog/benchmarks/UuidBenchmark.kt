@@ -0,0 +1,37 @@
+package com.posthog.benchmarks
+
+import com.posthog.vendor.uuid.ThreadLocalEpochGenerator
+import com.posthog.vendor.uuid.TimeBasedEpochGenerator
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+/**
+ * UUIDv7 generation as done for every captured event, with the locked [TimeBasedEpochGenerator]
+ * and the lock-free [ThreadLocalEpochGenerator], from one thread and from many threads capturing
+ * at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class UuidBenchmark {
+    @Benchmark
+    fun locked(): UUID = TimeBasedEpochGenerator.generate()
+
+    @Benchmark
+    fun threadLocal(): UUID = ThreadLocalEpochGenerator.generate()
+
+    @Benchmark
+    @Threads(8)
+    fun lockedContended(): UUID = TimeBasedEpochGenerator.generate()
+
+    @Benchmark
+    @Threads(8)
+    fun threadLocalContended(): UUID = ThreadLocalEpochGenerator.generate()
+}
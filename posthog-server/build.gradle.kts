@@ -101,6 +101,12 @@ dependencies {
     implementation("com.squareup.okhttp3:okhttp")
     compileOnly("org.codehaus.mojo:animal-sniffer-annotations:${PosthogBuildConfig.Plugins.ANIMAL_SNIFFER_SDK_ANNOTATION}")
 
+    // optional, only needed by PostHogMicrometerMetrics
+    compileOnly("io.micrometer:micrometer-core:${PosthogBuildConfig.Dependencies.MICROMETER}")
+    // optional, only needed by PostHogRequestContextElement and PostHogReactorContext
+    compileOnly("org.jetbrains.kotlinx:kotlinx-coroutines-core:${PosthogBuildConfig.Dependencies.COROUTINES}")
+    compileOnly("io.projectreactor:reactor-core:${PosthogBuildConfig.Dependencies.REACTOR}")
+
     // compatibility
     signature("org.codehaus.mojo.signature:java18:${PosthogBuildConfig.Plugins.SIGNATURE_JAVA18}@signature")
 
@@ -109,6 +115,9 @@ dependencies {
     testImplementation("org.mockito:mockito-inline:${PosthogBuildConfig.Dependencies.MOCKITO_INLINE}")
     testImplementation("org.jetbrains.kotlin:kotlin-test-junit:${PosthogBuildConfig.Kotlin.KOTLIN}")
     testImplementation("com.squareup.okhttp3:mockwebserver:${PosthogBuildConfig.Dependencies.OKHTTP}")
+    testImplementation("io.micrometer:micrometer-core:${PosthogBuildConfig.Dependencies.MICROMETER}")
+    testImplementation("org.jetbrains.kotlinx:kotlinx-coroutines-core:${PosthogBuildConfig.Dependencies.COROUTINES}")
+    testImplementation("io.projectreactor:reactor-core:${PosthogBuildConfig.Dependencies.REACTOR}")
 }
 
 tasks.javadoc {
@@ -3,8 +3,11 @@ package com.posthog.server
 import com.posthog.FeatureFlagResult
 import com.posthog.PostHogStateless
 import com.posthog.internal.FeatureFlag
+import com.posthog.server.internal.EvaluateFlagsResult
 import com.posthog.server.internal.EvaluationsHost
 import com.posthog.server.internal.PostHogFeatureFlags
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
 
 @Suppress("DEPRECATION")
 public class PostHog : PostHogStateless(), PostHogInterface {
@@ -173,6 +176,68 @@ public class PostHog : PostHogStateless(), PostHogInterface {
         )
     }
 
+    override fun getFeatureFlagAsync(
+        distinctId: String,
+        key: String,
+        defaultValue: Any?,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+    ): CompletionStage<Any?> {
+        val resolvedDistinctId = PostHogRequestContext.resolveDistinctId(distinctId) ?: distinctId
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(defaultValue)
+        }
+        val featureFlagsImpl =
+            featureFlags as? PostHogFeatureFlags
+                ?: return CompletableFuture.completedFuture(defaultValue)
+
+        // the stage may complete on the HTTP client's thread, the event is sent with the caller's context
+        val requestContext = PostHogRequestContext.current()
+        return featureFlagsImpl.getFeatureFlagResultAsync(
+            key,
+            resolvedDistinctId,
+            groups,
+            personProperties,
+            groupProperties,
+        ).thenApply { result ->
+            val flagValue = result?.value ?: defaultValue
+            val previousContext = PostHogRequestContext.attach(requestContext)
+            try {
+                sendFeatureFlagCalled(resolvedDistinctId, key, flagValue, groups, personProperties, groupProperties)
+            } catch (e: Throwable) {
+                getConfig<com.posthog.PostHogConfig>()?.logger?.log("Failed to send \$feature_flag_called: $e.")
+            } finally {
+                PostHogRequestContext.restore(previousContext)
+            }
+            flagValue
+        }
+    }
+
+    override fun isFeatureEnabledAsync(
+        distinctId: String,
+        key: String,
+        defaultValue: Boolean,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+    ): CompletionStage<Boolean> {
+        return getFeatureFlagAsync(
+            distinctId,
+            key,
+            defaultValue,
+            groups,
+            personProperties,
+            groupProperties,
+        ).thenApply { value ->
+            when (value) {
+                is Boolean -> value
+                is String -> value.isNotEmpty()
+                else -> false
+            }
+        }
+    }
+
     @Deprecated(
         message = "Prefer evaluateFlags(distinctId).getFlagPayload(key). Will be removed in the next major.",
     )
@@ -247,6 +312,12 @@ public class PostHog : PostHogStateless(), PostHogInterface {
         (featureFlags as? PostHogFeatureFlags)?.loadFeatureFlagDefinitions()
     }
 
+    override fun flagDefinitionsReady(): CompletionStage<Void?> {
+        // hand out a dependent stage, so a caller completing it cannot mark definitions ready
+        return (featureFlags as? PostHogFeatureFlags)?.definitionsReady?.thenApply { it }
+            ?: CompletableFuture.completedFuture(null)
+    }
+
     override fun captureException(
         exception: Throwable,
         distinctId: String?,
@@ -391,8 +462,45 @@ public class PostHog : PostHogStateless(), PostHogInterface {
                 disableGeoip = disableGeoip,
             )
 
-        return PostHogFeatureFlagEvaluations(
+        return toEvaluations(resolvedDistinctId, result, groups)
+    }
+
+    override fun evaluateFlagsAsync(
+        distinctId: String?,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        onlyEvaluateLocally: Boolean,
+        disableGeoip: Boolean,
+    ): CompletionStage<PostHogFeatureFlagEvaluations> {
+        val resolvedDistinctId = PostHogRequestContext.resolveDistinctId(distinctId)
+        if (resolvedDistinctId.isNullOrBlank()) {
+            return CompletableFuture.completedFuture(PostHogFeatureFlagEvaluations.empty(evaluationsHost))
+        }
+
+        val featureFlagsImpl =
+            featureFlags as? PostHogFeatureFlags
+                ?: return CompletableFuture.completedFuture(PostHogFeatureFlagEvaluations.empty(evaluationsHost))
+
+        return featureFlagsImpl.evaluateFlagsAsync(
             distinctId = resolvedDistinctId,
+            groups = groups,
+            personProperties = personProperties,
+            groupProperties = groupProperties,
+            flagKeys = flagKeys,
+            onlyEvaluateLocally = onlyEvaluateLocally,
+            disableGeoip = disableGeoip,
+        ).thenApply { result -> toEvaluations(resolvedDistinctId, result, groups) }
+    }
+
+    private fun toEvaluations(
+        distinctId: String,
+        result: EvaluateFlagsResult,
+        groups: Map<String, String>?,
+    ): PostHogFeatureFlagEvaluations {
+        return PostHogFeatureFlagEvaluations(
+            distinctId = distinctId,
             flagMap = result.flags,
             locallyEvaluated = result.locallyEvaluated,
             requestId = result.requestId,
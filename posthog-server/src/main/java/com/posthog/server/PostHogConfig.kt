@@ -5,12 +5,19 @@ import com.posthog.PostHogBeforeSend
 import com.posthog.PostHogEncryption
 import com.posthog.PostHogExperimental
 import com.posthog.PostHogIntegration
+import com.posthog.PostHogMetrics
 import com.posthog.PostHogOnFeatureFlags
 import com.posthog.server.internal.PostHogFeatureFlags
 import com.posthog.server.internal.PostHogMemoryQueue
 import com.posthog.server.internal.PostHogServerContext
+import com.posthog.server.internal.PostHogSharedResources
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import java.net.Proxy
 import java.util.Collections
+import java.util.concurrent.TimeUnit
 
 /**
  * Server-side SDK configuration.
@@ -168,6 +175,102 @@ public open class PostHogConfig constructor(
      */
     public var flagDefinitionCacheProvider: PostHogFlagDefinitionCacheProvider? = null
 
+    /**
+     * The longest a feature flag evaluation waits, in milliseconds, for the first load of
+     * local-evaluation flag definitions before falling back to the `/flags` API (or to the default
+     * value when evaluating locally only).
+     *
+     * When null, the first evaluation loads the definitions inline and every concurrent evaluation
+     * blocks until that request completes. When set, the first load runs in the background and
+     * evaluations wait at most this long for it; 0 never waits. Use
+     * [PostHogInterface.flagDefinitionsReady] to await the load explicitly, e.g. from a readiness
+     * probe.
+     * Defaults to null.
+     */
+    public var initialFlagDefinitionsWaitMs: Int? = null
+
+    /**
+     * How long, in milliseconds, a remote feature flag result may still be served after
+     * [featureFlagCacheMaxAgeMs] has passed. A stale result is returned immediately while a
+     * background request refreshes it, so flag checks don't block on `/flags` each time a user's
+     * entry ages out. Once this window has also passed the entry is dropped and the next check
+     * calls `/flags` inline.
+     * Defaults to 0, which serves nothing past [featureFlagCacheMaxAgeMs].
+     */
+    @PostHogExperimental
+    public var featureFlagCacheStaleWhileRevalidateMs: Int = 0
+
+    /**
+     * The maximum number of blocking remote feature flag requests from cache misses in flight at
+     * once. Further callers wait on their own thread for one to finish, so evaluating flags for many
+     * users in parallel doesn't open a request per user. Asynchronous requests are bounded by
+     * [maxRequestsPerHost] instead.
+     * Defaults to 0, which doesn't limit them.
+     */
+    @PostHogExperimental
+    public var featureFlagRemoteMaxConcurrentRequests: Int = 0
+
+    /**
+     * Number of independently locked shards the [featureFlagCalledCacheSize] cache is split into,
+     * so request threads reading flags for different users don't contend on one lock. Eviction is
+     * least recently used within each shard.
+     * Defaults to [DEFAULT_FEATURE_FLAG_CALLED_CACHE_SHARDS]; 1 keeps a single, exact LRU.
+     */
+    public var featureFlagCalledCacheShards: Int = DEFAULT_FEATURE_FLAG_CALLED_CACHE_SHARDS
+
+    /**
+     * Receives the SDK's own metrics: records enqueued, dropped and sent, batch sizes, request
+     * timings, retries, feature flag cache hits and local vs remote evaluations. Use
+     * [PostHogMicrometerMetrics] to report them to a Micrometer registry.
+     * Defaults to null, which drops them.
+     */
+    public var metrics: PostHogMetrics? = null
+
+    /**
+     * An OkHttpClient whose connection pool and dispatcher this SDK instance shares, e.g. one
+     * client for every project of a multi-tenant service, so connections and TLS sessions to
+     * PostHog are reused across instances instead of each opening its own. The SDK derives its
+     * client with [OkHttpClient.newBuilder] and adds its own interceptors and [proxy].
+     *
+     * When set, [maxIdleConnections], [connectionKeepAliveSeconds], [maxRequestsPerHost] and
+     * [http2] are ignored, configure them on the shared client instead.
+     * Defaults to null, which gives each SDK instance its own connection pool and dispatcher.
+     */
+    public var sharedHttpClient: OkHttpClient? = null
+
+    /**
+     * The maximum number of idle connections to the PostHog API kept open for reuse.
+     * Defaults to [DEFAULT_MAX_IDLE_CONNECTIONS].
+     */
+    public var maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS
+
+    /**
+     * How long, in seconds, an idle connection to the PostHog API is kept open for reuse.
+     * Defaults to [DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS].
+     */
+    public var connectionKeepAliveSeconds: Int = DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS
+
+    /**
+     * The maximum number of asynchronous requests, e.g. from [PostHogInterface.getFeatureFlagAsync],
+     * running at once against the PostHog API. Over HTTP/2 they share a single connection.
+     * Defaults to [DEFAULT_MAX_REQUESTS_PER_HOST].
+     */
+    public var maxRequestsPerHost: Int = DEFAULT_MAX_REQUESTS_PER_HOST
+
+    /**
+     * Whether to use HTTP/2 when the PostHog API supports it, multiplexing concurrent requests over
+     * one connection. Set it to false to only use HTTP/1.1, e.g. behind a proxy that mishandles
+     * HTTP/2.
+     * Defaults to true.
+     */
+    public var http2: Boolean = true
+
+    /**
+     * Threads and connections shared with the other tenants of a [PostHogMultiTenant], null for a
+     * standalone instance.
+     */
+    internal var sharedResources: PostHogSharedResources? = null
+
     /**
      * Identifier attached as `map_id` to exception stack frames so PostHog can symbolicate
      * them against an uploaded ProGuard/R8 mapping. It must match the map-id used when
@@ -233,12 +336,14 @@ public open class PostHogConfig constructor(
     @Suppress("DEPRECATION")
     @JvmSynthetic
     internal fun asCoreConfig(): com.posthog.PostHogConfig {
+        val sharedResources = sharedResources
         val coreConfig =
             com.posthog.PostHogConfig(
                 apiKey = apiKey,
                 host = host,
                 debug = debug,
                 sendFeatureFlagEvent = sendFeatureFlagEvent,
+                featureFlagCalledCacheSize = featureFlagCalledCacheSize,
                 preloadFeatureFlags = preloadFeatureFlags,
                 remoteConfig = remoteConfig,
                 flushAt = flushAt,
@@ -254,15 +359,26 @@ public open class PostHogConfig constructor(
                         api,
                         cacheMaxAgeMs = featureFlagCacheMaxAgeMs,
                         cacheMaxSize = featureFlagCacheSize,
+                        cacheStaleWhileRevalidateMs = featureFlagCacheStaleWhileRevalidateMs,
                         localEvaluation = localEvaluation,
                         personalApiKey = personalApiKey,
                         pollIntervalSeconds = pollIntervalSeconds,
                         onFeatureFlags = onFeatureFlags,
                         flagDefinitionCacheProvider = flagDefinitionCacheProvider,
+                        initialDefinitionsWaitMs = initialFlagDefinitionsWaitMs,
+                        remoteMaxConcurrentRequests = featureFlagRemoteMaxConcurrentRequests,
+                        pollScheduler = sharedResources?.scheduler,
+                        definitionsLoader = sharedResources?.flagDefinitionsLoader,
                     )
                 },
                 queueProvider = { config, api, endpoint, _, executor ->
-                    PostHogMemoryQueue(config, api, endpoint, executor)
+                    PostHogMemoryQueue(
+                        config,
+                        api,
+                        endpoint,
+                        sharedResources?.newQueueExecutor() ?: executor,
+                        flushScheduler = sharedResources?.scheduler,
+                    )
                 },
             )
 
@@ -275,6 +391,11 @@ public open class PostHogConfig constructor(
         coreConfig.sdkVersion = BuildConfig.VERSION_NAME
         coreConfig.context = PostHogServerContext(coreConfig)
 
+        coreConfig.featureFlagCalledCacheShards = featureFlagCalledCacheShards
+        metrics?.let { coreConfig.metrics = it }
+        coreConfig.baseHttpClient =
+            sharedHttpClient ?: sharedResources?.httpClient { buildHttpClient() } ?: buildHttpClient()
+
         // Propagate evaluationContexts if set
         coreConfig.evaluationContexts = evaluationContexts
 
@@ -288,6 +409,17 @@ public open class PostHogConfig constructor(
         return coreConfig
     }
 
+    private fun buildHttpClient(): OkHttpClient {
+        val dispatcher = Dispatcher()
+        dispatcher.maxRequestsPerHost = maxRequestsPerHost
+        val protocols = if (http2) listOf(Protocol.HTTP_2, Protocol.HTTP_1_1) else listOf(Protocol.HTTP_1_1)
+        return OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(maxIdleConnections, connectionKeepAliveSeconds.toLong(), TimeUnit.SECONDS))
+            .dispatcher(dispatcher)
+            .protocols(protocols)
+            .build()
+    }
+
     public companion object {
         public const val DEFAULT_US_HOST: String = "https://us.i.posthog.com"
         public const val DEFAULT_US_ASSETS_HOST: String = "https://us-assets.i.posthog.com"
@@ -305,7 +437,11 @@ public open class PostHogConfig constructor(
         public const val DEFAULT_FEATURE_FLAG_CACHE_SIZE: Int = 1000
         public const val DEFAULT_FEATURE_FLAG_CACHE_MAX_AGE_MS: Int = 5 * 60 * 1000 // 5 minutes
         public const val DEFAULT_FEATURE_FLAG_CALLED_CACHE_SIZE: Int = 1000
+        public const val DEFAULT_FEATURE_FLAG_CALLED_CACHE_SHARDS: Int = 16
         public const val DEFAULT_POLL_INTERVAL_SECONDS: Int = 30
+        public const val DEFAULT_MAX_IDLE_CONNECTIONS: Int = 5
+        public const val DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS: Int = 5 * 60 // 5 minutes
+        public const val DEFAULT_MAX_REQUESTS_PER_HOST: Int = 5
 
         /**
          * Default [inAppExcludes] prefixes: common JVM, Kotlin, and server-framework packages
@@ -373,12 +509,22 @@ public open class PostHogConfig constructor(
         private var proxy: Proxy? = null
         private var featureFlagCacheSize: Int = DEFAULT_FEATURE_FLAG_CACHE_SIZE
         private var featureFlagCacheMaxAgeMs: Int = DEFAULT_FEATURE_FLAG_CACHE_MAX_AGE_MS
+        private var featureFlagCacheStaleWhileRevalidateMs: Int = 0
+        private var featureFlagRemoteMaxConcurrentRequests: Int = 0
         private var featureFlagCalledCacheSize: Int = DEFAULT_FEATURE_FLAG_CALLED_CACHE_SIZE
+        private var featureFlagCalledCacheShards: Int = DEFAULT_FEATURE_FLAG_CALLED_CACHE_SHARDS
+        private var metrics: PostHogMetrics? = null
+        private var sharedHttpClient: OkHttpClient? = null
+        private var maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS
+        private var connectionKeepAliveSeconds: Int = DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS
+        private var maxRequestsPerHost: Int = DEFAULT_MAX_REQUESTS_PER_HOST
+        private var http2: Boolean = true
         private var localEvaluation: Boolean? = null
         private var personalApiKey: String? = null
         private var pollIntervalSeconds: Int = DEFAULT_POLL_INTERVAL_SECONDS
         private var evaluationContexts: List<String>? = null
         private var flagDefinitionCacheProvider: PostHogFlagDefinitionCacheProvider? = null
+        private var initialFlagDefinitionsWaitMs: Int? = null
         private var releaseIdentifier: String? = null
         private var inAppIncludes: List<String> = emptyList()
         private var inAppExcludes: List<String> = DEFAULT_IN_APP_EXCLUDES
@@ -503,6 +649,25 @@ public open class PostHogConfig constructor(
         public fun featureFlagCacheMaxAgeMs(featureFlagCacheMaxAgeMs: Int): Builder =
             apply { this.featureFlagCacheMaxAgeMs = featureFlagCacheMaxAgeMs }
 
+        /**
+         * Sets how long past its maximum age a cached feature flag result may still be served
+         * while it is refreshed in the background.
+         *
+         * @param featureFlagCacheStaleWhileRevalidateMs Stale window in milliseconds, or 0 to disable.
+         * @return This builder.
+         */
+        public fun featureFlagCacheStaleWhileRevalidateMs(featureFlagCacheStaleWhileRevalidateMs: Int): Builder =
+            apply { this.featureFlagCacheStaleWhileRevalidateMs = featureFlagCacheStaleWhileRevalidateMs }
+
+        /**
+         * Sets the maximum number of blocking remote feature flag requests in flight at once.
+         *
+         * @param featureFlagRemoteMaxConcurrentRequests Maximum concurrent requests, or 0 for no limit.
+         * @return This builder.
+         */
+        public fun featureFlagRemoteMaxConcurrentRequests(featureFlagRemoteMaxConcurrentRequests: Int): Builder =
+            apply { this.featureFlagRemoteMaxConcurrentRequests = featureFlagRemoteMaxConcurrentRequests }
+
         /**
          * Sets the maximum number of distinct `$feature_flag_called` events tracked for deduplication.
          *
@@ -512,6 +677,67 @@ public open class PostHogConfig constructor(
         public fun featureFlagCalledCacheSize(featureFlagCalledCacheSize: Int): Builder =
             apply { this.featureFlagCalledCacheSize = featureFlagCalledCacheSize }
 
+        /**
+         * Sets the number of shards the feature flag called deduplication cache is split into.
+         *
+         * @param featureFlagCalledCacheShards Number of shards, at least 1.
+         * @return This builder.
+         */
+        public fun featureFlagCalledCacheShards(featureFlagCalledCacheShards: Int): Builder =
+            apply { this.featureFlagCalledCacheShards = featureFlagCalledCacheShards }
+
+        /**
+         * Sets where the SDK reports its own metrics.
+         *
+         * @param metrics Metrics receiver, e.g. [PostHogMicrometerMetrics], or null to drop them.
+         * @return This builder.
+         */
+        public fun metrics(metrics: PostHogMetrics?): Builder = apply { this.metrics = metrics }
+
+        /**
+         * Sets an OkHttpClient whose connection pool and dispatcher are shared with this SDK instance.
+         *
+         * @param sharedHttpClient Client to share, or null for a connection pool per SDK instance.
+         * @return This builder.
+         */
+        public fun sharedHttpClient(sharedHttpClient: OkHttpClient?): Builder =
+            apply { this.sharedHttpClient = sharedHttpClient }
+
+        /**
+         * Sets the maximum number of idle connections kept open for reuse.
+         *
+         * @param maxIdleConnections Maximum idle connections.
+         * @return This builder.
+         */
+        public fun maxIdleConnections(maxIdleConnections: Int): Builder =
+            apply { this.maxIdleConnections = maxIdleConnections }
+
+        /**
+         * Sets how long an idle connection is kept open for reuse.
+         *
+         * @param connectionKeepAliveSeconds Keep-alive duration in seconds.
+         * @return This builder.
+         */
+        public fun connectionKeepAliveSeconds(connectionKeepAliveSeconds: Int): Builder =
+            apply { this.connectionKeepAliveSeconds = connectionKeepAliveSeconds }
+
+        /**
+         * Sets the maximum number of asynchronous requests running at once against the PostHog API.
+         *
+         * @param maxRequestsPerHost Maximum concurrent asynchronous requests.
+         * @return This builder.
+         */
+        public fun maxRequestsPerHost(maxRequestsPerHost: Int): Builder =
+            apply { this.maxRequestsPerHost = maxRequestsPerHost }
+
+        /**
+         * Enables or disables HTTP/2.
+         *
+         * @param http2 false to only use HTTP/1.1.
+         * @return This builder.
+         */
+        public fun http2(http2: Boolean): Builder = apply { this.http2 = http2 }
+
         /**
          * Enables or disables local feature flag evaluation.
          *
@@ -562,6 +788,16 @@ public open class PostHogConfig constructor(
         public fun flagDefinitionCacheProvider(flagDefinitionCacheProvider: PostHogFlagDefinitionCacheProvider?): Builder =
             apply { this.flagDefinitionCacheProvider = flagDefinitionCacheProvider }
 
+        /**
+         * Sets the longest a flag evaluation waits for the first load of local-evaluation flag
+         * definitions before falling back to the `/flags` API.
+         *
+         * @param initialFlagDefinitionsWaitMs Wait budget in milliseconds, or null to load inline.
+         * @return This builder.
+         */
+        public fun initialFlagDefinitionsWaitMs(initialFlagDefinitionsWaitMs: Int?): Builder =
+            apply { this.initialFlagDefinitionsWaitMs = initialFlagDefinitionsWaitMs }
+
         /**
          * Sets the identifier attached as `map_id` to exception stack frames for symbolication.
          *
@@ -625,6 +861,16 @@ public open class PostHogConfig constructor(
                     evaluationContexts = evaluationContexts,
                 )
             config.flagDefinitionCacheProvider = flagDefinitionCacheProvider
+            config.initialFlagDefinitionsWaitMs = initialFlagDefinitionsWaitMs
+            config.featureFlagCacheStaleWhileRevalidateMs = featureFlagCacheStaleWhileRevalidateMs
+            config.featureFlagRemoteMaxConcurrentRequests = featureFlagRemoteMaxConcurrentRequests
+            config.featureFlagCalledCacheShards = featureFlagCalledCacheShards
+            config.metrics = metrics
+            config.sharedHttpClient = sharedHttpClient
+            config.maxIdleConnections = maxIdleConnections
+            config.connectionKeepAliveSeconds = connectionKeepAliveSeconds
+            config.maxRequestsPerHost = maxRequestsPerHost
+            config.http2 = http2
             config.releaseIdentifier = releaseIdentifier
             config.inAppIncludes = inAppIncludes
             config.inAppExcludes = inAppExcludes
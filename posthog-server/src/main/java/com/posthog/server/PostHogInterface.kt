@@ -2,6 +2,7 @@ package com.posthog.server
 
 import com.posthog.FeatureFlagResult
 import java.util.Date
+import java.util.concurrent.CompletionStage
 
 /**
  * Public server-side SDK client API.
@@ -524,6 +525,135 @@ public sealed interface PostHogInterface {
         )
     }
 
+    /**
+     * Non-blocking variant of [getFeatureFlag] for reactive and event-loop code. The returned stage
+     * completes once the flag is resolved; a `/flags` request, when needed, runs on the HTTP
+     * client's own threads and retries are scheduled rather than slept, so the calling thread is
+     * never blocked. Flag definitions for local evaluation that are still loading are not waited
+     * for. Dependent stages without an explicit executor may run on those HTTP threads, so keep
+     * them short or use the async `then*` variants.
+     * Docs https://posthog.com/docs/feature-flags and https://posthog.com/docs/experiments
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @param defaultValue the default value if not found
+     * @param groups groups for group-based flags
+     * @param personProperties person properties for flag evaluation
+     * @param groupProperties group properties for flag evaluation
+     * @return A stage completed with the feature flag value, or [defaultValue] if not found. It
+     *   never completes exceptionally because of a failed request.
+     */
+    public fun getFeatureFlagAsync(
+        distinctId: String,
+        key: String,
+        defaultValue: Any? = null,
+        groups: Map<String, String>? = null,
+        personProperties: Map<String, Any?>? = null,
+        groupProperties: Map<String, Map<String, Any?>>? = null,
+    ): CompletionStage<Any?>
+
+    /**
+     * Non-blocking variant of [getFeatureFlag], see [getFeatureFlagAsync].
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @return A stage completed with the feature flag value, or null if not found.
+     */
+    public fun getFeatureFlagAsync(
+        distinctId: String,
+        key: String,
+    ): CompletionStage<Any?> {
+        return getFeatureFlagAsync(
+            distinctId,
+            key,
+            defaultValue = null,
+            groups = null,
+            personProperties = null,
+            groupProperties = null,
+        )
+    }
+
+    /**
+     * Non-blocking variant of [getFeatureFlag], see [getFeatureFlagAsync].
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @param options the feature flag options containing defaultValue, groups, personProperties, and groupProperties
+     * @return A stage completed with the feature flag value, or the options default value if not found.
+     */
+    public fun getFeatureFlagAsync(
+        distinctId: String,
+        key: String,
+        options: PostHogFeatureFlagOptions,
+    ): CompletionStage<Any?> {
+        return getFeatureFlagAsync(
+            distinctId,
+            key,
+            defaultValue = options.defaultValue,
+            groups = options.groups,
+            personProperties = options.personProperties,
+            groupProperties = options.groupProperties,
+        )
+    }
+
+    /**
+     * Non-blocking variant of [isFeatureEnabled], see [getFeatureFlagAsync].
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @param defaultValue the default value if not found, false if not given
+     * @param groups groups for group-based flags
+     * @param personProperties person properties for flag evaluation
+     * @param groupProperties group properties for flag evaluation
+     * @return A stage completed with whether the feature flag is enabled.
+     */
+    public fun isFeatureEnabledAsync(
+        distinctId: String,
+        key: String,
+        defaultValue: Boolean = false,
+        groups: Map<String, String>? = null,
+        personProperties: Map<String, Any?>? = null,
+        groupProperties: Map<String, Map<String, Any?>>? = null,
+    ): CompletionStage<Boolean>
+
+    /**
+     * Non-blocking variant of [isFeatureEnabled], see [getFeatureFlagAsync].
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @return A stage completed with whether the feature flag is enabled.
+     */
+    public fun isFeatureEnabledAsync(
+        distinctId: String,
+        key: String,
+    ): CompletionStage<Boolean> {
+        return isFeatureEnabledAsync(
+            distinctId,
+            key,
+            defaultValue = false,
+            groups = null,
+            personProperties = null,
+            groupProperties = null,
+        )
+    }
+
+    /**
+     * Non-blocking variant of [isFeatureEnabled], see [getFeatureFlagAsync].
+     * @param distinctId the distinctId
+     * @param key the Key
+     * @param options the feature flag options containing defaultValue, groups, personProperties, and groupProperties
+     * @return A stage completed with whether the feature flag is enabled.
+     */
+    public fun isFeatureEnabledAsync(
+        distinctId: String,
+        key: String,
+        options: PostHogFeatureFlagOptions,
+    ): CompletionStage<Boolean> {
+        return isFeatureEnabledAsync(
+            distinctId,
+            key,
+            defaultValue = options.defaultValue as? Boolean ?: false,
+            groups = options.groups,
+            personProperties = options.personProperties,
+            groupProperties = options.groupProperties,
+        )
+    }
+
     /**
      * Returns the feature flag result containing both value and payload.
      * Docs https://posthog.com/docs/feature-flags and https://posthog.com/docs/experiments
@@ -749,6 +879,77 @@ public sealed interface PostHogInterface {
         return evaluateFlags(distinctId = null)
     }
 
+    /**
+     * Non-blocking variant of [evaluateFlags] for reactive and event-loop code: the `/flags`
+     * request, when one is needed, runs on the HTTP client's own threads and flag definitions
+     * that are still loading are not waited for. Arguments and the snapshot are as for
+     * [evaluateFlags]. The [PostHogRequestContext] distinct ID is read on the calling thread.
+     *
+     * @param distinctId the distinctId. When null or blank, the current [PostHogRequestContext]
+     *   distinct ID is used; if none exists, an empty snapshot is returned.
+     * @param groups groups for group-based flags
+     * @param personProperties person properties for flag evaluation
+     * @param groupProperties group properties for flag evaluation
+     * @param flagKeys when non-empty, restricts evaluation to the given keys, see [evaluateFlags]
+     * @param onlyEvaluateLocally when true, no `/flags` request is made, see [evaluateFlags]
+     * @param disableGeoip when true, send `geoip_disable=true` to the server
+     * @return A stage completed with the feature flag evaluation snapshot. It never completes
+     *   exceptionally because of a failed request.
+     */
+    @JvmSynthetic
+    public fun evaluateFlagsAsync(
+        distinctId: String?,
+        groups: Map<String, String>? = null,
+        personProperties: Map<String, Any?>? = null,
+        groupProperties: Map<String, Map<String, Any?>>? = null,
+        flagKeys: List<String>? = null,
+        onlyEvaluateLocally: Boolean = false,
+        disableGeoip: Boolean = false,
+    ): CompletionStage<PostHogFeatureFlagEvaluations>
+
+    /**
+     * Non-blocking variant of [evaluateFlags] using the supplied options object, see
+     * [evaluateFlagsAsync].
+     *
+     * @param distinctId the distinctId. When null or blank, the current [PostHogRequestContext]
+     *   distinct ID is used; if none exists, an empty snapshot is returned.
+     * @param options Evaluation options.
+     * @return A stage completed with the feature flag evaluation snapshot.
+     */
+    public fun evaluateFlagsAsync(
+        distinctId: String?,
+        options: PostHogEvaluateFlagsOptions,
+    ): CompletionStage<PostHogFeatureFlagEvaluations> {
+        return evaluateFlagsAsync(
+            distinctId = distinctId,
+            groups = options.groups,
+            personProperties = options.personProperties,
+            groupProperties = options.groupProperties,
+            flagKeys = options.flagKeys,
+            onlyEvaluateLocally = options.onlyEvaluateLocally,
+            disableGeoip = options.disableGeoip,
+        )
+    }
+
+    /**
+     * Non-blocking variant of [evaluateFlags] using default options, see [evaluateFlagsAsync].
+     *
+     * @param distinctId the distinctId. When null or blank, the current [PostHogRequestContext]
+     *   distinct ID is used; if none exists, an empty snapshot is returned.
+     * @return A stage completed with the feature flag evaluation snapshot.
+     */
+    public fun evaluateFlagsAsync(distinctId: String?): CompletionStage<PostHogFeatureFlagEvaluations> {
+        return evaluateFlagsAsync(
+            distinctId = distinctId,
+            groups = null,
+            personProperties = null,
+            groupProperties = null,
+            flagKeys = null,
+            onlyEvaluateLocally = false,
+            disableGeoip = false,
+        )
+    }
+
     /**
      * Reloads feature flag definitions from the server for use with local evaluation.
      * Note that feature flag definitions are automatically fetched on initialization and
@@ -758,6 +959,18 @@ public sealed interface PostHogInterface {
      */
     public fun reloadFeatureFlags()
 
+    /**
+     * Returns a stage that completes once feature flag definitions for local evaluation have been
+     * loaded for the first time, from the API or the configured flag definition cache provider.
+     * Completes immediately when local evaluation is disabled or has no personal API key.
+     * Never completes exceptionally; a failing load keeps it pending while the poller retries, so
+     * await it with a timeout, e.g. from a readiness probe.
+     * Docs https://posthog.com/docs/feature-flags/local-evaluation
+     *
+     * @return A stage completed when flag definitions are ready.
+     */
+    public fun flagDefinitionsReady(): CompletionStage<Void?>
+
     /**
      * Captures an exception
      * Docs https://posthog.com/docs/error-tracking
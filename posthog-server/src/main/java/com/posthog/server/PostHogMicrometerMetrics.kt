@@ -0,0 +1,86 @@
+package com.posthog.server
+
+import com.posthog.PostHogMetrics
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Tag
+import io.micrometer.core.instrument.binder.BaseUnits
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Reports the SDK's [PostHogMetrics] to a Micrometer [MeterRegistry]. Counts become [Counter]s
+ * and recorded values become [DistributionSummary]s, in milliseconds for the `*.duration` and
+ * `*.latency` metrics. Percentiles and histograms are left to the registry's configuration.
+ * [PostHogMetrics.QUEUE_DEPTH] becomes a [Gauge] of the latest depth.
+ *
+ * Micrometer isn't a dependency of the SDK, add `io.micrometer:micrometer-core` to use this class.
+ *
+ * ```kotlin
+ * val config =
+ *     PostHogConfig.builder(apiKey)
+ *         .metrics(PostHogMicrometerMetrics(meterRegistry))
+ *         .build()
+ * ```
+ *
+ * @property registry the registry the meters are registered with
+ */
+public class PostHogMicrometerMetrics(
+    private val registry: MeterRegistry,
+) : PostHogMetrics {
+    private data class MeterKey(
+        val name: String,
+        val tags: Map<String, String>,
+    )
+
+    private val counters = ConcurrentHashMap<MeterKey, Counter>()
+    private val summaries = ConcurrentHashMap<MeterKey, DistributionSummary>()
+    private val gauges = ConcurrentHashMap<MeterKey, AtomicLong>()
+
+    override fun count(
+        name: String,
+        amount: Long,
+        tags: Map<String, String>,
+    ) {
+        val counter =
+            counters.getOrPut(MeterKey(name, tags)) {
+                Counter.builder(name)
+                    .tags(toTags(tags))
+                    .register(registry)
+            }
+        counter.increment(amount.toDouble())
+    }
+
+    override fun record(
+        name: String,
+        value: Double,
+        tags: Map<String, String>,
+    ) {
+        if (name == PostHogMetrics.QUEUE_DEPTH) {
+            val gauge =
+                gauges.getOrPut(MeterKey(name, tags)) {
+                    val depth = AtomicLong()
+                    Gauge.builder(name, depth) { it.toDouble() }
+                        .tags(toTags(tags))
+                        .register(registry)
+                    depth
+                }
+            gauge.set(value.toLong())
+            return
+        }
+
+        val summary =
+            summaries.getOrPut(MeterKey(name, tags)) {
+                val builder = DistributionSummary.builder(name).tags(toTags(tags))
+                if (name.endsWith(".duration") || name.endsWith(".latency")) {
+                    builder.baseUnit(BaseUnits.MILLISECONDS)
+                }
+                builder.register(registry)
+            }
+        summary.record(value)
+    }
+
+    private fun toTags(tags: Map<String, String>): List<Tag> = tags.map { Tag.of(it.key, it.value) }
+}
@@ -0,0 +1,117 @@
+package com.posthog.server
+
+import com.posthog.server.internal.PostHogSharedResources
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Hosts a PostHog client per project API key in one instance, e.g. for a gateway routing events
+ * for many projects. Every tenant keeps its own queue, feature flag cache and flag definitions,
+ * but all tenants share the threads sending batches, the threads timing flushes, flag definition
+ * polls and `/flags` retries, the threads loading flag definitions, and one OkHttp client. Only
+ * threads a tenant starts on demand are its own: the ones refreshing stale cached flags, which
+ * stop once idle for a minute.
+ *
+ * Tenants are created on first use with the [configFactory]. Unless a tenant's config sets
+ * [PostHogConfig.sharedHttpClient], tenants share a client built with the connection settings,
+ * e.g. [PostHogConfig.maxIdleConnections] and [PostHogConfig.http2], of the first tenant's config.
+ *
+ * ```kotlin
+ * val postHog = PostHogMultiTenant { apiKey -> PostHogConfig.builder(apiKey).host(host).build() }
+ * postHog.tenant(apiKey).capture(distinctId, "event")
+ * ```
+ *
+ * @property configFactory creates the config of each tenant
+ * @param senderThreads the number of threads sending batches for all tenants
+ * @param schedulerThreads the number of threads timing the flushes and flag definition polls of
+ * all tenants
+ * @param flagDefinitionThreads the number of threads loading flag definitions for all tenants
+ */
+public class PostHogMultiTenant
+    @JvmOverloads
+    constructor(
+        private val configFactory: PostHogTenantConfigFactory,
+        senderThreads: Int = DEFAULT_SENDER_THREADS,
+        schedulerThreads: Int = DEFAULT_SCHEDULER_THREADS,
+        flagDefinitionThreads: Int = DEFAULT_FLAG_DEFINITION_THREADS,
+    ) : AutoCloseable {
+        private val resources =
+            PostHogSharedResources(
+                senderThreads = senderThreads.coerceAtLeast(1),
+                schedulerThreads = schedulerThreads.coerceAtLeast(1),
+                flagDefinitionThreads = flagDefinitionThreads.coerceAtLeast(1),
+            )
+        private val tenants = ConcurrentHashMap<String, PostHogInterface>()
+        private val lock = Any()
+        private var closed = false
+
+        /**
+         * The API keys of the tenants created so far
+         */
+        public val apiKeys: Set<String>
+            get() = tenants.keys.toSet()
+
+        /**
+         * Returns the client of a project, creating it on first use. Once this instance is closed, it
+         * returns a disabled client that drops everything.
+         *
+         * @param apiKey The project API key.
+         * @return The project's client.
+         */
+        public fun tenant(apiKey: String): PostHogInterface {
+            tenants[apiKey]?.let { return it }
+            synchronized(lock) {
+                if (closed) {
+                    return PostHog()
+                }
+                return tenants.getOrPut(apiKey) { createTenant(apiKey) }
+            }
+        }
+
+        /**
+         * Closes the client of a project, flushing its pending events. A later [tenant] call for the
+         * same API key creates a new client.
+         *
+         * @param apiKey The project API key.
+         */
+        public fun closeTenant(apiKey: String) {
+            val tenant = synchronized(lock) { tenants.remove(apiKey) }
+            tenant?.close()
+        }
+
+        /**
+         * Flushes the pending events of every tenant.
+         */
+        public fun flush() {
+            tenants.values.forEach { it.flush() }
+        }
+
+        /**
+         * Closes every tenant, flushing their pending events, and stops the shared threads.
+         */
+        override fun close() {
+            val closing =
+                synchronized(lock) {
+                    if (closed) {
+                        return
+                    }
+                    closed = true
+                    val closing = tenants.values.toList()
+                    tenants.clear()
+                    closing
+                }
+            closing.forEach { it.close() }
+            resources.shutDown()
+        }
+
+        private fun createTenant(apiKey: String): PostHogInterface {
+            val config = configFactory.create(apiKey)
+            config.sharedResources = resources
+            return PostHog.with(config)
+        }
+
+        public companion object {
+            public const val DEFAULT_SENDER_THREADS: Int = 4
+            public const val DEFAULT_SCHEDULER_THREADS: Int = 2
+            public const val DEFAULT_FLAG_DEFINITION_THREADS: Int = 2
+        }
+    }
@@ -0,0 +1,72 @@
+package com.posthog.server
+
+import reactor.util.context.Context
+import reactor.util.context.ContextView
+import java.util.function.Function
+
+/**
+ * Bridges [PostHogRequestContext] and the Project Reactor [Context], which follows a reactive
+ * pipeline across threads where a [ThreadLocal] can't.
+ *
+ * Write the current context into the pipeline with [capture] and read it back where captures
+ * are made with [withContext]:
+ *
+ * ```kotlin
+ * Mono.deferContextual { contextView ->
+ *     PostHogReactorContext.withContext(contextView) { postHog.capture("event") }
+ *     Mono.just(result)
+ * }.contextWrite(PostHogReactorContext.capture())
+ * ```
+ *
+ * Reactor isn't a dependency of the SDK, add `io.projectreactor:reactor-core` to use this class.
+ */
+public object PostHogReactorContext {
+    /**
+     * The key of the [PostHogRequestContextData] in the Reactor [Context].
+     */
+    public const val KEY: String = "posthog.request_context"
+
+    /**
+     * Returns a function for `contextWrite` that adds the context active on the calling thread now
+     * to the Reactor [Context].
+     *
+     * @return A function adding the current context, or leaving the Reactor context as is when no
+     * scope is active.
+     */
+    @JvmStatic
+    public fun capture(): Function<Context, Context> {
+        val data = PostHogRequestContext.current()
+        return Function { context -> if (data == null) context else context.put(KEY, data) }
+    }
+
+    /**
+     * Returns the [PostHogRequestContextData] stored in a Reactor [ContextView].
+     *
+     * @param contextView The Reactor context to read.
+     * @return The stored context, or null.
+     */
+    @JvmStatic
+    public fun get(contextView: ContextView): PostHogRequestContextData? =
+        contextView.getOrDefault<PostHogRequestContextData?>(KEY, null)
+
+    /**
+     * Runs [block] with the context stored in [contextView] as the current context and restores
+     * the thread's previous context afterwards.
+     *
+     * @param contextView The Reactor context to read.
+     * @param block Work to run with the stored context.
+     * @return The value returned by [block].
+     */
+    @JvmStatic
+    public fun <T> withContext(
+        contextView: ContextView,
+        block: () -> T,
+    ): T {
+        val previous = PostHogRequestContext.attach(get(contextView))
+        try {
+            return block()
+        } finally {
+            PostHogRequestContext.restore(previous)
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package com.posthog.server
 
+import com.posthog.server.internal.PostHogContextExecutor
+import com.posthog.server.internal.PostHogContextExecutorService
+import java.util.Collections
 import java.util.UUID
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
 
 /**
  * Request-scoped PostHog analytics context.
@@ -10,8 +16,9 @@ import java.util.UUID
  * context distinct ID, session ID, and properties unless the capture provides explicit values.
  *
  * Context is stored in a [ThreadLocal]. Framework integrations should create and close a fresh
- * scope per request and use their runtime's async propagation support when work moves across
- * threads.
+ * scope per request. When work moves across threads, wrap the tasks or executors with [wrap],
+ * [wrapExecutor] or [wrapExecutorService], use [PostHogRequestContextElement] with Kotlin
+ * coroutines, or [PostHogReactorContext] with Project Reactor.
  */
 public class PostHogRequestContext private constructor() {
     public companion object {
@@ -91,6 +98,89 @@ public class PostHogRequestContext private constructor() {
             }
         }
 
+        /**
+         * Returns a [Runnable] that runs [runnable] with the context that is active on the calling
+         * thread now, whichever thread it ends up running on.
+         *
+         * @param runnable The task to run with the current context.
+         * @return The wrapped task, or [runnable] itself when no scope is active.
+         */
+        @JvmStatic
+        public fun wrap(runnable: Runnable): Runnable {
+            val data = current() ?: return runnable
+            return Runnable {
+                val previous = attach(data)
+                try {
+                    runnable.run()
+                } finally {
+                    restore(previous)
+                }
+            }
+        }
+
+        /**
+         * Returns a [Callable] that calls [callable] with the context that is active on the calling
+         * thread now, whichever thread it ends up running on.
+         *
+         * @param callable The task to call with the current context.
+         * @return The wrapped task, or [callable] itself when no scope is active.
+         */
+        @JvmStatic
+        public fun <T> wrap(callable: Callable<T>): Callable<T> {
+            val data = current() ?: return callable
+            return Callable {
+                val previous = attach(data)
+                try {
+                    callable.call()
+                } finally {
+                    restore(previous)
+                }
+            }
+        }
+
+        /**
+         * Returns an [Executor] that runs each task with the context that was active on the thread
+         * that submitted it.
+         *
+         * @param executor The executor that runs the tasks.
+         * @return An executor propagating the request context to [executor].
+         */
+        @JvmStatic
+        public fun wrapExecutor(executor: Executor): Executor = PostHogContextExecutor(executor)
+
+        /**
+         * Returns an [ExecutorService] that runs each task with the context that was active on the
+         * thread that submitted it. Shutting down the returned service shuts down [executorService].
+         *
+         * @param executorService The executor service that runs the tasks.
+         * @return An executor service propagating the request context to [executorService].
+         */
+        @JvmStatic
+        public fun wrapExecutorService(executorService: ExecutorService): ExecutorService =
+            PostHogContextExecutorService(executorService)
+
+        /**
+         * Makes [data] the current context as is, without merging it into the active one.
+         *
+         * @return The context that was active before, to pass to [restore].
+         */
+        internal fun attach(data: PostHogRequestContextData?): PostHogRequestContextData? {
+            val previous = currentContext.get()
+            restore(data)
+            return previous
+        }
+
+        /**
+         * Makes [previous] the current context again, removing it when there's none.
+         */
+        internal fun restore(previous: PostHogRequestContextData?) {
+            if (previous == null) {
+                currentContext.remove()
+            } else {
+                currentContext.set(previous)
+            }
+        }
+
         /**
          * Extracts PostHog tracing headers into context data.
          *
@@ -252,11 +342,7 @@ public class PostHogRequestContext private constructor() {
                 return
             }
 
-            if (previous == null) {
-                currentContext.remove()
-            } else {
-                currentContext.set(previous)
-            }
+            restore(previous)
             closed = true
         }
     }
@@ -273,7 +359,23 @@ public class PostHogRequestContextData public constructor(
     public val distinctId: String? = null,
     public val sessionId: String? = null,
     public val properties: Map<String, Any>? = null,
-)
+) {
+    /**
+     * The read-only properties added to every capture inside the scope, [properties] plus
+     * `$session_id`. Built once per context instead of on every capture.
+     */
+    internal val eventProperties: Map<String, Any> by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        val eventProperties = properties?.toMutableMap() ?: mutableMapOf()
+        if (!sessionId.isNullOrBlank()) {
+            eventProperties.putIfAbsent(SESSION_ID_PROPERTY, sessionId)
+        }
+        Collections.unmodifiableMap(eventProperties)
+    }
+
+    private companion object {
+        private const val SESSION_ID_PROPERTY = "\$session_id"
+    }
+}
 
 internal data class PostHogResolvedCaptureContext(
     val distinctId: String,
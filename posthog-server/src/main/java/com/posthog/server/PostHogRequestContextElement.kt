@@ -0,0 +1,47 @@
+package com.posthog.server
+
+import kotlinx.coroutines.ThreadContextElement
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Propagates a [PostHogRequestContext] to Kotlin coroutines. The context is made current on
+ * whichever thread the coroutine resumes on, and the thread's previous context is restored when
+ * it suspends.
+ *
+ * By default it carries the context that is active when the element is created:
+ *
+ * ```kotlin
+ * launch(PostHogRequestContextElement()) {
+ *     postHog.capture("event")
+ * }
+ * ```
+ *
+ * Scopes begun inside the coroutine only last until it next suspends, use
+ * `withContext(PostHogRequestContextElement(data))` to change the context of a coroutine.
+ *
+ * kotlinx-coroutines isn't a dependency of the SDK, add `org.jetbrains.kotlinx:kotlinx-coroutines-core`
+ * to use this class.
+ *
+ * @property data the context to propagate, null for none
+ */
+public class PostHogRequestContextElement
+    @JvmOverloads
+    constructor(
+        public val data: PostHogRequestContextData? = PostHogRequestContext.current(),
+    ) : AbstractCoroutineContextElement(Key), ThreadContextElement<PostHogRequestContextData?> {
+        /**
+         * Key of [PostHogRequestContextElement] in a [CoroutineContext]
+         */
+        public companion object Key : CoroutineContext.Key<PostHogRequestContextElement>
+
+        override fun updateThreadContext(context: CoroutineContext): PostHogRequestContextData? =
+            PostHogRequestContext.attach(data)
+
+        override fun restoreThreadContext(
+            context: CoroutineContext,
+            oldState: PostHogRequestContextData?,
+        ) {
+            PostHogRequestContext.restore(oldState)
+        }
+    }
@@ -0,0 +1,13 @@
+package com.posthog.server
+
+/**
+ * Creates the config of a [PostHogMultiTenant] tenant
+ */
+public fun interface PostHogTenantConfigFactory {
+    /**
+     * Creates the config for a project API key
+     * @param apiKey the tenant's project API key, to use as the config's API key
+     * @return the tenant's config
+     */
+    public fun create(apiKey: String): PostHogConfig
+}
@@ -12,6 +12,11 @@ import com.posthog.internal.FeatureFlag
  *                 this contains the failure type like "timeout" or "api_error_500".
  *                 Note: "flag_missing" is computed at query time since it depends on
  *                 the specific flag key being requested.
+ * @property refreshAt When the entry turns stale. A stale entry is still served until [expiresAt]
+ *                     while it is refreshed in the background; equal to [expiresAt] when
+ *                     stale-while-revalidate is disabled.
+ * @property refreshFailures Background refreshes of this entry that failed in a row, each one
+ *                           putting the next off for longer.
  */
 internal data class FeatureFlagCacheEntry(
     val flags: Map<String, FeatureFlag>?,
@@ -20,6 +25,8 @@ internal data class FeatureFlagCacheEntry(
     val requestId: String? = null,
     val evaluatedAt: Long? = null,
     val error: String? = null,
+    val refreshAt: Long = expiresAt,
+    val refreshFailures: Int = 0,
 ) {
     /**
      * Check if this cache entry has expired
@@ -27,4 +34,11 @@ internal data class FeatureFlagCacheEntry(
     fun isExpired(currentTime: Long = System.currentTimeMillis()): Boolean {
         return currentTime >= expiresAt
     }
+
+    /**
+     * Check if this cache entry should be refreshed, though it may still be served
+     */
+    fun isStale(currentTime: Long = System.currentTimeMillis()): Boolean {
+        return currentTime >= refreshAt
+    }
 }
@@ -9,6 +9,7 @@ import com.posthog.internal.PropertyGroup
 import com.posthog.internal.PropertyOperator
 import com.posthog.internal.PropertyType
 import com.posthog.internal.PropertyValue
+import com.posthog.internal.log
 import java.security.MessageDigest
 import java.text.Normalizer
 import java.time.Instant
@@ -813,7 +814,7 @@ internal class FlagEvaluator(
                             if (matches) return true
                         }
                     } catch (e: InconclusiveMatchException) {
-                        config.logger.log("Failed to compute nested property group locally: ${e.message}")
+                        config.logger.log { "Failed to compute nested property group locally: ${e.message}" }
                         errorMatchingLocally = true
                     }
                 }
@@ -872,7 +873,7 @@ internal class FlagEvaluator(
                             if (!matches && negation) return true
                         }
                     } catch (e: InconclusiveMatchException) {
-                        config.logger.log("Failed to compute property ${property.key} locally: ${e.message}")
+                        config.logger.log { "Failed to compute property ${property.key} locally: ${e.message}" }
                         errorMatchingLocally = true
                     }
                 }
@@ -1041,7 +1042,7 @@ internal class FlagEvaluator(
 
         // Handle circular dependency (empty chain means circular)
         if (dependencyChain.isEmpty()) {
-            config.logger.log("Circular dependency detected for flag: ${property.key}")
+            config.logger.log { "Circular dependency detected for flag: ${property.key}" }
             throw InconclusiveMatchException("Circular dependency detected for flag '${property.key}'")
         }
 
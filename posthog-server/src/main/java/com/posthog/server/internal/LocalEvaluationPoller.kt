@@ -3,18 +3,22 @@ package com.posthog.server.internal
 import com.posthog.PostHogConfig
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
 /**
  * Poller for periodically fetching feature flag definitions for local evaluation
+ * @property scheduler runs the polls instead of a thread per poller, e.g. one scheduler shared by
+ * many tenants. It is left running when the poller stops.
  */
 internal class LocalEvaluationPoller(
     private val config: PostHogConfig,
     private val pollIntervalSeconds: Int,
+    private val scheduler: ScheduledExecutorService? = null,
     private val execute: () -> Unit,
 ) {
     private val executor: ScheduledExecutorService =
-        Executors.newSingleThreadScheduledExecutor { r ->
+        scheduler ?: Executors.newSingleThreadScheduledExecutor { r ->
             Thread(r, "PostHog-LocalEvaluationPoller").apply {
                 isDaemon = true
             }
@@ -22,6 +26,8 @@ internal class LocalEvaluationPoller(
 
     private var isStarted = false
 
+    private var scheduledPoll: ScheduledFuture<*>? = null
+
     fun start() {
         if (isStarted) {
             config.logger.log("LocalEvaluationPoller already started")
@@ -32,18 +38,19 @@ internal class LocalEvaluationPoller(
         config.logger.log("Starting LocalEvaluationPoller with interval ${pollIntervalSeconds}s")
 
         // Schedule the task to run periodically
-        executor.scheduleAtFixedRate(
-            {
-                try {
-                    execute()
-                } catch (e: Throwable) {
-                    config.logger.log("Error in LocalEvaluationPoller: ${e.message}")
-                }
-            },
-            0,
-            pollIntervalSeconds.toLong(),
-            TimeUnit.SECONDS,
-        )
+        scheduledPoll =
+            executor.scheduleAtFixedRate(
+                {
+                    try {
+                        execute()
+                    } catch (e: Throwable) {
+                        config.logger.log("Error in LocalEvaluationPoller: ${e.message}")
+                    }
+                },
+                0,
+                pollIntervalSeconds.toLong(),
+                TimeUnit.SECONDS,
+            )
     }
 
     fun stop() {
@@ -54,6 +61,12 @@ internal class LocalEvaluationPoller(
         config.logger.log("Stopping LocalEvaluationPoller")
         isStarted = false
 
+        if (scheduler != null) {
+            scheduledPoll?.cancel(false)
+            scheduledPoll = null
+            return
+        }
+
         executor.shutdown()
         try {
             if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -0,0 +1,44 @@
+package com.posthog.server.internal
+
+import com.posthog.server.PostHogRequestContext
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs each task on [delegate] with the [PostHogRequestContext] of the thread that submitted it
+ * @property delegate the executor that runs the tasks
+ */
+internal class PostHogContextExecutor(private val delegate: Executor) : Executor {
+    override fun execute(command: Runnable) {
+        delegate.execute(PostHogRequestContext.wrap(command))
+    }
+}
+
+/**
+ * Runs each task on [delegate] with the [PostHogRequestContext] of the thread that submitted it.
+ * [AbstractExecutorService] turns submit and invoke calls into [execute] calls on the submitting
+ * thread, so wrapping [execute] is enough to propagate the context.
+ * @property delegate the executor service that runs the tasks
+ */
+internal class PostHogContextExecutorService(private val delegate: ExecutorService) : AbstractExecutorService() {
+    override fun execute(command: Runnable) {
+        delegate.execute(PostHogRequestContext.wrap(command))
+    }
+
+    override fun shutdown() {
+        delegate.shutdown()
+    }
+
+    override fun shutdownNow(): MutableList<Runnable> = delegate.shutdownNow()
+
+    override fun isShutdown(): Boolean = delegate.isShutdown
+
+    override fun isTerminated(): Boolean = delegate.isTerminated
+
+    override fun awaitTermination(
+        timeout: Long,
+        unit: TimeUnit,
+    ): Boolean = delegate.awaitTermination(timeout, unit)
+}
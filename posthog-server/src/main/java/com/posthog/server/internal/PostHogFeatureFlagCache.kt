@@ -3,11 +3,16 @@ package com.posthog.server.internal
 import com.posthog.internal.FeatureFlag
 
 /**
- * LRU cache with TTL support for feature flag responses
+ * LRU cache with TTL support for feature flag responses.
+ *
+ * Entries turn stale after [maxAgeMs] and are dropped [staleWhileRevalidateMs] later; in between
+ * they are still returned, so the caller can serve them while refreshing. Failed requests (null
+ * flags) are never served stale, so an outage is retried once [maxAgeMs] has passed, as before.
  */
 internal class PostHogFeatureFlagCache(
     private val maxSize: Int,
     private val maxAgeMs: Int,
+    private val staleWhileRevalidateMs: Int = 0,
 ) {
     private val cache =
         object : LinkedHashMap<FeatureFlagCacheKey, FeatureFlagCacheEntry>(
@@ -21,13 +26,14 @@ internal class PostHogFeatureFlagCache(
         }
 
     /**
-     * Get feature flags from cache if present and not expired
+     * Get feature flags from cache if present and not expired, stale or not
      */
     @Synchronized
     fun get(key: FeatureFlagCacheKey): Map<String, FeatureFlag>? = getValidEntry(key)?.flags
 
     /**
-     * Get full cache entry (including requestId and evaluatedAt) if present and not expired
+     * Get full cache entry (including requestId and evaluatedAt) if present and not expired,
+     * stale or not
      */
     @Synchronized
     fun getEntry(key: FeatureFlagCacheKey): FeatureFlagCacheEntry? = getValidEntry(key)
@@ -55,19 +61,46 @@ internal class PostHogFeatureFlagCache(
         error: String? = null,
     ) {
         val currentTime = System.currentTimeMillis()
+        val refreshAt = currentTime + maxAgeMs
+        val staleWindowMs = if (flags != null) staleWhileRevalidateMs.coerceAtLeast(0) else 0
         val entry =
             FeatureFlagCacheEntry(
                 flags = flags,
                 timestamp = currentTime,
-                expiresAt = currentTime + maxAgeMs,
+                expiresAt = refreshAt + staleWindowMs,
                 requestId = requestId,
                 evaluatedAt = evaluatedAt,
                 error = error,
+                refreshAt = refreshAt,
             )
 
         cache[key] = entry
     }
 
+    /**
+     * Put off the next refresh of [key]'s stale entry after a background refresh failed, doubling
+     * the delay with each failure in a row, so an outage isn't retried on every read until the
+     * entry expires. An entry that was replaced in the meantime is left alone.
+     */
+    @Synchronized
+    fun deferRefresh(key: FeatureFlagCacheKey) {
+        val entry = getValidEntry(key) ?: return
+        val currentTime = System.currentTimeMillis()
+        if (!entry.isStale(currentTime)) {
+            return
+        }
+
+        val failures = entry.refreshFailures + 1
+        val backoffMs =
+            (MIN_REFRESH_BACKOFF_MS shl (failures - 1).coerceAtMost(MAX_REFRESH_BACKOFF_SHIFT))
+                .coerceAtMost(MAX_REFRESH_BACKOFF_MS)
+        cache[key] =
+            entry.copy(
+                refreshAt = (currentTime + backoffMs).coerceAtMost(entry.expiresAt),
+                refreshFailures = failures,
+            )
+    }
+
     /**
      * Clear all cached entries
      */
@@ -81,4 +114,10 @@ internal class PostHogFeatureFlagCache(
      */
     @Synchronized
     fun size(): Int = cache.size
+
+    private companion object {
+        private const val MIN_REFRESH_BACKOFF_MS: Long = 1_000
+        private const val MAX_REFRESH_BACKOFF_MS: Long = 60_000
+        private const val MAX_REFRESH_BACKOFF_SHIFT: Int = 6
+    }
 }
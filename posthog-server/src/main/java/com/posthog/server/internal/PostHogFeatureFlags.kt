@@ -2,6 +2,7 @@ package com.posthog.server.internal
 
 import com.posthog.FeatureFlagResult
 import com.posthog.PostHogConfig
+import com.posthog.PostHogMetrics
 import com.posthog.PostHogOnFeatureFlags
 import com.posthog.internal.FeatureFlag
 import com.posthog.internal.FlagDefinition
@@ -10,7 +11,9 @@ import com.posthog.internal.PostHogApi
 import com.posthog.internal.PostHogApiError
 import com.posthog.internal.PostHogFeatureFlagsInterface
 import com.posthog.internal.PostHogFlagsResponse
+import com.posthog.internal.PostHogThreadFactory
 import com.posthog.internal.PropertyGroup
+import com.posthog.internal.log
 import com.posthog.server.PostHogFlagDefinitionCacheProvider
 import java.io.IOException
 import java.io.StringReader
@@ -18,8 +21,17 @@ import java.io.StringWriter
 import java.net.ConnectException
 import java.net.SocketTimeoutException
 import java.net.UnknownHostException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.CompletionStage
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.TimeoutException
 
@@ -34,11 +46,17 @@ internal class PostHogFeatureFlags(
     private val onFeatureFlags: PostHogOnFeatureFlags? = null,
     private val pollerEnabled: Boolean = true,
     private val flagDefinitionCacheProvider: PostHogFlagDefinitionCacheProvider? = null,
+    private val initialDefinitionsWaitMs: Int? = null,
+    private val cacheStaleWhileRevalidateMs: Int = 0,
+    remoteMaxConcurrentRequests: Int = 0,
+    private val pollScheduler: ScheduledExecutorService? = null,
+    private val definitionsLoader: ExecutorService? = null,
 ) : PostHogFeatureFlagsInterface {
     private val cache =
         PostHogFeatureFlagCache(
             maxSize = cacheMaxSize,
             maxAgeMs = cacheMaxAgeMs,
+            staleWhileRevalidateMs = cacheStaleWhileRevalidateMs,
         )
 
     @Volatile
@@ -69,6 +87,60 @@ internal class PostHogFeatureFlags(
 
     private val loadLock = Object()
 
+    /**
+     * Remote `/flags` requests in flight, so concurrent cache misses for the same key share one
+     * HTTP call and its result instead of each making their own.
+     */
+    private val inFlightRemoteRequests =
+        ConcurrentHashMap<FeatureFlagCacheKey, CompletableFuture<Map<String, FeatureFlag>?>>()
+
+    /**
+     * Runs background refreshes of stale cache entries. Bounded in threads and queued work: when
+     * it is saturated a refresh is skipped, the stale entry keeps being served, and a later check
+     * tries again.
+     */
+    private val cacheRefresherDelegate =
+        lazy {
+            ThreadPoolExecutor(
+                MAX_CACHE_REFRESH_THREADS,
+                MAX_CACHE_REFRESH_THREADS,
+                60L,
+                TimeUnit.SECONDS,
+                ArrayBlockingQueue(MAX_PENDING_CACHE_REFRESHES),
+                PostHogThreadFactory("PostHog-FeatureFlagCacheRefresher"),
+            ).apply { allowCoreThreadTimeOut(true) }
+        }
+    private val cacheRefresher: ExecutorService by cacheRefresherDelegate
+
+    /**
+     * Bounds the blocking `/flags` requests from cache misses in flight at once; callers wait for a
+     * permit on their own thread. Null when unbounded.
+     */
+    private val remoteRequestPermits: Semaphore? =
+        if (remoteMaxConcurrentRequests > 0) Semaphore(remoteMaxConcurrentRequests) else null
+
+    /**
+     * Completes the first time flag definitions are applied, whether fetched or read from the
+     * [flagDefinitionCacheProvider]. Completed up front when local evaluation cannot run, so
+     * readiness probes never wait on definitions that will not arrive.
+     */
+    internal val definitionsReady: CompletableFuture<Void?> = CompletableFuture()
+
+    /**
+     * The in-flight background load started by [awaitInitialFlagDefinitions], or the last one to
+     * finish. Guarded by [loadLock].
+     */
+    private var backgroundLoad: CompletableFuture<Void?>? = null
+
+    private val backgroundLoaderDelegate =
+        lazy {
+            Executors.newSingleThreadExecutor(PostHogThreadFactory("PostHog-FlagDefinitionsLoader"))
+        }
+
+    // a shared definitions loader is not ours to shut down
+    private val backgroundLoader: ExecutorService
+        get() = definitionsLoader ?: backgroundLoaderDelegate.value
+
     /**
      * ETag for conditional requests to reduce bandwidth when polling for feature flags.
      * When flags haven't changed, the server returns 304 Not Modified instead of the full payload.
@@ -77,6 +149,10 @@ internal class PostHogFeatureFlags(
     private var etag: String? = null
 
     init {
+        if (!localEvaluationEnabled()) {
+            definitionsReady.complete(null)
+        }
+
         try {
             startPoller()
         } catch (e: Throwable) {
@@ -155,17 +231,86 @@ internal class PostHogFeatureFlags(
         )?.payload ?: defaultValue
     }
 
+    /**
+     * Non-blocking variant of [getFeatureFlagResult]. Definitions still loading are not waited for,
+     * and the `/flags` request, when one is needed, is made with [PostHogApi.flagsAsync].
+     */
+    internal fun getFeatureFlagResultAsync(
+        key: String,
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+    ): CompletableFuture<FeatureFlagResult?> {
+        val flag =
+            resolveFeatureFlagWithoutRemote(
+                key,
+                distinctId,
+                groups,
+                personProperties,
+                groupProperties,
+                waitForDefinitions = false,
+            )
+        val resolved: CompletableFuture<FeatureFlag?> =
+            if (flag != null) {
+                CompletableFuture.completedFuture(flag)
+            } else {
+                config.logger.log { "Feature flag cache miss for distinctId: $distinctId, calling API" }
+                getFeatureFlagsFromRemoteAsync(
+                    distinctId,
+                    groups,
+                    personProperties,
+                    groupProperties,
+                ).thenApply { it?.get(key) }
+            }
+
+        return resolved.thenApply { resolvedFlag ->
+            resolvedFlag?.let { FeatureFlagResult(key, it.enabled, it.variant, it.metadata.payload) }
+        }
+    }
+
     private fun resolveFeatureFlag(
         key: String,
         distinctId: String,
         groups: Map<String, String>?,
         personProperties: Map<String, Any?>?,
         groupProperties: Map<String, Map<String, Any?>>?,
+    ): FeatureFlag? {
+        resolveFeatureFlagWithoutRemote(
+            key,
+            distinctId,
+            groups,
+            personProperties,
+            groupProperties,
+            waitForDefinitions = true,
+        )?.let { return it }
+
+        // Local evaluation not available or failed - fall back to API
+        // Fetch and cache all flags, then return the specific one
+        config.logger.log { "Feature flag cache miss for distinctId: $distinctId, calling API" }
+        return getFeatureFlagsFromRemote(
+            distinctId,
+            groups,
+            personProperties,
+            groupProperties,
+        )?.get(key)
+    }
+
+    /**
+     * Resolve [key] from the cache or local evaluation, returning null when only `/flags` can.
+     */
+    private fun resolveFeatureFlagWithoutRemote(
+        key: String,
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        waitForDefinitions: Boolean,
     ): FeatureFlag? {
         val cachedFlags =
             getFeatureFlagsFromCache(distinctId, groups, personProperties, groupProperties)
         if (cachedFlags != null) {
-            config.logger.log("Feature flags cache hit for distinctId: $distinctId")
+            config.logger.log { "Feature flags cache hit for distinctId: $distinctId" }
             val flag = cachedFlags[key]
             if (flag != null) {
                 return flag
@@ -173,15 +318,12 @@ internal class PostHogFeatureFlags(
         }
 
         if (localEvaluation) {
-            if (flagDefinitions == null && !definitionsLoaded) {
-                config.logger.log("Flag definitions not loaded, loading now")
-                loadFeatureFlagDefinitions()
-            }
+            ensureInitialFlagDefinitions(waitForDefinitions)
 
             val flagDef = flagDefinitions?.get(key)
             if (flagDef != null) {
                 try {
-                    config.logger.log("Attempting local evaluation for flag '$key' for distinctId: $distinctId")
+                    config.logger.log { "Attempting local evaluation for flag '$key' for distinctId: $distinctId" }
                     val props = localPersonProperties(distinctId, personProperties)
 
                     val result =
@@ -194,27 +336,19 @@ internal class PostHogFeatureFlags(
                         )
 
                     val flag = buildFeatureFlagFromResult(key, result, flagDef)
-                    config.logger.log("Local evaluation successful for flag '$key'")
+                    config.logger.log { "Local evaluation successful for flag '$key'" }
                     return flag
                 } catch (e: InconclusiveMatchException) {
-                    config.logger.log("Local evaluation inconclusive for flag '$key': ${e.message}")
+                    config.logger.log { "Local evaluation inconclusive for flag '$key': ${e.message}" }
                     // Fall through to remote evaluation
                 } catch (e: Throwable) {
-                    config.logger.log("Local evaluation failed for flag '$key': ${e.message}")
+                    config.logger.log { "Local evaluation failed for flag '$key': ${e.message}" }
                     // Fall through to remote evaluation
                 }
             }
         }
 
-        // Local evaluation not available or failed - fall back to API
-        // Fetch and cache all flags, then return the specific one
-        config.logger.log("Feature flag cache miss for distinctId: $distinctId, calling API")
-        return getFeatureFlagsFromRemote(
-            distinctId,
-            groups,
-            personProperties,
-            groupProperties,
-        )?.get(key)
+        return null
     }
 
     private fun getFeatureFlagsFromCache(
@@ -231,7 +365,77 @@ internal class PostHogFeatureFlags(
                 groupProperties = groupProperties,
             )
 
-        return cache.get(cacheKey)
+        return getCachedFlags(cacheKey)
+    }
+
+    private fun getCachedFlags(cacheKey: FeatureFlagCacheKey): Map<String, FeatureFlag>? {
+        return getCachedEntry(cacheKey)?.flags
+    }
+
+    /**
+     * Read [cacheKey]'s entry from the cache, scheduling a background refresh when it is stale
+     */
+    private fun getCachedEntry(cacheKey: FeatureFlagCacheKey): FeatureFlagCacheEntry? {
+        val entry = cache.getEntry(cacheKey)
+        config.metrics.count(
+            if (entry != null) PostHogMetrics.FEATURE_FLAG_CACHE_HITS else PostHogMetrics.FEATURE_FLAG_CACHE_MISSES,
+            1,
+            FLAGS_CACHE_METRIC_TAGS,
+        )
+        if (entry == null) {
+            return null
+        }
+        if (entry.flags != null && entry.isStale()) {
+            refreshCachedFlags(cacheKey)
+        }
+        return entry
+    }
+
+    /**
+     * Refresh a stale cache entry on [cacheRefresher]. Skipped when a request for the key is
+     * already in flight, since that one will refresh it.
+     */
+    private fun refreshCachedFlags(cacheKey: FeatureFlagCacheKey) {
+        val distinctId = cacheKey.distinctId ?: return
+        val request = CompletableFuture<Map<String, FeatureFlag>?>()
+        if (inFlightRemoteRequests.putIfAbsent(cacheKey, request) != null) {
+            return
+        }
+
+        val refresh =
+            Runnable {
+                try {
+                    val flags =
+                        fetchFeatureFlagsFromRemote(
+                            cacheKey,
+                            distinctId,
+                            cacheKey.groups,
+                            cacheKey.personProperties,
+                            cacheKey.groupProperties,
+                            cacheKey.flagKeys,
+                            cacheKey.disableGeoip,
+                            keepCachedOnError = true,
+                        )
+                    if (flags == null) {
+                        cache.deferRefresh(cacheKey)
+                    }
+                    request.complete(flags)
+                } finally {
+                    inFlightRemoteRequests.remove(cacheKey, request)
+                    request.complete(null)
+                }
+            }
+
+        try {
+            config.logger.log {
+                "Feature flags cache entry stale for distinctId: $distinctId, refreshing in background"
+            }
+            cacheRefresher.execute(refresh)
+        } catch (e: RejectedExecutionException) {
+            config.logger.log { "Skipped feature flags cache refresh for distinctId: $distinctId, refresher is busy" }
+            inFlightRemoteRequests.remove(cacheKey, request)
+            request.complete(null)
+        }
     }
 
     /**
@@ -249,6 +453,8 @@ internal class PostHogFeatureFlags(
      * @param flagKeys when non-null, only these keys are evaluated. This scopes the loop, never
      *   [flagDefinitions] itself: [computeFlagLocally] resolves flag dependencies through the full
      *   map, so narrowing the field would make every dependent flag inconclusive.
+     * @param waitForDefinitions when false, definitions that were never loaded are only requested
+     *   in the background, and this pass reports local evaluation as unavailable.
      * @return null when local evaluation is unavailable: disabled, or definitions never loaded.
      */
     private fun evaluateFlagsLocally(
@@ -257,22 +463,20 @@ internal class PostHogFeatureFlags(
         personProperties: Map<String, Any?>?,
         groupProperties: Map<String, Map<String, Any?>>?,
         flagKeys: List<String>?,
+        waitForDefinitions: Boolean = true,
     ): LocalEvaluationOutcome? {
         if (!localEvaluation) {
             return null
         }
 
-        if (flagDefinitions == null && !definitionsLoaded) {
-            config.logger.log("Flag definitions not loaded, loading now")
-            loadFeatureFlagDefinitions()
-        }
+        ensureInitialFlagDefinitions(waitForDefinitions)
 
         val currentFlagDefinitions = flagDefinitions
         if (currentFlagDefinitions == null) {
             return null
         }
 
-        config.logger.log("Attempting local evaluation for distinctId: $distinctId")
+        config.logger.log { "Attempting local evaluation for distinctId: $distinctId" }
         val localFlags = mutableMapOf<String, FeatureFlag>()
         val props = localPersonProperties(distinctId, personProperties)
         val requestedKeys = flagKeys?.toHashSet()
@@ -295,10 +499,10 @@ internal class PostHogFeatureFlags(
 
                 localFlags[key] = buildFeatureFlagFromResult(key, result, flagDef)
             } catch (e: InconclusiveMatchException) {
-                config.logger.log("Local evaluation inconclusive for flag '$key': ${e.message}")
+                config.logger.log { "Local evaluation inconclusive for flag '$key': ${e.message}" }
                 needsRemote = true
             } catch (e: Exception) {
-                config.logger.log("Local evaluation failed for flag '$key': ${e.message}")
+                config.logger.log { "Local evaluation failed for flag '$key': ${e.message}" }
                 needsRemote = true
             }
         }
@@ -317,7 +521,7 @@ internal class PostHogFeatureFlags(
             }
         }
 
-        config.logger.log("Local evaluation resolved ${localFlags.size} flags, needsRemote=$needsRemote")
+        config.logger.log { "Local evaluation resolved ${localFlags.size} flags, needsRemote=$needsRemote" }
         return LocalEvaluationOutcome(localFlags, needsRemote)
     }
 
@@ -352,6 +556,79 @@ internal class PostHogFeatureFlags(
         return props
     }
 
+    private fun ensureInitialFlagDefinitions(waitForDefinitions: Boolean) {
+        if (flagDefinitions != null || definitionsLoaded) {
+            return
+        }
+        if (waitForDefinitions) {
+            awaitInitialFlagDefinitions()
+        } else {
+            startBackgroundFlagDefinitionsLoad()
+        }
+    }
+
+    /**
+     * Get definitions in place for a caller that found none. Without [initialDefinitionsWaitMs] the
+     * caller loads them itself, and concurrent callers wait on [loadLock] for that request. With a
+     * budget the load runs on [backgroundLoader] and the caller waits at most the budget for it,
+     * returning with definitions still missing when the load is slower, so it can fall back.
+     */
+    private fun awaitInitialFlagDefinitions() {
+        val waitMs = initialDefinitionsWaitMs
+        if (waitMs == null) {
+            config.logger.log("Flag definitions not loaded, loading now")
+            loadFeatureFlagDefinitions()
+            return
+        }
+
+        val load = startBackgroundFlagDefinitionsLoad()
+        if (waitMs <= 0) {
+            return
+        }
+
+        try {
+            load.get(waitMs.toLong(), TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            config.logger.log("Flag definitions not loaded within ${waitMs}ms, falling back")
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            config.logger.log("Interrupted while waiting for flag definitions to load")
+        } catch (e: Throwable) {
+            config.logger.log("Error waiting for flag definitions to load: ${e.message}")
+        }
+    }
+
+    /**
+     * Start a background definitions load unless one is already running, and return it. A finished
+     * load that left no definitions behind is replaced, so callers keep retrying the way the
+     * inline path does, but never with more than one request in flight.
+     */
+    private fun startBackgroundFlagDefinitionsLoad(): CompletableFuture<Void?> {
+        synchronized(loadLock) {
+            backgroundLoad?.let {
+                if (!it.isDone) {
+                    return it
+                }
+            }
+
+            val load = CompletableFuture<Void?>()
+            backgroundLoad = load
+            try {
+                backgroundLoader.execute {
+                    try {
+                        loadFeatureFlagDefinitions()
+                    } finally {
+                        load.complete(null)
+                    }
+                }
+            } catch (e: Throwable) {
+                // rejected after shutDown, nothing left to wait for
+                load.complete(null)
+            }
+            return load
+        }
+    }
+
     private fun getFeatureFlagsFromRemote(
         distinctId: String,
         groups: Map<String, String>?,
@@ -370,11 +647,149 @@ internal class PostHogFeatureFlags(
                 disableGeoip = disableGeoip,
             )
 
+        // callers already read the cache through getCachedEntry, don't count the same lookup twice
         val cachedFlags = cache.get(cacheKey)
         if (cachedFlags != null) {
             return cachedFlags
         }
 
+        val request = CompletableFuture<Map<String, FeatureFlag>?>()
+        val inFlight = inFlightRemoteRequests.putIfAbsent(cacheKey, request)
+        if (inFlight != null) {
+            config.logger.log { "Joining in-flight remote feature flags request for distinctId: $distinctId" }
+            return awaitInFlightRemoteRequest(inFlight)
+        }
+
+        return try {
+            // a request that finished between our cache miss and claiming the key already cached its result
+            val flags =
+                cache.get(cacheKey)
+                    ?: fetchFeatureFlagsFromRemoteLimited(
+                        cacheKey,
+                        distinctId,
+                        groups,
+                        personProperties,
+                        groupProperties,
+                        flagKeys,
+                        disableGeoip,
+                    )
+            request.complete(flags)
+            flags
+        } finally {
+            inFlightRemoteRequests.remove(cacheKey, request)
+            request.complete(null)
+        }
+    }
+
+    /**
+     * Non-blocking variant of [getFeatureFlagsFromRemote], sharing its cache and in-flight
+     * requests. The returned future never completes exceptionally; failures yield null flags and
+     * are cached as errors, as the blocking path does.
+     */
+    private fun getFeatureFlagsFromRemoteAsync(
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>? = null,
+        disableGeoip: Boolean = false,
+    ): CompletableFuture<Map<String, FeatureFlag>?> {
+        val cacheKey =
+            FeatureFlagCacheKey(
+                distinctId = distinctId,
+                groups = groups,
+                personProperties = personProperties,
+                groupProperties = groupProperties,
+                flagKeys = flagKeys,
+                disableGeoip = disableGeoip,
+            )
+
+        cache.get(cacheKey)?.let { return CompletableFuture.completedFuture(it) }
+
+        val request = CompletableFuture<Map<String, FeatureFlag>?>()
+        val inFlight = inFlightRemoteRequests.putIfAbsent(cacheKey, request)
+        if (inFlight != null) {
+            config.logger.log { "Joining in-flight remote feature flags request for distinctId: $distinctId" }
+            return inFlight
+        }
+
+        // a request that finished between our cache miss and claiming the key already cached its result
+        cache.get(cacheKey)?.let {
+            inFlightRemoteRequests.remove(cacheKey, request)
+            request.complete(it)
+            return request
+        }
+
+        val startedAtNanos = System.nanoTime()
+
+        fun finish(flags: Map<String, FeatureFlag>?) {
+            recordRemoteLatency(startedAtNanos)
+            inFlightRemoteRequests.remove(cacheKey, request)
+            request.complete(flags)
+        }
+
+        try {
+            api.flagsAsync(
+                distinctId,
+                anonymousId = null,
+                deviceId = null,
+                groups = groups,
+                personProperties = personProperties,
+                groupProperties = groupProperties,
+                flagKeys = flagKeys,
+                disableGeoip = disableGeoip,
+                retryScheduler = pollScheduler,
+                onResponse = { response ->
+                    val flags =
+                        try {
+                            cacheRemoteFlagsResponse(cacheKey, response)
+                        } catch (e: Throwable) {
+                            cacheRemoteFlagsFailure(cacheKey, e, keepCachedOnError = false)
+                        }
+                    finish(flags)
+                },
+                onFailure = { e -> finish(cacheRemoteFlagsFailure(cacheKey, e, keepCachedOnError = false)) },
+            )
+        } catch (e: Throwable) {
+            finish(cacheRemoteFlagsFailure(cacheKey, e, keepCachedOnError = false))
+        }
+        return request
+    }
+
+    private fun awaitInFlightRemoteRequest(
+        request: CompletableFuture<Map<String, FeatureFlag>?>,
+    ): Map<String, FeatureFlag>? {
+        return try {
+            // bounded by the API client timeouts of the request being waited on
+            request.get()
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            config.logger.log("Interrupted while waiting for in-flight remote feature flags request")
+            null
+        } catch (e: Throwable) {
+            config.logger.log("In-flight remote feature flags request failed: $e")
+            null
+        }
+    }
+
+    /**
+     * Call `/flags` for [cacheKey] and cache the result, or the error that prevented one.
+     * Only the caller that claimed the key in [inFlightRemoteRequests] gets here.
+     *
+     * @param keepCachedOnError when true a failed request leaves the cached entry alone, so a
+     *   background refresh keeps serving the stale flags rather than replacing them with an error.
+     */
+    private fun fetchFeatureFlagsFromRemote(
+        cacheKey: FeatureFlagCacheKey,
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        disableGeoip: Boolean,
+        keepCachedOnError: Boolean = false,
+    ): Map<String, FeatureFlag>? {
+        config.metrics.count(PostHogMetrics.FEATURE_FLAG_EVALUATIONS, 1, REMOTE_EVALUATION_METRIC_TAGS)
         return try {
             val response =
                 api.flags(
@@ -387,36 +802,107 @@ internal class PostHogFeatureFlags(
                     flagKeys = flagKeys,
                     disableGeoip = disableGeoip,
                 )
-            val flags = response?.flags
-            cache.put(
+            cacheRemoteFlagsResponse(cacheKey, response)
+        } catch (e: Throwable) {
+            cacheRemoteFlagsFailure(cacheKey, e, keepCachedOnError)
+        }
+    }
+
+    /**
+     * [fetchFeatureFlagsFromRemote] once one of [remoteRequestPermits] is free, reporting the time
+     * spent waiting for it and on the request to [PostHogMetrics.FEATURE_FLAG_REMOTE_LATENCY].
+     */
+    private fun fetchFeatureFlagsFromRemoteLimited(
+        cacheKey: FeatureFlagCacheKey,
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        disableGeoip: Boolean,
+    ): Map<String, FeatureFlag>? {
+        val startedAtNanos = System.nanoTime()
+        val permits = remoteRequestPermits
+        try {
+            permits?.acquire()
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            config.logger.log("Interrupted while waiting to send remote feature flags request")
+            return null
+        }
+
+        return try {
+            fetchFeatureFlagsFromRemote(
                 cacheKey,
-                flags,
-                response?.requestId,
-                response?.evaluatedAt,
-                computeResponseError(response),
+                distinctId,
+                groups,
+                personProperties,
+                groupProperties,
+                flagKeys,
+                disableGeoip,
             )
-            flags
-        } catch (e: SocketTimeoutException) {
-            config.logger.log("Loading remote feature flags timed out: $e")
-            cache.put(cacheKey, null, error = FeatureFlagError.TIMEOUT)
-            null
-        } catch (e: ConnectException) {
-            config.logger.log("Loading remote feature flags connection failed: $e")
-            cache.put(cacheKey, null, error = FeatureFlagError.CONNECTION_ERROR)
-            null
-        } catch (e: UnknownHostException) {
-            config.logger.log("Loading remote feature flags DNS lookup failed: $e")
-            cache.put(cacheKey, null, error = FeatureFlagError.CONNECTION_ERROR)
-            null
-        } catch (e: PostHogApiError) {
-            config.logger.log("Loading remote feature flags API error: $e")
-            cache.put(cacheKey, null, error = FeatureFlagError.apiError(e.statusCode))
-            null
-        } catch (e: Throwable) {
-            config.logger.log("Loading remote feature flags failed: $e")
-            cache.put(cacheKey, null, error = FeatureFlagError.UNKNOWN_ERROR)
-            null
+        } finally {
+            permits?.release()
+            recordRemoteLatency(startedAtNanos)
+        }
+    }
+
+    private fun recordRemoteLatency(startedAtNanos: Long) {
+        val latencyMs = (System.nanoTime() - startedAtNanos) / 1_000_000.0
+        config.metrics.record(PostHogMetrics.FEATURE_FLAG_REMOTE_LATENCY, latencyMs, NO_METRIC_TAGS)
+    }
+
+    private fun cacheRemoteFlagsResponse(
+        cacheKey: FeatureFlagCacheKey,
+        response: PostHogFlagsResponse?,
+    ): Map<String, FeatureFlag>? {
+        val flags = response?.flags
+        cache.put(
+            cacheKey,
+            flags,
+            response?.requestId,
+            response?.evaluatedAt,
+            computeResponseError(response),
+        )
+        return flags
+    }
+
+    /**
+     * Log a failed `/flags` request and cache its error, unless [keepCachedOnError] asks to keep
+     * the entry already cached. Always returns null, the flags a failed request yields.
+     */
+    private fun cacheRemoteFlagsFailure(
+        cacheKey: FeatureFlagCacheKey,
+        e: Throwable,
+        keepCachedOnError: Boolean,
+    ): Map<String, FeatureFlag>? {
+        val error =
+            when (e) {
+                is SocketTimeoutException -> {
+                    config.logger.log("Loading remote feature flags timed out: $e")
+                    FeatureFlagError.TIMEOUT
+                }
+                is ConnectException -> {
+                    config.logger.log("Loading remote feature flags connection failed: $e")
+                    FeatureFlagError.CONNECTION_ERROR
+                }
+                is UnknownHostException -> {
+                    config.logger.log("Loading remote feature flags DNS lookup failed: $e")
+                    FeatureFlagError.CONNECTION_ERROR
+                }
+                is PostHogApiError -> {
+                    config.logger.log("Loading remote feature flags API error: $e")
+                    FeatureFlagError.apiError(e.statusCode)
+                }
+                else -> {
+                    config.logger.log("Loading remote feature flags failed: $e")
+                    FeatureFlagError.UNKNOWN_ERROR
+                }
+            }
+        if (!keepCachedOnError) {
+            cache.put(cacheKey, null, error = error)
         }
+        return null
     }
 
     /**
@@ -466,6 +952,12 @@ internal class PostHogFeatureFlags(
         return getFeatureFlagsFromRemote(distinctId, groups, personProperties, groupProperties)
     }
 
+    /**
+     * Server flags are evaluated per distinct ID, so there is no flag set to attach to every
+     * captured event.
+     */
+    override fun getFeatureFlagEventProperties(): Map<String, Any>? = null
+
     override fun clear() {
         cache.clear()
         etag = null
@@ -474,6 +966,15 @@ internal class PostHogFeatureFlags(
 
     override fun shutDown() {
         stopPoller()
+        if (backgroundLoaderDelegate.isInitialized()) {
+            backgroundLoaderDelegate.value.shutdownNow()
+        }
+        if (cacheRefresherDelegate.isInitialized()) {
+            cacheRefresher.shutdownNow()
+        }
+        synchronized(loadLock) {
+            backgroundLoad?.complete(null)
+        }
         shutdownFlagDefinitionCacheProvider()
     }
 
@@ -693,6 +1194,7 @@ internal class PostHogFeatureFlags(
             definitionsLoaded = true
             definitionsLoadedAt = System.currentTimeMillis()
         }
+        definitionsReady.complete(null)
     }
 
     private fun notifyFeatureFlagsLoaded() {
@@ -764,13 +1266,26 @@ internal class PostHogFeatureFlags(
                     LocalEvaluationPoller(
                         config = config,
                         pollIntervalSeconds = pollIntervalSeconds,
-                        execute = { loadFeatureFlagDefinitions() },
+                        scheduler = pollScheduler,
+                        execute = { pollFlagDefinitions() },
                     )
                 poller?.start()
             }
         }
     }
 
+    /**
+     * Load the definitions for one poll. A shared [pollScheduler] only times the polls: the load is
+     * handed off to [backgroundLoader], so slow fetches never hold up other tenants' timers.
+     */
+    private fun pollFlagDefinitions() {
+        if (pollScheduler != null) {
+            startBackgroundFlagDefinitionsLoad()
+        } else {
+            loadFeatureFlagDefinitions()
+        }
+    }
+
     /**
      * Stop the local evaluation poller if it is running
      */
@@ -802,6 +1317,7 @@ internal class PostHogFeatureFlags(
     ): Any? {
         val flags = this.flagDefinitions ?: return null
         val flag = flags[key] ?: return null
+        config.metrics.count(PostHogMetrics.FEATURE_FLAG_EVALUATIONS, 1, LOCAL_EVALUATION_METRIC_TAGS)
 
         if (!flag.active) {
             return false
@@ -816,14 +1332,14 @@ internal class PostHogFeatureFlags(
                 val groupTypeName = groupTypeMapping?.get(aggregationGroupIndex.toString())
 
                 if (groupTypeName == null) {
-                    config.logger.log("Unknown group type index $aggregationGroupIndex for flag '$key'")
+                    config.logger.log { "Unknown group type index $aggregationGroupIndex for flag '$key'" }
                     throw InconclusiveMatchException("Flag has unknown group type index")
                 }
 
                 val groupKey = groups?.get(groupTypeName)
                 if (groupKey == null) {
                     // Group not provided - flag is off, don't failover to API
-                    config.logger.log("Can't compute group flag '$key' without group '$groupTypeName'")
+                    config.logger.log { "Can't compute group flag '$key' without group '$groupTypeName'" }
                     return false
                 }
 
@@ -943,11 +1459,89 @@ internal class PostHogFeatureFlags(
         onlyEvaluateLocally: Boolean,
         disableGeoip: Boolean,
     ): EvaluateFlagsResult {
-        if (onlyEvaluateLocally && personalApiKey == null) {
-            logMissingPersonalApiKey()
-            return EMPTY_EVALUATE_FLAGS_RESULT
+        val plan =
+            planEvaluateFlags(
+                distinctId,
+                groups,
+                personProperties,
+                groupProperties,
+                flagKeys,
+                onlyEvaluateLocally,
+                disableGeoip,
+                waitForDefinitions = true,
+            )
+        plan.result?.let { return it }
+
+        val remoteFlags =
+            getFeatureFlagsFromRemote(
+                distinctId,
+                groups,
+                personProperties,
+                groupProperties,
+                flagKeys,
+                disableGeoip,
+            )
+        return mergeRemoteFlags(plan.local, remoteFlags, cache.getEntry(plan.cacheKey))
+    }
+
+    /**
+     * Non-blocking variant of [evaluateFlags]. Definitions still loading are not waited for, and
+     * the `/flags` request, when one is needed, is made with [PostHogApi.flagsAsync].
+     */
+    internal fun evaluateFlagsAsync(
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        onlyEvaluateLocally: Boolean,
+        disableGeoip: Boolean,
+    ): CompletableFuture<EvaluateFlagsResult> {
+        val plan =
+            planEvaluateFlags(
+                distinctId,
+                groups,
+                personProperties,
+                groupProperties,
+                flagKeys,
+                onlyEvaluateLocally,
+                disableGeoip,
+                waitForDefinitions = false,
+            )
+        plan.result?.let { return CompletableFuture.completedFuture(it) }
+
+        return getFeatureFlagsFromRemoteAsync(
+            distinctId,
+            groups,
+            personProperties,
+            groupProperties,
+            flagKeys,
+            disableGeoip,
+        ).thenApply { remoteFlags ->
+            mergeRemoteFlags(plan.local, remoteFlags, cache.getEntry(plan.cacheKey))
         }
+    }
+
+    /**
+     * The part of an [evaluateFlags] call that never calls `/flags`: either the finished [result],
+     * or the [local] outcome a `/flags` request for [cacheKey] still has to complete.
+     */
+    private data class EvaluateFlagsPlan(
+        val cacheKey: FeatureFlagCacheKey,
+        val result: EvaluateFlagsResult?,
+        val local: LocalEvaluationOutcome? = null,
+    )
 
+    private fun planEvaluateFlags(
+        distinctId: String,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        onlyEvaluateLocally: Boolean,
+        disableGeoip: Boolean,
+        waitForDefinitions: Boolean,
+    ): EvaluateFlagsPlan {
         val cacheKey =
             FeatureFlagCacheKey(
                 distinctId = distinctId,
@@ -957,6 +1551,12 @@ internal class PostHogFeatureFlags(
                 flagKeys = flagKeys,
                 disableGeoip = disableGeoip,
             )
+
+        if (onlyEvaluateLocally && personalApiKey == null) {
+            logMissingPersonalApiKey()
+            return EvaluateFlagsPlan(cacheKey, EMPTY_EVALUATE_FLAGS_RESULT)
+        }
+
         // Only local scoping treats an empty list as "no scope"; the cache key and the `/flags` body
         // take the raw list.
         val requestedKeys = flagKeys?.takeIf { it.isNotEmpty() }
@@ -965,19 +1565,22 @@ internal class PostHogFeatureFlags(
         // call. This keeps the cached-failure backoff, and caps the blocking `/local_evaluation`
         // attempt below: a personal API key that always fails never sets `definitionsLoaded`.
         if (flagDefinitions == null) {
-            cache.getEntry(cacheKey)?.let { entry ->
+            getCachedEntry(cacheKey)?.let { entry ->
                 // Local-only mode uses the entry's existence, never its values.
                 if (onlyEvaluateLocally) {
-                    return EMPTY_EVALUATE_FLAGS_RESULT
+                    return EvaluateFlagsPlan(cacheKey, EMPTY_EVALUATE_FLAGS_RESULT)
                 }
                 val flags = entry.flags ?: EMPTY_FLAGS
-                return EvaluateFlagsResult(
-                    flags = flags,
-                    locallyEvaluated = flags.mapValues { isLocallyEvaluated(it.value) },
-                    requestId = entry.requestId,
-                    evaluatedAt = entry.evaluatedAt,
-                    definitionsLoadedAt = definitionsLoadedAt,
-                    responseError = entry.error,
+                return EvaluateFlagsPlan(
+                    cacheKey,
+                    EvaluateFlagsResult(
+                        flags = flags,
+                        locallyEvaluated = flags.mapValues { isLocallyEvaluated(it.value) },
+                        requestId = entry.requestId,
+                        evaluatedAt = entry.evaluatedAt,
+                        definitionsLoadedAt = definitionsLoadedAt,
+                        responseError = entry.error,
+                    ),
                 )
             }
         }
@@ -989,40 +1592,42 @@ internal class PostHogFeatureFlags(
                 personProperties,
                 groupProperties,
                 requestedKeys,
+                waitForDefinitions,
             )
 
         if (local != null && (!local.needsRemote || onlyEvaluateLocally)) {
-            return EvaluateFlagsResult(
-                flags = local.flags,
-                locallyEvaluated = local.flags.mapValues { true },
-                requestId = null,
-                evaluatedAt = null,
-                definitionsLoadedAt = definitionsLoadedAt,
-                responseError = null,
+            return EvaluateFlagsPlan(
+                cacheKey,
+                EvaluateFlagsResult(
+                    flags = local.flags,
+                    locallyEvaluated = local.flags.mapValues { true },
+                    requestId = null,
+                    evaluatedAt = null,
+                    definitionsLoadedAt = definitionsLoadedAt,
+                    responseError = null,
+                ),
             )
         }
 
         if (onlyEvaluateLocally) {
-            return EMPTY_EVALUATE_FLAGS_RESULT
+            return EvaluateFlagsPlan(cacheKey, EMPTY_EVALUATE_FLAGS_RESULT)
         }
 
         // Read the entry, not the flags: a cached failure holds null flags, and honoring it is what
         // keeps an outage from being re-requested on every call within the window.
-        var entry = cache.getEntry(cacheKey)
-        val remoteFlags =
-            if (entry != null) {
-                entry.flags
-            } else {
-                getFeatureFlagsFromRemote(
-                    distinctId,
-                    groups,
-                    personProperties,
-                    groupProperties,
-                    flagKeys,
-                    disableGeoip,
-                ).also { entry = cache.getEntry(cacheKey) }
-            }
+        val entry = getCachedEntry(cacheKey)
+        if (entry != null) {
+            return EvaluateFlagsPlan(cacheKey, mergeRemoteFlags(local, entry.flags, entry))
+        }
+
+        return EvaluateFlagsPlan(cacheKey, result = null, local = local)
+    }
 
+    private fun mergeRemoteFlags(
+        local: LocalEvaluationOutcome?,
+        remoteFlags: Map<String, FeatureFlag>?,
+        entry: FeatureFlagCacheEntry?,
+    ): EvaluateFlagsResult {
         val localFlags = local?.flags ?: EMPTY_FLAGS
         // Local wins: `/flags` fills the gaps, it never overwrites a key local evaluation resolved.
         // Same precedence as posthog-python, which skips remote keys already in
@@ -1084,6 +1689,13 @@ internal class PostHogFeatureFlags(
         internal const val LOCAL_EVALUATION_REASON_CODE: String = "local_evaluation"
         internal const val LOCAL_EVALUATION_REASON_DESCRIPTION: String = "Evaluated locally"
         private const val FLAG_DEFINITION_CACHE_PROVIDER_TIMEOUT_MS: Long = 10_000
+        private const val MAX_CACHE_REFRESH_THREADS: Int = 2
+        private const val MAX_PENDING_CACHE_REFRESHES: Int = 100
+
+        private val FLAGS_CACHE_METRIC_TAGS = mapOf(PostHogMetrics.TAG_CACHE to "flags")
+        private val LOCAL_EVALUATION_METRIC_TAGS = mapOf(PostHogMetrics.TAG_SOURCE to "local")
+        private val REMOTE_EVALUATION_METRIC_TAGS = mapOf(PostHogMetrics.TAG_SOURCE to "remote")
+        private val NO_METRIC_TAGS: Map<String, String> = emptyMap()
 
         private val EMPTY_PROPERTIES: Map<String, Any?> = emptyMap()
         private val EMPTY_COHORT_PROPERTIES: Map<String, PropertyGroup> = emptyMap()
@@ -2,18 +2,24 @@ package com.posthog.server.internal
 
 import com.posthog.PostHogConfig
 import com.posthog.PostHogEvent
+import com.posthog.PostHogMetrics
 import com.posthog.internal.PostHogApi
 import com.posthog.internal.PostHogApiEndpoint
 import com.posthog.internal.PostHogApiError
 import com.posthog.internal.PostHogQueueInterface
 import com.posthog.internal.executeSafely
 import com.posthog.internal.isNetworkingError
+import com.posthog.internal.log
 import com.posthog.internal.submitSyncSafely
 import java.io.IOException
 import java.util.Date
 import java.util.Timer
 import java.util.TimerTask
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.concurrent.schedule
 import kotlin.math.min
@@ -24,6 +30,8 @@ import kotlin.math.min
  * @property api the API
  * @property endpoint the API endpoint to use
  * @property executor the Executor
+ * @property flushScheduler schedules the periodic flushes instead of a [Timer] per queue, e.g. one
+ * scheduler shared by the queues of many tenants. The flushes themselves run on [executor].
  */
 internal class PostHogMemoryQueue(
     private val config: PostHogConfig,
@@ -32,6 +40,7 @@ internal class PostHogMemoryQueue(
     private val executor: ExecutorService,
     private val retryDelaySeconds: Int = DEFAULT_RETRY_DELAY_SECONDS,
     private val maxRetryDelaySeconds: Int = DEFAULT_MAX_RETRY_DELAY_SECONDS,
+    private val flushScheduler: ScheduledExecutorService? = null,
 ) : PostHogQueueInterface<PostHogEvent> {
     private val events: ArrayDeque<PostHogEvent> = ArrayDeque()
     private val eventsLock = Any()
@@ -45,10 +54,23 @@ internal class PostHogMemoryQueue(
     @Volatile
     private var timerTask: TimerTask? = null
 
+    @Volatile
+    private var scheduledFlush: ScheduledFuture<*>? = null
+
+    private var timerStarted = false
+
     private var isFlushing = AtomicBoolean(false)
 
     private val delay: Long get() = (config.flushIntervalSeconds * 1000).toLong()
 
+    private val recordsLabel =
+        when (endpoint) {
+            PostHogApiEndpoint.BATCH -> "events"
+            PostHogApiEndpoint.SNAPSHOT -> "snapshots"
+        }
+
+    private val metricTags = mapOf(PostHogMetrics.TAG_ENDPOINT to recordsLabel)
+
     override fun add(record: PostHogEvent) {
         executor.executeSafely {
             var removedEvent: PostHogEvent? = null
@@ -62,10 +84,13 @@ internal class PostHogMemoryQueue(
             }
 
             if (removedEvent != null) {
-                config.logger.log("Queue is full, the oldest event ${removedEvent?.event} was discarded.")
+                config.logger.log { "Queue is full, the oldest event ${removedEvent?.event} was discarded." }
+                countDropped(1, "queue_full")
             }
 
-            config.logger.log("Event: ${record.event} was added to the queue.")
+            config.logger.log { "Event: ${record.event} was added to the queue." }
+            config.metrics.count(PostHogMetrics.RECORDS_ENQUEUED, 1, metricTags)
+            recordDepth()
 
             flushIfOverThreshold()
         }
@@ -93,8 +118,11 @@ internal class PostHogMemoryQueue(
     override fun start() {
         executor.executeSafely {
             synchronized(timerLock) {
-                if (timer == null) {
-                    timer = Timer()
+                if (!timerStarted) {
+                    timerStarted = true
+                    if (flushScheduler == null) {
+                        timer = Timer()
+                    }
                     startTimer(delay)
                     config.logger.log("Queue timer started.")
                 }
@@ -105,8 +133,11 @@ internal class PostHogMemoryQueue(
     override fun stop() {
         executor.executeSafely {
             synchronized(timerLock) {
+                timerStarted = false
                 timerTask?.cancel()
                 timerTask = null
+                scheduledFlush?.cancel(false)
+                scheduledFlush = null
                 timer?.cancel()
                 timer = null
                 config.logger.log("Queue timer stopped.")
@@ -121,6 +152,7 @@ internal class PostHogMemoryQueue(
                 events.clear()
                 config.logger.log("$eventsRemoved events cleared from Queue.")
             }
+            recordDepth()
         }
     }
 
@@ -136,14 +168,14 @@ internal class PostHogMemoryQueue(
             return true
         } else if (size > 0) {
             // only log if there are events in the queue
-            config.logger.log("Cannot flush the Queue yet, below the threshold: $flushAt")
+            config.logger.log { "Cannot flush the Queue yet, below the threshold: $flushAt" }
         }
         return false
     }
 
     private fun canFlushBatch(): Boolean {
         if (pausedUntil?.after(config.dateProvider.currentDate()) == true) {
-            config.logger.log("Queue is paused until $pausedUntil")
+            config.logger.log { "Queue is paused until $pausedUntil" }
             return false
         }
 
@@ -196,6 +228,7 @@ internal class PostHogMemoryQueue(
 
             retry = true
             retryCount++
+            config.metrics.count(PostHogMetrics.RETRIES, 1, metricTags)
         } finally {
             calculateDelay(retry)
         }
@@ -212,11 +245,13 @@ internal class PostHogMemoryQueue(
 
         try {
             config.logger.log("Flushing ${eventsToProcess.size} events.")
+            config.metrics.record(PostHogMetrics.BATCH_SIZE, eventsToProcess.size.toDouble(), metricTags)
             when (endpoint) {
                 PostHogApiEndpoint.BATCH -> api.batch(eventsToProcess)
                 PostHogApiEndpoint.SNAPSHOT -> api.snapshot(eventsToProcess)
             }
             // Events successfully sent, no need to put them back
+            config.metrics.count(PostHogMetrics.RECORDS_SENT, eventsToProcess.size.toLong(), metricTags)
         } catch (e: PostHogApiError) {
             // Put events back at the front of the queue if an intermittent error occurs
             if (e.isNetworkingError() || e.statusCode >= 500) {
@@ -230,19 +265,65 @@ internal class PostHogMemoryQueue(
             } else {
                 // Don't put events back for non-network errors (they're likely bad data)
                 config.logger.log("Flushing failed: $e")
+                countDropped(eventsToProcess.size, "rejected")
             }
             throw e
+        } finally {
+            recordDepth()
         }
     }
 
+    /**
+     * Reports the events waiting in the queue, see [PostHogMetrics.QUEUE_DEPTH]
+     */
+    private fun recordDepth() {
+        val depth = synchronized(eventsLock) { events.size }
+        config.metrics.record(PostHogMetrics.QUEUE_DEPTH, depth.toDouble(), metricTags)
+    }
+
+    private fun countDropped(
+        count: Int,
+        reason: String,
+    ) {
+        config.metrics.count(
+            PostHogMetrics.RECORDS_DROPPED,
+            count.toLong(),
+            mapOf(PostHogMetrics.TAG_ENDPOINT to recordsLabel, PostHogMetrics.TAG_REASON to reason),
+        )
+    }
+
     private fun startTimer(delay: Long) {
         synchronized(timerLock) {
-            timerTask?.cancel()
-            timerTask =
-                timer?.schedule(delay) {
-                    flushBatch()
-                    startTimer(this@PostHogMemoryQueue.delay)
-                }
+            if (!timerStarted) {
+                return
+            }
+            val flushScheduler = flushScheduler
+            if (flushScheduler == null) {
+                timerTask?.cancel()
+                timerTask =
+                    timer?.schedule(delay) {
+                        flushBatch()
+                        startTimer(this@PostHogMemoryQueue.delay)
+                    }
+                return
+            }
+            scheduledFlush?.cancel(false)
+            try {
+                // only hop onto the executor, a shared scheduler's threads must not wait on HTTP
+                scheduledFlush =
+                    flushScheduler.schedule(
+                        Runnable {
+                            executor.executeSafely {
+                                flushBatch()
+                                startTimer(this@PostHogMemoryQueue.delay)
+                            }
+                        },
+                        delay,
+                        TimeUnit.MILLISECONDS,
+                    )
+            } catch (e: RejectedExecutionException) {
+                config.logger.log("Queue timer could not be scheduled: $e.")
+            }
         }
     }
 
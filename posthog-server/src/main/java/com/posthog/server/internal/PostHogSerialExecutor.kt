@@ -0,0 +1,98 @@
+package com.posthog.server.internal
+
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Runs tasks one at a time and in submission order on a shared [pool], so many queues can share
+ * a few threads while each keeps the ordering of a single thread executor.
+ *
+ * Shutting it down only stops it from accepting tasks, [pool] is owned by the caller.
+ * @property pool the executor that runs the tasks
+ */
+internal class PostHogSerialExecutor(private val pool: Executor) : AbstractExecutorService() {
+    private val lock = ReentrantLock()
+    private val idle = lock.newCondition()
+    private val tasks = ArrayDeque<Runnable>()
+    private var active: Runnable? = null
+    private var shutdown = false
+
+    override fun execute(command: Runnable) {
+        lock.withLock {
+            if (shutdown) {
+                throw RejectedExecutionException("Executor is shut down.")
+            }
+            tasks.addLast(
+                Runnable {
+                    try {
+                        command.run()
+                    } finally {
+                        scheduleNext()
+                    }
+                },
+            )
+            if (active == null) {
+                scheduleNext()
+            }
+        }
+    }
+
+    private fun scheduleNext() {
+        lock.withLock {
+            val next = tasks.removeFirstOrNull()
+            active = next
+            if (next == null) {
+                idle.signalAll()
+                return
+            }
+            try {
+                pool.execute(next)
+            } catch (e: RejectedExecutionException) {
+                // the pool is gone, drop what's left rather than stalling forever
+                tasks.clear()
+                active = null
+                idle.signalAll()
+                throw e
+            }
+        }
+    }
+
+    override fun shutdown() {
+        lock.withLock {
+            shutdown = true
+        }
+    }
+
+    override fun shutdownNow(): MutableList<Runnable> {
+        lock.withLock {
+            shutdown = true
+            val pending = tasks.toMutableList()
+            tasks.clear()
+            return pending
+        }
+    }
+
+    override fun isShutdown(): Boolean = lock.withLock { shutdown }
+
+    override fun isTerminated(): Boolean = lock.withLock { shutdown && active == null }
+
+    override fun awaitTermination(
+        timeout: Long,
+        unit: TimeUnit,
+    ): Boolean {
+        var remainingNanos = unit.toNanos(timeout)
+        lock.withLock {
+            while (!(shutdown && active == null)) {
+                if (remainingNanos <= 0) {
+                    return false
+                }
+                remainingNanos = idle.awaitNanos(remainingNanos)
+            }
+            return true
+        }
+    }
+}
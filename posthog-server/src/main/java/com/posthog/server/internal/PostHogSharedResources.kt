@@ -0,0 +1,63 @@
+package com.posthog.server.internal
+
+import com.posthog.internal.PostHogThreadFactory
+import okhttp3.OkHttpClient
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+
+/**
+ * Threads and connections shared by every tenant of a multi-tenant client: the threads sending
+ * batches, one scheduler timing the flushes, flag definition polls and `/flags` retries, the
+ * threads loading flag definitions, and one OkHttp client.
+ * @param senderThreads the number of threads sending batches for all tenants
+ * @param schedulerThreads the number of threads timing the flushes and flag definition polls
+ * @param flagDefinitionThreads the number of threads loading flag definitions for all tenants
+ */
+internal class PostHogSharedResources(
+    senderThreads: Int,
+    schedulerThreads: Int,
+    flagDefinitionThreads: Int = 1,
+) {
+    private val senderPool: ExecutorService =
+        Executors.newFixedThreadPool(senderThreads, PostHogThreadFactory("PostHogQueueThread"))
+
+    // only hands work off to the other pools, its threads must not wait on HTTP
+    val scheduler: ScheduledExecutorService =
+        Executors.newScheduledThreadPool(schedulerThreads, PostHogThreadFactory("PostHogSchedulerThread"))
+
+    /**
+     * Loads the tenants' flag definitions, for their polls and their first flag checks
+     */
+    val flagDefinitionsLoader: ExecutorService =
+        Executors.newFixedThreadPool(flagDefinitionThreads, PostHogThreadFactory("PostHogFlagDefinitionsThread"))
+
+    private val httpClientLock = Any()
+
+    // guarded by httpClientLock
+    private var httpClient: OkHttpClient? = null
+
+    /**
+     * Returns an executor for one tenant's queue, running its tasks in order on the shared sender threads
+     */
+    fun newQueueExecutor(): ExecutorService = PostHogSerialExecutor(senderPool)
+
+    /**
+     * Returns the client shared by the tenants, built with [create] for the first tenant asking for it
+     */
+    fun httpClient(create: () -> OkHttpClient): OkHttpClient {
+        synchronized(httpClientLock) {
+            return httpClient ?: create().also { httpClient = it }
+        }
+    }
+
+    fun shutDown() {
+        scheduler.shutdownNow()
+        flagDefinitionsLoader.shutdownNow()
+        senderPool.shutdown()
+        synchronized(httpClientLock) { httpClient }?.let {
+            it.dispatcher.executorService.shutdown()
+            it.connectionPool.evictAll()
+        }
+    }
+}
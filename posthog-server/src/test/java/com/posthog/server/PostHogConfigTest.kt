@@ -1,12 +1,18 @@
 package com.posthog.server
 
 import com.posthog.PostHogOnFeatureFlags
+import com.posthog.server.internal.PostHogSharedResources
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import java.net.Proxy
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 
 @Suppress("DEPRECATION")
@@ -181,6 +187,73 @@ internal class PostHogConfigTest {
         assertEquals(mockOnFeatureFlags, coreConfig.onFeatureFlags)
     }
 
+    @Test
+    fun `asCoreConfig propagates feature flag called cache settings to core config`() {
+        val config = PostHogConfig(apiKey = TEST_API_KEY, featureFlagCalledCacheSize = 250)
+        config.featureFlagCalledCacheShards = 4
+
+        val coreConfig = config.asCoreConfig()
+
+        assertEquals(250, coreConfig.featureFlagCalledCacheSize)
+        assertEquals(4, coreConfig.featureFlagCalledCacheShards)
+    }
+
+    @Test
+    fun `asCoreConfig propagates metrics to core config`() {
+        val metrics = PostHogMicrometerMetrics(SimpleMeterRegistry())
+        val config = PostHogConfig(apiKey = TEST_API_KEY)
+        config.metrics = metrics
+
+        val coreConfig = config.asCoreConfig()
+
+        assertSame(metrics, coreConfig.metrics)
+    }
+
+    @Test
+    fun `asCoreConfig builds the base http client from the connection settings`() {
+        val config = PostHogConfig(apiKey = TEST_API_KEY)
+        config.maxRequestsPerHost = 32
+        config.http2 = false
+
+        val baseHttpClient = config.asCoreConfig().baseHttpClient
+
+        assertEquals(32, baseHttpClient?.dispatcher?.maxRequestsPerHost)
+        assertEquals(listOf(Protocol.HTTP_1_1), baseHttpClient?.protocols)
+    }
+
+    @Test
+    fun `asCoreConfig uses the shared http client as the base http client`() {
+        val sharedHttpClient = OkHttpClient()
+        val first = PostHogConfig(apiKey = TEST_API_KEY)
+        first.sharedHttpClient = sharedHttpClient
+        val second = PostHogConfig(apiKey = "other-api-key")
+        second.sharedHttpClient = sharedHttpClient
+
+        assertSame(sharedHttpClient, first.asCoreConfig().baseHttpClient)
+        assertSame(sharedHttpClient, second.asCoreConfig().baseHttpClient)
+    }
+
+    @Test
+    fun `asCoreConfig builds the tenants' shared http client from the first tenant's connection settings`() {
+        val resources = PostHogSharedResources(senderThreads = 1, schedulerThreads = 1)
+        val first = PostHogConfig(apiKey = TEST_API_KEY)
+        first.maxRequestsPerHost = 32
+        first.http2 = false
+        first.sharedResources = resources
+        val second = PostHogConfig(apiKey = "other-api-key")
+        second.sharedResources = resources
+
+        try {
+            val baseHttpClient = first.asCoreConfig().baseHttpClient
+
+            assertEquals(32, baseHttpClient?.dispatcher?.maxRequestsPerHost)
+            assertEquals(listOf(Protocol.HTTP_1_1), baseHttpClient?.protocols)
+            assertSame(baseHttpClient, second.asCoreConfig().baseHttpClient)
+        } finally {
+            resources.shutDown()
+        }
+    }
+
     @Test
     fun `asCoreConfig propagates releaseIdentifier to core config`() {
         val config = PostHogConfig(apiKey = TEST_API_KEY)
@@ -262,6 +335,16 @@ internal class PostHogConfigTest {
         assertNull(config.encryption)
         assertNull(config.onFeatureFlags)
         assertNull(config.proxy)
+        assertNull(config.initialFlagDefinitionsWaitMs)
+        assertEquals(0, config.featureFlagCacheStaleWhileRevalidateMs)
+        assertEquals(0, config.featureFlagRemoteMaxConcurrentRequests)
+        assertEquals(PostHogConfig.DEFAULT_FEATURE_FLAG_CALLED_CACHE_SHARDS, config.featureFlagCalledCacheShards)
+        assertNull(config.metrics)
+        assertNull(config.sharedHttpClient)
+        assertEquals(PostHogConfig.DEFAULT_MAX_IDLE_CONNECTIONS, config.maxIdleConnections)
+        assertEquals(PostHogConfig.DEFAULT_CONNECTION_KEEP_ALIVE_SECONDS, config.connectionKeepAliveSeconds)
+        assertEquals(PostHogConfig.DEFAULT_MAX_REQUESTS_PER_HOST, config.maxRequestsPerHost)
+        assertTrue(config.http2)
     }
 
     @Test
@@ -294,6 +377,75 @@ internal class PostHogConfigTest {
         assertEquals("release-123", config.releaseIdentifier)
     }
 
+    @Test
+    fun `builder initialFlagDefinitionsWaitMs method sets value and returns builder`() {
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        val result = builder.initialFlagDefinitionsWaitMs(250)
+        assertEquals(builder, result)
+
+        val config = builder.build()
+        assertEquals(250, config.initialFlagDefinitionsWaitMs)
+    }
+
+    @Test
+    fun `builder featureFlagCacheStaleWhileRevalidateMs method sets value and returns builder`() {
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        val result = builder.featureFlagCacheStaleWhileRevalidateMs(30000)
+        assertEquals(builder, result)
+
+        val config = builder.build()
+        assertEquals(30000, config.featureFlagCacheStaleWhileRevalidateMs)
+    }
+
+    @Test
+    fun `builder featureFlagRemoteMaxConcurrentRequests method sets value and returns builder`() {
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        val result = builder.featureFlagRemoteMaxConcurrentRequests(16)
+        assertEquals(builder, result)
+
+        val config = builder.build()
+        assertEquals(16, config.featureFlagRemoteMaxConcurrentRequests)
+    }
+
+    @Test
+    fun `builder featureFlagCalledCacheShards method sets value and returns builder`() {
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        val result = builder.featureFlagCalledCacheShards(4)
+        assertEquals(builder, result)
+
+        val config = builder.build()
+        assertEquals(4, config.featureFlagCalledCacheShards)
+    }
+
+    @Test
+    fun `builder metrics method sets value and returns builder`() {
+        val metrics = PostHogMicrometerMetrics(SimpleMeterRegistry())
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        val result = builder.metrics(metrics)
+        assertEquals(builder, result)
+
+        val config = builder.build()
+        assertSame(metrics, config.metrics)
+    }
+
+    @Test
+    fun `builder http client methods set values and return builder`() {
+        val sharedHttpClient = OkHttpClient()
+        val builder = PostHogConfig.builder(TEST_API_KEY)
+        assertEquals(builder, builder.sharedHttpClient(sharedHttpClient))
+        assertEquals(builder, builder.maxIdleConnections(20))
+        assertEquals(builder, builder.connectionKeepAliveSeconds(60))
+        assertEquals(builder, builder.maxRequestsPerHost(32))
+        assertEquals(builder, builder.http2(false))
+
+        val config = builder.build()
+        assertSame(sharedHttpClient, config.sharedHttpClient)
+        assertEquals(20, config.maxIdleConnections)
+        assertEquals(60, config.connectionKeepAliveSeconds)
+        assertEquals(32, config.maxRequestsPerHost)
+        assertFalse(config.http2)
+    }
+
     @Test
     fun `builder sendFeatureFlagEvent method sets value and returns builder`() {
         val builder = PostHogConfig.builder(TEST_API_KEY)
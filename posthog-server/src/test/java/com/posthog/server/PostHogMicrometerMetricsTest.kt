@@ -0,0 +1,58 @@
+package com.posthog.server
+
+import com.posthog.PostHogMetrics
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+internal class PostHogMicrometerMetricsTest {
+    private val registry = SimpleMeterRegistry()
+    private val sut = PostHogMicrometerMetrics(registry)
+
+    @Test
+    fun `counts are added to a counter per name and tags`() {
+        val events = mapOf(PostHogMetrics.TAG_ENDPOINT to "events")
+        val snapshots = mapOf(PostHogMetrics.TAG_ENDPOINT to "snapshots")
+
+        sut.count(PostHogMetrics.RECORDS_SENT, 2, events)
+        sut.count(PostHogMetrics.RECORDS_SENT, 3, events)
+        sut.count(PostHogMetrics.RECORDS_SENT, 1, snapshots)
+
+        fun sent(endpoint: String) =
+            registry.get(PostHogMetrics.RECORDS_SENT).tag(PostHogMetrics.TAG_ENDPOINT, endpoint).counter().count()
+        assertEquals(5.0, sent("events"))
+        assertEquals(1.0, sent("snapshots"))
+    }
+
+    @Test
+    fun `records are added to a distribution summary`() {
+        sut.record(PostHogMetrics.BATCH_SIZE, 10.0, emptyMap())
+        sut.record(PostHogMetrics.BATCH_SIZE, 30.0, emptyMap())
+
+        val summary = registry.get(PostHogMetrics.BATCH_SIZE).summary()
+        assertEquals(2L, summary.count())
+        assertEquals(40.0, summary.totalAmount())
+        assertEquals(30.0, summary.max())
+    }
+
+    @Test
+    fun `durations are in milliseconds`() {
+        val tags = mapOf(PostHogMetrics.TAG_PATH to "/batch")
+
+        sut.record(PostHogMetrics.HTTP_DURATION, 12.5, tags)
+
+        val summary = registry.get(PostHogMetrics.HTTP_DURATION).tags("path", "/batch").summary()
+        assertEquals("ms", summary.id.baseUnit)
+        assertEquals(12.5, summary.totalAmount())
+    }
+
+    @Test
+    fun `queue depth is a gauge of the latest value`() {
+        val tags = mapOf(PostHogMetrics.TAG_ENDPOINT to "events")
+
+        sut.record(PostHogMetrics.QUEUE_DEPTH, 5.0, tags)
+        sut.record(PostHogMetrics.QUEUE_DEPTH, 2.0, tags)
+
+        assertEquals(2.0, registry.get(PostHogMetrics.QUEUE_DEPTH).tags("endpoint", "events").gauge().value())
+    }
+}
@@ -0,0 +1,102 @@
+package com.posthog.server
+
+import com.google.gson.Gson
+import com.google.gson.JsonObject
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+internal class PostHogMultiTenantTest {
+    private val mockServer = MockWebServer()
+    private val gson = Gson()
+
+    private fun getSut(): PostHogMultiTenant {
+        mockServer.start()
+        val url = mockServer.url("/").toString()
+        return PostHogMultiTenant(
+            { apiKey ->
+                PostHogConfig.builder(apiKey)
+                    .host(url)
+                    .flushAt(1)
+                    .build()
+            },
+            senderThreads = 2,
+            schedulerThreads = 1,
+        )
+    }
+
+    @AfterTest
+    fun tearDown() {
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `returns the same client per api key`() {
+        val sut = getSut()
+
+        val first = sut.tenant("key-a")
+
+        assertSame(first, sut.tenant("key-a"))
+        assertNotSame(first, sut.tenant("key-b"))
+        assertEquals(setOf("key-a", "key-b"), sut.apiKeys)
+
+        sut.close()
+    }
+
+    @Test
+    fun `sends the events of each tenant with its own api key`() {
+        repeat(4) { mockServer.enqueue(MockResponse().setResponseCode(200)) }
+        val sut = getSut()
+
+        sut.tenant("key-a").capture("user-a", "event-a")
+        sut.tenant("key-b").capture("user-b", "event-b")
+        sut.tenant("key-a").capture("user-a", "event-a")
+        sut.tenant("key-b").capture("user-b", "event-b")
+
+        val events =
+            (0 until 4).map {
+                val request = mockServer.takeRequest(5, TimeUnit.SECONDS)
+                assertNotNull(request)
+                val body = gson.fromJson(request.body.unGzip(), JsonObject::class.java)
+                val event = body.getAsJsonArray("batch").first().asJsonObject
+                body.get("api_key").asString to event.get("event").asString
+            }
+
+        assertEquals(2, events.count { it == "key-a" to "event-a" })
+        assertEquals(2, events.count { it == "key-b" to "event-b" })
+
+        sut.close()
+    }
+
+    @Test
+    fun `closeTenant closes only that tenant`() {
+        val sut = getSut()
+        val first = sut.tenant("key-a")
+        sut.tenant("key-b")
+
+        sut.closeTenant("key-a")
+
+        assertEquals(setOf("key-b"), sut.apiKeys)
+        assertNotSame(first, sut.tenant("key-a"))
+
+        sut.close()
+    }
+
+    @Test
+    fun `returns a disabled client once closed`() {
+        val sut = getSut()
+        sut.tenant("key-a")
+
+        sut.close()
+
+        sut.tenant("key-a").capture("user-a", "event-a")
+        assertEquals(emptySet(), sut.apiKeys)
+        assertEquals(0, mockServer.requestCount)
+    }
+}
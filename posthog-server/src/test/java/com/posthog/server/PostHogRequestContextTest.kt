@@ -1,8 +1,14 @@
 package com.posthog.server
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
+import reactor.core.publisher.Mono
+import reactor.core.scheduler.Schedulers
 import java.util.Collections
+import java.util.concurrent.Callable
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
@@ -12,6 +18,7 @@ import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 
 internal class PostHogRequestContextTest {
@@ -305,6 +312,87 @@ internal class PostHogRequestContextTest {
         assertNull(PostHogRequestContext.current())
     }
 
+    @Test
+    fun `wrapped executor service runs tasks with the submitting thread context`() {
+        val executor = PostHogRequestContext.wrapExecutorService(Executors.newSingleThreadExecutor())
+        try {
+            val inScope =
+                PostHogRequestContext.beginScope(PostHogRequestContextData("user-a", "session-a"), fresh = true).use {
+                    executor.submit(Callable { PostHogRequestContext.current() }).get(5, TimeUnit.SECONDS)
+                }
+            val outOfScope = executor.submit(Callable { PostHogRequestContext.current() }).get(5, TimeUnit.SECONDS)
+
+            assertEquals("user-a", inScope?.distinctId)
+            assertEquals("session-a", inScope?.sessionId)
+            assertNull(outOfScope)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun `wrapped executor runs tasks with the submitting thread context`() {
+        val delegate = Executors.newSingleThreadExecutor()
+        val executor = PostHogRequestContext.wrapExecutor(delegate)
+        val done = CountDownLatch(1)
+        var distinctId: String? = null
+        try {
+            PostHogRequestContext.beginScope(PostHogRequestContextData("user-a"), fresh = true).use {
+                executor.execute {
+                    distinctId = PostHogRequestContext.current()?.distinctId
+                    done.countDown()
+                }
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS))
+            assertEquals("user-a", distinctId)
+        } finally {
+            delegate.shutdownNow()
+        }
+    }
+
+    @Test
+    fun `wrap returns the task itself when no scope is active`() {
+        val runnable = Runnable { }
+
+        assertSame(runnable, PostHogRequestContext.wrap(runnable))
+    }
+
+    @Test
+    fun `coroutine element propagates the context across dispatchers`() {
+        val data = PostHogRequestContextData("user-a", "session-a")
+
+        val distinctId =
+            runBlocking(PostHogRequestContextElement(data)) {
+                withContext(Dispatchers.Default) {
+                    PostHogRequestContext.current()?.distinctId
+                }
+            }
+
+        assertEquals("user-a", distinctId)
+        assertNull(PostHogRequestContext.current())
+    }
+
+    @Test
+    fun `reactor context carries the context to other schedulers`() {
+        val distinctId =
+            PostHogRequestContext.beginScope(PostHogRequestContextData("user-a"), fresh = true).use {
+                Mono.deferContextual { contextView ->
+                    Mono.just(
+                        PostHogReactorContext.withContext(contextView) {
+                            PostHogRequestContext.current()?.distinctId ?: "none"
+                        },
+                    )
+                }
+                    .subscribeOn(Schedulers.parallel())
+                    .contextWrite(PostHogReactorContext.capture())
+                    .block()
+            }
+
+        assertEquals("user-a", distinctId)
+        assertNull(PostHogRequestContext.current())
+    }
+
     private inline fun withPostHog(
         flushAt: Int = 1,
         block: (MockWebServer, PostHogInterface) -> Unit,
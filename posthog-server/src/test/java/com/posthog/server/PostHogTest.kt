@@ -708,6 +708,128 @@ internal class PostHogTest {
         mockServer.shutdown()
     }
 
+    @Test
+    fun `getFeatureFlagAsync resolves the flag and sends feature_flag_called to batch`() {
+        val mockServer = MockWebServer()
+        mockServer.enqueue(jsonResponse(createFlagsResponse("async-flag", enabled = true, variant = "variant-a")))
+        mockServer.enqueue(MockResponse().setResponseCode(200))
+        mockServer.start()
+
+        val url = mockServer.url("/").toString()
+        val postHog =
+            PostHog.with(
+                PostHogConfig.builder(TEST_API_KEY)
+                    .host(url)
+                    .flushAt(1)
+                    .build(),
+            )
+
+        val value = postHog.getFeatureFlagAsync("user123", "async-flag").toCompletableFuture().get(5, TimeUnit.SECONDS)
+        assertEquals("variant-a", value)
+
+        val flagsRequest = mockServer.takeRequest(5, TimeUnit.SECONDS)
+        assertNotNull(flagsRequest, "Expected /flags request")
+        assertTrue(flagsRequest.path?.contains("/flags") == true, "First request should be /flags")
+
+        val batchRequest = mockServer.takeRequest(5, TimeUnit.SECONDS)
+        assertNotNull(batchRequest, "Expected /batch request within 5 seconds")
+        val props = batchRequest.parseBatch().eventProperties("\$feature_flag_called")
+        assertEquals("async-flag", props["\$feature_flag"])
+        assertEquals("variant-a", props["\$feature_flag_response"])
+
+        postHog.close()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `getFeatureFlagAsync sends feature_flag_called with the caller's request context`() {
+        val mockServer = MockWebServer()
+        // delayed, so the stage completes on the HTTP client's thread
+        mockServer.enqueue(
+            jsonResponse(createFlagsResponse("async-flag", enabled = true)).setBodyDelay(200, TimeUnit.MILLISECONDS),
+        )
+        mockServer.enqueue(MockResponse().setResponseCode(200))
+        mockServer.start()
+
+        val url = mockServer.url("/").toString()
+        val postHog =
+            PostHog.with(
+                PostHogConfig.builder(TEST_API_KEY)
+                    .host(url)
+                    .flushAt(1)
+                    .build(),
+            )
+
+        val future =
+            PostHogRequestContext.withContext(
+                PostHogRequestContextData(sessionId = "session-123", properties = mapOf("route" to "/checkout")),
+            ) {
+                postHog.getFeatureFlagAsync("user123", "async-flag").toCompletableFuture()
+            }
+        assertEquals(true, future.get(5, TimeUnit.SECONDS))
+
+        mockServer.takeRequest(5, TimeUnit.SECONDS)
+        val batchRequest = mockServer.takeRequest(5, TimeUnit.SECONDS)
+        assertNotNull(batchRequest, "Expected /batch request within 5 seconds")
+        val props = batchRequest.parseBatch().eventProperties("\$feature_flag_called")
+        assertEquals("session-123", props["\$session_id"])
+        assertEquals("/checkout", props["route"])
+
+        postHog.close()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `isFeatureEnabledAsync completes with the default value when flags request fails`() {
+        val mockServer = MockWebServer()
+        mockServer.enqueue(errorResponse(500, "Internal Server Error"))
+        mockServer.enqueue(MockResponse().setResponseCode(200))
+        mockServer.start()
+
+        val url = mockServer.url("/").toString()
+        val postHog =
+            PostHog.with(
+                PostHogConfig.builder(TEST_API_KEY)
+                    .host(url)
+                    .sendFeatureFlagEvent(false)
+                    .build(),
+            )
+
+        val enabled =
+            postHog.isFeatureEnabledAsync("user123", "test-flag", defaultValue = true)
+                .toCompletableFuture()
+                .get(5, TimeUnit.SECONDS)
+
+        assertTrue(enabled)
+
+        postHog.close()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `evaluateFlagsAsync returns a snapshot for the distinct id`() {
+        val mockServer = MockWebServer()
+        mockServer.enqueue(jsonResponse(createFlagsResponse("async-flag", enabled = true)))
+        mockServer.start()
+
+        val url = mockServer.url("/").toString()
+        val postHog =
+            PostHog.with(
+                PostHogConfig.builder(TEST_API_KEY)
+                    .host(url)
+                    .sendFeatureFlagEvent(false)
+                    .build(),
+            )
+
+        val snapshot = postHog.evaluateFlagsAsync("user123").toCompletableFuture().get(5, TimeUnit.SECONDS)
+
+        assertTrue(snapshot.isEnabled("async-flag"))
+        assertEquals(1, mockServer.requestCount)
+
+        postHog.close()
+        mockServer.shutdown()
+    }
+
     /**
      * `ignoredExceptionTypes` has no server-config builder yet, so configure it on the core config
      * the server config produces — the same object the capture path reads at runtime.
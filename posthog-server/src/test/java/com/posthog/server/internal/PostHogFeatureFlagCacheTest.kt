@@ -5,6 +5,7 @@ import com.posthog.internal.FeatureFlag
 import com.posthog.internal.FeatureFlagMetadata
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
@@ -371,6 +372,90 @@ internal class PostHogFeatureFlagCacheTest {
         assertEquals(0, cache.size())
     }
 
+    @Test
+    fun `stale entries are served until the stale window passes`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 0, staleWhileRevalidateMs = 60000)
+        val key = createTestKey()
+        val flags = createTestFlags()
+
+        cache.put(key, flags, requestId = "req-123")
+        val entry = cache.getEntry(key)
+
+        assertNotNull(entry)
+        assertTrue(entry.isStale())
+        assertFalse(entry.isExpired())
+        assertEquals(flags, cache.get(key))
+    }
+
+    @Test
+    fun `stale entries expire once the stale window passes`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 1, staleWhileRevalidateMs = 1)
+        val key = createTestKey()
+
+        cache.put(key, createTestFlags())
+        Thread.sleep(10)
+
+        assertNull(cache.getEntry(key))
+        assertEquals(0, cache.size())
+    }
+
+    @Test
+    fun `failed requests are not served stale`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 0, staleWhileRevalidateMs = 60000)
+        val key = createTestKey()
+
+        cache.put(key, null, error = "timeout")
+
+        assertNull(cache.getEntry(key))
+    }
+
+    @Test
+    fun `fresh entries are not stale`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 60000, staleWhileRevalidateMs = 60000)
+        val key = createTestKey()
+
+        cache.put(key, createTestFlags())
+        val entry = cache.getEntry(key)
+
+        assertNotNull(entry)
+        assertFalse(entry.isStale())
+    }
+
+    @Test
+    fun `deferred refreshes back off after each failure`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 0, staleWhileRevalidateMs = 600000)
+        val key = createTestKey()
+        val flags = createTestFlags()
+        cache.put(key, flags)
+
+        val before = System.currentTimeMillis()
+        cache.deferRefresh(key)
+        val first = cache.getEntry(key)
+
+        assertNotNull(first)
+        assertFalse(first.isStale())
+        assertEquals(1, first.refreshFailures)
+        assertTrue(first.refreshAt >= before + 1000)
+        assertEquals(flags, cache.get(key))
+
+        // not stale yet, so a late failure doesn't push the refresh further out
+        cache.deferRefresh(key)
+        assertEquals(first, cache.getEntry(key))
+    }
+
+    @Test
+    fun `deferred refreshes never outlive the stale window`() {
+        val cache = PostHogFeatureFlagCache(maxSize = 10, maxAgeMs = 0, staleWhileRevalidateMs = 100)
+        val key = createTestKey()
+        cache.put(key, createTestFlags())
+
+        cache.deferRefresh(key)
+        val entry = cache.getEntry(key)
+
+        assertNotNull(entry)
+        assertEquals(entry.expiresAt, entry.refreshAt)
+    }
+
     private fun createTestKey(distinctId: String?): FeatureFlagCacheKey {
         return FeatureFlagCacheKey(distinctId, null, null, null)
     }
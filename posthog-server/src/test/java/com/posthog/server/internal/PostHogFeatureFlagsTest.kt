@@ -1,9 +1,11 @@
 package com.posthog.server.internal
 
+import com.posthog.PostHogMetrics
 import com.posthog.internal.PostHogApi
 import com.posthog.server.CountingDispatcher
 import com.posthog.server.PostHogBlockingFlagDefinitionCacheProvider
 import com.posthog.server.PostHogFlagDefinitionCacheProvider
+import com.posthog.server.PostHogMicrometerMetrics
 import com.posthog.server.TestLogger
 import com.posthog.server.createEmptyFlagsResponse
 import com.posthog.server.createFlagsResponse
@@ -14,6 +16,7 @@ import com.posthog.server.errorResponse
 import com.posthog.server.jsonResponse
 import com.posthog.server.jsonResponseWithEtag
 import com.posthog.server.notModifiedResponse
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import okhttp3.mockwebserver.Dispatcher
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
@@ -24,6 +27,11 @@ import java.util.Collections
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.CompletionStage
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
@@ -228,6 +236,29 @@ internal class PostHogFeatureFlagsTest {
         mockServer.shutdown()
     }
 
+    @Test
+    fun `reports flag cache hits and remote evaluations to metrics`() {
+        val mockServer = createMockHttp(jsonResponse(createFlagsResponse("test-flag")))
+        val registry = SimpleMeterRegistry()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        config.metrics = PostHogMicrometerMetrics(registry)
+        val remoteConfig = PostHogFeatureFlags(config, PostHogApi(config), 60000, 100)
+
+        remoteConfig.getFeatureFlags(distinctId = "test-user")
+        remoteConfig.getFeatureFlags(distinctId = "test-user")
+
+        fun counter(
+            name: String,
+            tag: String,
+            value: String,
+        ) = registry.get(name).tag(tag, value).counter().count()
+        assertEquals(1.0, counter(PostHogMetrics.FEATURE_FLAG_CACHE_MISSES, PostHogMetrics.TAG_CACHE, "flags"))
+        assertEquals(1.0, counter(PostHogMetrics.FEATURE_FLAG_CACHE_HITS, PostHogMetrics.TAG_CACHE, "flags"))
+        assertEquals(1.0, counter(PostHogMetrics.FEATURE_FLAG_EVALUATIONS, PostHogMetrics.TAG_SOURCE, "remote"))
+
+        mockServer.shutdown()
+    }
+
     @Test
     fun `getFeatureFlags handles API errors gracefully`() {
         val logger = TestLogger()
@@ -2351,6 +2382,487 @@ internal class PostHogFeatureFlagsTest {
         mockServer.shutdown()
     }
 
+    @Test
+    fun `initial definitions wait budget falls back to remote while load is slow`() {
+        val logger = TestLogger()
+        val releaseDefinitions = CountDownLatch(1)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = {
+                    releaseDefinitions.await(5, TimeUnit.SECONDS)
+                    jsonResponse(createLocalEvaluationResponse("slow-flag"))
+                },
+                flagsResponse = { jsonResponse(createFlagsResponse("slow-flag", enabled = true, variant = "remote")) },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(logger, mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                60000,
+                100,
+                localEvaluation = true,
+                personalApiKey = "test-personal-key",
+                pollerEnabled = false,
+                initialDefinitionsWaitMs = 50,
+            )
+
+        assertEquals("remote", featureFlags.getFeatureFlag("slow-flag", false, "test-user"))
+        assertFalse(featureFlags.definitionsReady.isDone)
+        assertEquals(1, dispatcher.flagsCalls.get())
+        assertTrue(logger.containsLog("Flag definitions not loaded within 50ms, falling back"))
+
+        releaseDefinitions.countDown()
+        featureFlags.definitionsReady.get(5, TimeUnit.SECONDS)
+
+        // the fallback's answer stays cached for its user, new users are evaluated locally
+        assertEquals("remote", featureFlags.getFeatureFlag("slow-flag", false, "test-user"))
+        assertEquals(true, featureFlags.getFeatureFlag("slow-flag", false, "other-user"))
+        assertEquals(1, dispatcher.localEvaluationCalls.get())
+        assertEquals(1, dispatcher.flagsCalls.get())
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `polls on a shared scheduler load definitions on the definitions loader`() {
+        val releaseDefinitions = CountDownLatch(1)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = {
+                    releaseDefinitions.await(5, TimeUnit.SECONDS)
+                    jsonResponse(createLocalEvaluationResponse("polled-flag"))
+                },
+                flagsResponse = { jsonResponse(createFlagsResponse("polled-flag", enabled = true)) },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val scheduler = Executors.newSingleThreadScheduledExecutor()
+        val loader = Executors.newSingleThreadExecutor()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                PostHogApi(config),
+                60000,
+                100,
+                localEvaluation = true,
+                personalApiKey = "test-personal-key",
+                pollScheduler = scheduler,
+                definitionsLoader = loader,
+            )
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (dispatcher.localEvaluationCalls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assertEquals(1, dispatcher.localEvaluationCalls.get())
+        // the poll's fetch is still blocked, yet the scheduler is free for other timers
+        assertTrue(scheduler.schedule<Boolean>({ true }, 0, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS))
+
+        releaseDefinitions.countDown()
+        featureFlags.definitionsReady.get(5, TimeUnit.SECONDS)
+        assertEquals(true, featureFlags.getFeatureFlag("polled-flag", false, "test-user"))
+
+        featureFlags.shutDown()
+        scheduler.shutdownNow()
+        loader.shutdownNow()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `concurrent callers share one background definitions load`() {
+        val releaseDefinitions = CountDownLatch(1)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = {
+                    releaseDefinitions.await(5, TimeUnit.SECONDS)
+                    jsonResponse(createLocalEvaluationResponse("shared-flag"))
+                },
+                flagsResponse = { jsonResponse(createFlagsResponse("shared-flag", enabled = true)) },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                60000,
+                100,
+                localEvaluation = true,
+                personalApiKey = "test-personal-key",
+                pollerEnabled = false,
+                initialDefinitionsWaitMs = 0,
+            )
+
+        repeat(3) { index ->
+            featureFlags.getFeatureFlag("shared-flag", false, "user-$index")
+        }
+        releaseDefinitions.countDown()
+        featureFlags.definitionsReady.get(5, TimeUnit.SECONDS)
+
+        assertEquals(1, dispatcher.localEvaluationCalls.get())
+        assertEquals(3, dispatcher.flagsCalls.get())
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `definitionsReady completes immediately when local evaluation is disabled`() {
+        val config = createTestConfig()
+        val api = PostHogApi(config)
+        val featureFlags = PostHogFeatureFlags(config, api, 60000, 100)
+
+        assertTrue(featureFlags.definitionsReady.isDone)
+    }
+
+    @Test
+    fun `concurrent cache misses for the same key share one remote request`() {
+        val releaseFlags = CountDownLatch(1)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = {
+                    releaseFlags.await(5, TimeUnit.SECONDS)
+                    jsonResponse(createFlagsResponse("popular-flag", enabled = true, variant = "shared"))
+                },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags = PostHogFeatureFlags(config, api, 60000, 100)
+
+        val threadCount = 5
+        val results = Collections.synchronizedList(mutableListOf<Any?>())
+        val threads =
+            List(threadCount) {
+                Thread {
+                    results.add(featureFlags.getFeatureFlag("popular-flag", false, "anonymous"))
+                }
+            }
+        threads.forEach { it.start() }
+
+        // hold the first request open long enough for the other threads to miss the cache too
+        Thread.sleep(200)
+        releaseFlags.countDown()
+        threads.forEach { it.join(5000) }
+
+        assertEquals(1, dispatcher.flagsCalls.get())
+        assertEquals(List(threadCount) { "shared" }, results.toList())
+
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `remote requests for different keys are not coalesced`() {
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = { jsonResponse(createFlagsResponse("popular-flag", enabled = true)) },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags = PostHogFeatureFlags(config, api, 60000, 100)
+
+        featureFlags.getFeatureFlag("popular-flag", false, "user-a")
+        featureFlags.getFeatureFlag("popular-flag", false, "user-b")
+        featureFlags.getFeatureFlag("popular-flag", false, "user-a")
+
+        assertEquals(2, dispatcher.flagsCalls.get())
+
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `stale cached flags are served while refreshed in the background`() {
+        val variant = AtomicReference("first")
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = {
+                    jsonResponse(createFlagsResponse("swr-flag", enabled = true, variant = variant.get()))
+                },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                cacheMaxAgeMs = 0,
+                cacheMaxSize = 100,
+                cacheStaleWhileRevalidateMs = 60000,
+            )
+
+        assertEquals("first", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+        variant.set("second")
+
+        // the stale entry answers straight away and kicks off a refresh
+        assertEquals("first", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+
+        val deadline = System.currentTimeMillis() + 5000
+        var result: Any? = null
+        while (System.currentTimeMillis() < deadline) {
+            result = featureFlags.getFeatureFlag("swr-flag", false, "test-user")
+            if (result == "second") {
+                break
+            }
+            Thread.sleep(10)
+        }
+
+        assertEquals("second", result)
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `failed background refresh keeps serving stale flags`() {
+        val failing = AtomicBoolean(false)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = {
+                    if (failing.get()) {
+                        errorResponse(500)
+                    } else {
+                        jsonResponse(createFlagsResponse("swr-flag", enabled = true, variant = "cached"))
+                    }
+                },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                cacheMaxAgeMs = 0,
+                cacheMaxSize = 100,
+                cacheStaleWhileRevalidateMs = 60000,
+            )
+
+        assertEquals("cached", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+        failing.set(true)
+        featureFlags.getFeatureFlag("swr-flag", false, "test-user")
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (dispatcher.flagsCalls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        Thread.sleep(50)
+
+        assertEquals("cached", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `failed background refresh is not retried on the next read`() {
+        val failing = AtomicBoolean(false)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = {
+                    if (failing.get()) {
+                        errorResponse(500)
+                    } else {
+                        jsonResponse(createFlagsResponse("swr-flag", enabled = true, variant = "cached"))
+                    }
+                },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                cacheMaxAgeMs = 0,
+                cacheMaxSize = 100,
+                cacheStaleWhileRevalidateMs = 60000,
+            )
+
+        assertEquals("cached", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+        failing.set(true)
+        featureFlags.getFeatureFlag("swr-flag", false, "test-user")
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (dispatcher.flagsCalls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        Thread.sleep(100)
+
+        repeat(3) {
+            assertEquals("cached", featureFlags.getFeatureFlag("swr-flag", false, "test-user"))
+        }
+        Thread.sleep(100)
+        assertEquals(2, dispatcher.flagsCalls.get())
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `async evaluation does not wait for definitions still loading`() {
+        val releaseDefinitions = CountDownLatch(1)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = {
+                    releaseDefinitions.await(5, TimeUnit.SECONDS)
+                    jsonResponse(createLocalEvaluationResponse("async-flag"))
+                },
+                flagsResponse = { jsonResponse(createFlagsResponse("async-flag", enabled = true, variant = "remote")) },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                60000,
+                100,
+                localEvaluation = true,
+                personalApiKey = "test-personal-key",
+                pollerEnabled = false,
+            )
+
+        val result =
+            featureFlags.evaluateFlagsAsync(
+                distinctId = "test-user",
+                groups = null,
+                personProperties = null,
+                groupProperties = null,
+                flagKeys = null,
+                onlyEvaluateLocally = false,
+                disableGeoip = false,
+            ).get(5, TimeUnit.SECONDS)
+
+        assertEquals("remote", result.flags["async-flag"]?.variant)
+        assertEquals(false, result.locallyEvaluated["async-flag"])
+        assertFalse(featureFlags.definitionsReady.isDone)
+
+        releaseDefinitions.countDown()
+        featureFlags.definitionsReady.get(5, TimeUnit.SECONDS)
+
+        val flag =
+            featureFlags.getFeatureFlagResultAsync(
+                "async-flag",
+                "other-user",
+                groups = null,
+                personProperties = null,
+                groupProperties = null,
+            ).get(5, TimeUnit.SECONDS)
+
+        assertEquals(true, flag?.enabled)
+        assertEquals(1, dispatcher.flagsCalls.get())
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `async remote failure completes with null and caches the error`() {
+        val mockServer = createMockHttp(errorResponse(500))
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        val api = PostHogApi(config)
+        val featureFlags = PostHogFeatureFlags(config, api, 60000, 100)
+
+        val flag =
+            featureFlags.getFeatureFlagResultAsync(
+                "missing-flag",
+                "test-user",
+                groups = null,
+                personProperties = null,
+                groupProperties = null,
+            ).get(5, TimeUnit.SECONDS)
+
+        assertNull(flag)
+        assertEquals(
+            FeatureFlagError.apiError(500),
+            featureFlags.getFeatureFlagError("missing-flag", "test-user", null, null, null),
+        )
+
+        mockServer.shutdown()
+    }
+
+    @Test
+    fun `blocking remote requests for many users stay within the concurrency limit`() {
+        val inFlight = AtomicInteger(0)
+        val maxInFlight = AtomicInteger(0)
+        val dispatcher =
+            CountingDispatcher(
+                localEvaluationResponse = { jsonResponse(createLocalEvaluationResponse("unused-flag")) },
+                flagsResponse = {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+                    Thread.sleep(50)
+                    inFlight.decrementAndGet()
+                    jsonResponse(createFlagsResponse("limited-flag", enabled = true))
+                },
+            )
+        val mockServer = MockWebServer()
+        mockServer.dispatcher = dispatcher
+        mockServer.start()
+        val registry = SimpleMeterRegistry()
+        val config = createTestConfig(host = mockServer.url("/").toString())
+        config.metrics = PostHogMicrometerMetrics(registry)
+        val api = PostHogApi(config)
+        val featureFlags =
+            PostHogFeatureFlags(
+                config,
+                api,
+                60000,
+                100,
+                remoteMaxConcurrentRequests = 2,
+            )
+
+        val userCount = 6
+        val results = Collections.synchronizedList(mutableListOf<Any?>())
+        val threads =
+            List(userCount) { index ->
+                Thread {
+                    results.add(featureFlags.getFeatureFlag("limited-flag", false, "user-$index"))
+                }
+            }
+        threads.forEach { it.start() }
+        threads.forEach { it.join(5000) }
+
+        assertEquals(userCount, dispatcher.flagsCalls.get())
+        assertEquals(List(userCount) { true }, results.toList())
+        assertTrue(maxInFlight.get() <= 2)
+
+        assertEquals(userCount.toLong(), registry.get(PostHogMetrics.FEATURE_FLAG_REMOTE_LATENCY).summary().count())
+
+        featureFlags.shutDown()
+        mockServer.shutdown()
+    }
+
     private fun createFlagDefinitionCacheData(
         config: com.posthog.PostHogConfig,
         flagKey: String,
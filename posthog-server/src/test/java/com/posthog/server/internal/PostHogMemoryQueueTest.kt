@@ -1,6 +1,7 @@
 package com.posthog.server.internal
 
 import com.posthog.PostHogConfig
+import com.posthog.PostHogMetrics
 import com.posthog.internal.PostHogApi
 import com.posthog.internal.PostHogApiEndpoint
 import com.posthog.internal.PostHogDateProvider
@@ -8,15 +9,18 @@ import com.posthog.internal.PostHogDeviceDateProvider
 import com.posthog.internal.PostHogNetworkStatus
 import com.posthog.internal.PostHogThreadFactory
 import com.posthog.server.awaitExecution
+import com.posthog.server.PostHogMicrometerMetrics
 import com.posthog.server.createMockHttp
 import com.posthog.server.generateEvent
 import com.posthog.server.shutdownAndAwaitTermination
 import com.posthog.server.unGzip
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import okhttp3.mockwebserver.MockResponse
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
 import kotlin.test.Test
 
 internal class PostHogMemoryQueueTest {
@@ -31,6 +35,8 @@ internal class PostHogMemoryQueueTest {
         maxBatchSize: Int = 50,
         networkStatus: PostHogNetworkStatus? = null,
         retryDelaySeconds: Int = 5,
+        metrics: PostHogMetrics? = null,
+        flushScheduler: ScheduledExecutorService? = null,
     ): PostHogMemoryQueue {
         val config =
             PostHogConfig("some_api_key", host).apply {
@@ -40,6 +46,7 @@ internal class PostHogMemoryQueueTest {
                 this.maxBatchSize = maxBatchSize
                 this.dateProvider = dateProvider
                 this.flushIntervalSeconds = flushIntervalSeconds
+                metrics?.let { this.metrics = it }
             }
         val api = PostHogApi(config)
         return PostHogMemoryQueue(
@@ -48,6 +55,7 @@ internal class PostHogMemoryQueueTest {
             PostHogApiEndpoint.BATCH,
             executor = executor,
             retryDelaySeconds = retryDelaySeconds,
+            flushScheduler = flushScheduler,
         )
     }
 
@@ -135,6 +143,38 @@ internal class PostHogMemoryQueueTest {
         executor.shutdownAndAwaitTermination()
     }
 
+    @Test
+    fun `reports enqueued, dropped and sent metrics`() {
+        val http = createMockHttp(MockResponse().setBody("{}"))
+        val registry = SimpleMeterRegistry()
+        val sut =
+            getSut(
+                http.url("/").toString(),
+                maxQueueSize = 2,
+                flushAt = 5,
+                metrics = PostHogMicrometerMetrics(registry),
+            )
+
+        sut.add(generateEvent("event1"))
+        sut.add(generateEvent("event2"))
+        sut.add(generateEvent("event3"))
+        executor.awaitExecution()
+
+        sut.flush()
+        http.takeRequest()
+        executor.awaitExecution()
+
+        fun counter(name: String) = registry.get(name).tag(PostHogMetrics.TAG_ENDPOINT, "events").counter().count()
+        assertEquals(3.0, counter(PostHogMetrics.RECORDS_ENQUEUED), 0.0)
+        assertEquals(1.0, counter(PostHogMetrics.RECORDS_DROPPED), 0.0)
+        assertEquals(2.0, counter(PostHogMetrics.RECORDS_SENT), 0.0)
+        assertEquals(2.0, registry.get(PostHogMetrics.BATCH_SIZE).summary().max(), 0.0)
+        assertEquals(0.0, registry.get(PostHogMetrics.QUEUE_DEPTH).gauge().value(), 0.0)
+
+        http.shutdown()
+        executor.shutdownAndAwaitTermination()
+    }
+
     @Test
     fun `respects max batch size`() {
         val http = createMockHttp(MockResponse().setBody("{}"), MockResponse().setBody("{}"))
@@ -273,4 +313,28 @@ internal class PostHogMemoryQueueTest {
         http.shutdown()
         executor.shutdownAndAwaitTermination()
     }
+
+    @Test
+    fun `flushes on the interval with a shared scheduler`() {
+        val http = createMockHttp(MockResponse().setBody("{}"))
+        val scheduler = Executors.newSingleThreadScheduledExecutor(PostHogThreadFactory("TestScheduler"))
+        val sut = getSut(http.url("/").toString(), flushAt = 10, flushIntervalSeconds = 1, flushScheduler = scheduler)
+
+        sut.start()
+        sut.add(generateEvent())
+        executor.awaitExecution()
+        assertEquals(0, http.requestCount)
+
+        Thread.sleep(1500)
+        executor.awaitExecution()
+        assertEquals(1, http.requestCount)
+
+        sut.stop()
+        // stopping the queue leaves the shared scheduler running
+        assertFalse(scheduler.isShutdown)
+
+        scheduler.shutdownAndAwaitTermination()
+        http.shutdown()
+        executor.shutdownAndAwaitTermination()
+    }
 }
@@ -0,0 +1,90 @@
+package com.posthog.server.internal
+
+import com.posthog.internal.PostHogThreadFactory
+import com.posthog.server.shutdownAndAwaitTermination
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+internal class PostHogSerialExecutorTest {
+    private val pool = Executors.newFixedThreadPool(4, PostHogThreadFactory("TestPool"))
+
+    @AfterTest
+    fun tearDown() {
+        pool.shutdownAndAwaitTermination()
+    }
+
+    @Test
+    fun `runs tasks one at a time in submission order`() {
+        val sut = PostHogSerialExecutor(pool)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val running = AtomicInteger()
+        var maxRunning = 0
+
+        repeat(100) { index ->
+            sut.execute {
+                val now = running.incrementAndGet()
+                maxRunning = maxOf(maxRunning, now)
+                order.add(index)
+                running.decrementAndGet()
+            }
+        }
+        sut.shutdown()
+
+        assertTrue(sut.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals((0 until 100).toList(), order)
+        assertEquals(1, maxRunning)
+    }
+
+    @Test
+    fun `executors sharing a pool run concurrently`() {
+        val first = PostHogSerialExecutor(pool)
+        val second = PostHogSerialExecutor(pool)
+        val bothRunning = CountDownLatch(2)
+
+        first.execute {
+            bothRunning.countDown()
+            bothRunning.await(5, TimeUnit.SECONDS)
+        }
+        second.execute {
+            bothRunning.countDown()
+            bothRunning.await(5, TimeUnit.SECONDS)
+        }
+
+        assertTrue(bothRunning.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun `rejects tasks once shut down`() {
+        val sut = PostHogSerialExecutor(pool)
+
+        sut.shutdown()
+
+        assertTrue(sut.isShutdown)
+        assertTrue(sut.isTerminated)
+        assertFailsWith<RejectedExecutionException> { sut.execute {} }
+    }
+
+    @Test
+    fun `shutdownNow returns the tasks not started yet`() {
+        val sut = PostHogSerialExecutor(pool)
+        val blocker = CountDownLatch(1)
+        sut.execute { blocker.await(5, TimeUnit.SECONDS) }
+        sut.execute {}
+        sut.execute {}
+
+        val pending = sut.shutdownNow()
+        blocker.countDown()
+
+        assertEquals(2, pending.size)
+        assertTrue(sut.awaitTermination(5, TimeUnit.SECONDS))
+    }
+}
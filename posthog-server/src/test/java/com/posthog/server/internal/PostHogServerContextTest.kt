@@ -1,8 +1,11 @@
 package com.posthog.server.internal
 
 import com.posthog.PostHogConfig
+import com.posthog.server.PostHogRequestContext
+import com.posthog.server.PostHogRequestContextData
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 
 internal class PostHogServerContextTest {
@@ -17,6 +20,7 @@ internal class PostHogServerContextTest {
 
         assertEquals("posthog-server", sdkInfo["\$lib"])
         assertEquals("1.0.2", sdkInfo["\$lib_version"])
+        assertSame(sdkInfo, context.getSdkInfo())
     }
 
     @Test
@@ -38,4 +42,20 @@ internal class PostHogServerContextTest {
 
         assertTrue(dynamicContext.isEmpty())
     }
+
+    @Test
+    fun `dynamic context is built once per request context`() {
+        val config = PostHogConfig("test-api-key")
+        val context = PostHogServerContext(config)
+        val data = PostHogRequestContextData(sessionId = "session-a", properties = mapOf("plan" to "pro"))
+
+        PostHogRequestContext.beginScope(data, fresh = true).use {
+            val first = context.getDynamicContext()
+            val second = context.getDynamicContext()
+
+            assertEquals(mapOf("plan" to "pro", "\$session_id" to "session-a"), first)
+            assertSame(first, second)
+        }
+        assertTrue(context.getDynamicContext().isEmpty())
+    }
 }
@@ -6,6 +6,7 @@ import com.posthog.internal.PostHogApi
 import com.posthog.internal.PostHogApiEndpoint
 import com.posthog.internal.PostHogDefaultPersonPropertiesProvider
 import com.posthog.internal.PostHogFeatureFlagCalledProvider
+import com.posthog.internal.PostHogLayeredProperties
 import com.posthog.internal.PostHogNoOpLogger
 import com.posthog.internal.PostHogOnRemoteConfigLoaded
 import com.posthog.internal.PostHogPreferences.Companion.ALL_INTERNAL_KEYS
@@ -641,38 +642,21 @@ public class PostHog private constructor(
         appendSharedProps: Boolean = true,
         appendGroups: Boolean = true,
     ): MutableMap<String, Any> {
+        // shared layers are referenced rather than copied, see PostHogLayeredProperties
+        val layers = mutableListOf<Map<String, Any>>()
         val props = mutableMapOf<String, Any>()
 
         if (appendSharedProps) {
-            val registeredPrefs = getPreferences().getAll()
-            if (registeredPrefs.isNotEmpty()) {
-                props.putAll(registeredPrefs)
-            }
-
-            config?.context?.getStaticContext()?.let {
-                props.putAll(it)
-            }
+            layers.add(getPreferences().getAll())
 
-            config?.context?.getDynamicContext()?.let {
-                props.putAll(it)
+            config?.context?.let {
+                layers.add(it.getStaticContext())
+                layers.add(it.getDynamicContext())
             }
 
             if (config?.sendFeatureFlagEvent == true) {
-                remoteConfig?.getFeatureFlags()?.let {
-                    if (it.isNotEmpty()) {
-                        val keys = mutableListOf<String>()
-                        for (entry in it.entries) {
-                            props["\$feature/${entry.key}"] = entry.value
-
-                            // only add active feature flags
-                            val active = entry.value as? Boolean ?: true
-
-                            if (active) {
-                                keys.add(entry.key)
-                            }
-                        }
-                        props["\$active_feature_flags"] = keys
-                    }
+                remoteConfig?.getFeatureFlagEventProperties()?.let {
+                    layers.add(it)
                 }
             }
 
@@ -695,10 +679,11 @@ public class PostHog private constructor(
             props["\$process_person_profile"] = hasPersonProcessing()
             stampCachedScreenName(props)
         }
+        layers.add(props)
 
         // Session replay should have the SDK info as well
         config?.context?.getSdkInfo()?.let {
-            props.putAll(it)
+            layers.add(it)
         }
 
         val isSessionReplayActive = isSessionReplayActive()
@@ -710,29 +695,29 @@ public class PostHog private constructor(
             propSessionId?.takeIf { it.isNotBlank() }
                 ?: PostHogSessionManager.getActiveSessionId()?.toString()
 
+        val sessionProps = mutableMapOf<String, Any>()
         sessionIdString?.let { tempSessionId ->
-            props["\$session_id"] = tempSessionId
+            sessionProps["\$session_id"] = tempSessionId
             // only Session replay needs $window_id
             if (!appendSharedProps && isSessionReplayActive) {
                 // Session replay requires $window_id, so we set as the same as $session_id.
                 // the backend might fall back to $session_id if $window_id is not present next.
-                props["\$window_id"] = tempSessionId
+                sessionProps["\$window_id"] = tempSessionId
             }
         }
+        layers.add(sessionProps)
 
-        properties?.let {
-            props.putAll(it)
-        }
+        val mergedProps = PostHogLayeredProperties(layers, properties)
 
         // only Session replay needs distinct_id also in the props
         // remove after https://github.com/PostHog/posthog/pull/18954 gets merged
-        val propDistinctId = props["distinct_id"] as? String
+        val propDistinctId = mergedProps["distinct_id"] as? String
         if (!appendSharedProps && isSessionReplayActive && propDistinctId.isNullOrBlank()) {
             // distinctId is already validated hence not empty or blank
-            props["distinct_id"] = distinctId
+            mergedProps["distinct_id"] = distinctId
         }
 
-        return props
+        return mergedProps
     }
 
     /**
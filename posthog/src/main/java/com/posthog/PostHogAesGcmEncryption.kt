@@ -0,0 +1,290 @@
+package com.posthog
+
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.security.GeneralSecurityException
+import javax.crypto.Cipher
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Encrypts stored records with AES-GCM, which also detects records that were tampered with or
+ * damaged on disk.
+ *
+ * Streams are split into chunks of up to 16 KB, each encrypted with its own random nonce and
+ * framed by its length, and the chunk's position and whether it's the last one are authenticated
+ * so reordered or truncated streams fail to decrypt. Records are encrypted one by one the same
+ * way, authenticated with their index and the name of their file, see [PostHogRecordEncryption].
+ * A [Cipher] instance is kept per thread and only re-initialized for each chunk or record.
+ *
+ * The nonces are generated by the cipher and stored next to the ciphertext, so a key that doesn't
+ * accept caller-provided nonces works too, e.g. an AES/GCM/NoPadding key of the Android Keystore.
+ * Keep the key somewhere safe, records written with a lost key can't be read anymore.
+ *
+ * @property key the AES key, 128, 192 or 256 bits long
+ */
+public class PostHogAesGcmEncryption(
+    private val key: SecretKey,
+) : PostHogRecordEncryption {
+    /**
+     * @param key the raw AES key, 16, 24 or 32 bytes long
+     */
+    public constructor(key: ByteArray) : this(SecretKeySpec(key, "AES"))
+
+    init {
+        val length = key.encoded?.size
+        require(length == null || length == 16 || length == 24 || length == 32) {
+            "AES keys are 16, 24 or 32 bytes long, got $length."
+        }
+    }
+
+    // looking up a cipher is costly, it's reused and only initialized again
+    private val ciphers =
+        object : ThreadLocal<Cipher>() {
+            override fun initialValue(): Cipher = Cipher.getInstance(TRANSFORMATION)
+        }
+
+    override fun encrypt(outputStream: OutputStream): OutputStream = EncryptingOutputStream(outputStream)
+
+    override fun decrypt(inputStream: InputStream): InputStream = DecryptingInputStream(inputStream)
+
+    override fun encryptRecords(
+        records: List<ByteArray>,
+        segment: String,
+    ): List<ByteArray> {
+        val cipher = ciphers.get()
+        val segmentName = segment.toByteArray(Charsets.UTF_8)
+        return records.mapIndexed { index, record ->
+            val nonce = initEncrypt(cipher)
+            cipher.updateAAD(recordAssociatedData(segmentName, index))
+            val encrypted = ByteArray(NONCE_SIZE + cipher.getOutputSize(record.size))
+            System.arraycopy(nonce, 0, encrypted, 0, NONCE_SIZE)
+            cipher.doFinal(record, 0, record.size, encrypted, NONCE_SIZE)
+            encrypted
+        }
+    }
+
+    override fun decryptRecord(
+        record: ByteArray,
+        segment: String,
+        index: Int,
+    ): ByteArray {
+        if (record.size < NONCE_SIZE) {
+            throw GeneralSecurityException("Encrypted record is too short.")
+        }
+        val cipher = ciphers.get()
+        cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(TAG_BITS, record, 0, NONCE_SIZE))
+        cipher.updateAAD(recordAssociatedData(segment.toByteArray(Charsets.UTF_8), index))
+        return cipher.doFinal(record, NONCE_SIZE, record.size - NONCE_SIZE)
+    }
+
+    /**
+     * Initializes [cipher] to encrypt with a nonce of its own, e.g. keys of the Android Keystore
+     * reject one passed in
+     * @return the nonce
+     */
+    private fun initEncrypt(cipher: Cipher): ByteArray {
+        cipher.init(Cipher.ENCRYPT_MODE, key)
+        val nonce = cipher.iv
+        if (nonce == null || nonce.size != NONCE_SIZE) {
+            throw GeneralSecurityException("Expected a $NONCE_SIZE byte nonce, got ${nonce?.size}.")
+        }
+        return nonce
+    }
+
+    /**
+     * The record's index and the name of its file
+     */
+    private fun recordAssociatedData(
+        segment: ByteArray,
+        index: Int,
+    ): ByteArray =
+        ByteBuffer.allocate(4 + segment.size)
+            .putInt(index)
+            .put(segment)
+            .array()
+
+    /**
+     * The chunk's position and whether it's the last one
+     */
+    private fun associatedData(
+        index: Long,
+        last: Boolean,
+    ): ByteArray =
+        ByteBuffer.allocate(9)
+            .putLong(index)
+            .put(if (last) 1.toByte() else 0.toByte())
+            .array()
+
+    /**
+     * Writes `[last flag][length][nonce][ciphertext]` chunks, the last chunk on close
+     */
+    private inner class EncryptingOutputStream(private val output: OutputStream) : OutputStream() {
+        private val buffer = ByteArray(CHUNK_SIZE)
+        private var position = 0
+        private var index = 0L
+        private var closed = false
+
+        override fun write(b: Int) {
+            if (position == CHUNK_SIZE) {
+                writeChunk(last = false)
+            }
+            buffer[position++] = b.toByte()
+        }
+
+        override fun write(
+            b: ByteArray,
+            off: Int,
+            len: Int,
+        ) {
+            var offset = off
+            var remaining = len
+            while (remaining > 0) {
+                if (position == CHUNK_SIZE) {
+                    writeChunk(last = false)
+                }
+                val count = minOf(remaining, CHUNK_SIZE - position)
+                System.arraycopy(b, offset, buffer, position, count)
+                position += count
+                offset += count
+                remaining -= count
+            }
+        }
+
+        private fun writeChunk(last: Boolean) {
+            val frame: ByteArray
+            try {
+                val cipher = ciphers.get()
+                val nonce = initEncrypt(cipher)
+                cipher.updateAAD(associatedData(index, last))
+                val length = cipher.getOutputSize(position)
+                // a single write per chunk
+                frame =
+                    ByteBuffer.allocate(CHUNK_HEADER_SIZE + length)
+                        .put(if (last) 1.toByte() else 0.toByte())
+                        .putInt(length)
+                        .put(nonce)
+                        .array()
+                cipher.doFinal(buffer, 0, position, frame, CHUNK_HEADER_SIZE)
+            } catch (e: GeneralSecurityException) {
+                throw IOException("Failed to encrypt: $e.", e)
+            }
+            output.write(frame)
+            position = 0
+            index++
+        }
+
+        override fun flush() {
+            output.flush()
+        }
+
+        override fun close() {
+            if (closed) {
+                return
+            }
+            closed = true
+            output.use {
+                writeChunk(last = true)
+            }
+        }
+    }
+
+    /**
+     * Reads and authenticates the chunks of an [EncryptingOutputStream] one at a time
+     */
+    private inner class DecryptingInputStream(input: InputStream) : InputStream() {
+        private val input = DataInputStream(input.buffered())
+        private var chunk = ByteArray(0)
+        private var position = 0
+        private var index = 0L
+        private var lastRead = false
+
+        /**
+         * @return false at the end of the stream
+         */
+        private fun fill(): Boolean {
+            while (position == chunk.size) {
+                if (lastRead) {
+                    return false
+                }
+                readChunk()
+            }
+            return true
+        }
+
+        private fun readChunk() {
+            val flag = input.read()
+            if (flag < 0) {
+                throw EOFException("Encrypted stream is truncated.")
+            }
+            val length = input.readInt()
+            if (length < 0 || length > MAX_ENCRYPTED_CHUNK_SIZE) {
+                throw IOException("Invalid encrypted chunk length: $length.")
+            }
+            val nonce = ByteArray(NONCE_SIZE)
+            input.readFully(nonce)
+            val encrypted = ByteArray(length)
+            input.readFully(encrypted)
+
+            val last = flag == 1
+            chunk =
+                try {
+                    val cipher = ciphers.get()
+                    cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(TAG_BITS, nonce))
+                    cipher.updateAAD(associatedData(index, last))
+                    cipher.doFinal(encrypted)
+                } catch (e: GeneralSecurityException) {
+                    throw IOException("Failed to decrypt: $e.", e)
+                }
+            position = 0
+            index++
+            lastRead = last
+        }
+
+        override fun read(): Int {
+            if (!fill()) {
+                return -1
+            }
+            return chunk[position++].toInt() and 0xff
+        }
+
+        override fun read(
+            b: ByteArray,
+            off: Int,
+            len: Int,
+        ): Int {
+            if (len == 0) {
+                return 0
+            }
+            if (!fill()) {
+                return -1
+            }
+            val count = minOf(len, chunk.size - position)
+            System.arraycopy(chunk, position, b, off, count)
+            position += count
+            return count
+        }
+
+        override fun available(): Int = chunk.size - position
+
+        override fun close() {
+            input.close()
+        }
+    }
+
+    private companion object {
+        private const val TRANSFORMATION = "AES/GCM/NoPadding"
+        private const val NONCE_SIZE = 12
+        private const val TAG_BITS = 128
+        private const val CHUNK_SIZE = 16 * 1024
+        private const val MAX_ENCRYPTED_CHUNK_SIZE = CHUNK_SIZE + TAG_BITS / 8
+
+        // last flag, length and nonce
+        private const val CHUNK_HEADER_SIZE = 1 + 4 + NONCE_SIZE
+    }
+}
@@ -13,6 +13,7 @@ import com.posthog.internal.PostHogFeatureFlagsInterface
 import com.posthog.internal.PostHogLogger
 import com.posthog.internal.PostHogNetworkStatus
 import com.posthog.internal.PostHogNoOpLogger
+import com.posthog.internal.PostHogNoOpMetrics
 import com.posthog.internal.PostHogOnRemoteConfigLoaded
 import com.posthog.internal.PostHogPreferences
 import com.posthog.internal.PostHogQueue
@@ -144,7 +145,7 @@ public open class PostHogConfig(
     public var flushIntervalSeconds: Int = DEFAULT_FLUSH_INTERVAL_SECONDS,
     /**
      * Hook for encrypt and decrypt events
-     * Devices are sandbox so likely not needed
+     * Devices are sandbox so likely not needed, see [PostHogAesGcmEncryption] for a built-in one
      * Defaults to no encryption
      */
     public var encryption: PostHogEncryption? = null,
@@ -389,6 +390,18 @@ public open class PostHogConfig(
     @PostHogInternal
     public var httpClient: OkHttpClient? = null
 
+    /**
+     * Optional OkHttpClient the SDK derives its own client from with [OkHttpClient.newBuilder], so
+     * the connection pool and dispatcher are shared with it and with every other SDK instance
+     * derived from the same client. The SDK's interceptors and [proxy] are added on top.
+     *
+     * Ignored when [httpClient] is set.
+     *
+     * Default: `null` (SDK creates its own connection pool and dispatcher).
+     */
+    @PostHogInternal
+    public var baseHttpClient: OkHttpClient? = null
+
     /**
      * Custom headers to send with every request to the PostHog API.
      *
@@ -401,6 +414,19 @@ public open class PostHogConfig(
     @Volatile
     public var requestHeaders: Map<String, String> = emptyMap()
 
+    /**
+     * Number of independently locked shards the [featureFlagCalledCacheSize] cache is split into.
+     *
+     * Every flag read checks this cache, so on a server evaluating flags from many threads a single
+     * lock becomes a point of contention. More shards spread that out, at the cost of eviction order
+     * being least recently used per shard rather than across the whole cache.
+     *
+     * Read once when the SDK is set up; changes after setup are ignored.
+     *
+     * Default: `1`.
+     */
+    public var featureFlagCalledCacheShards: Int = 1
+
     /**
      * The PostHog project API key, trimmed of leading and trailing whitespace.
      */
@@ -416,6 +442,56 @@ public open class PostHogConfig(
     @PostHogInternal
     public var logger: PostHogLogger = PostHogNoOpLogger()
 
+    /**
+     * Receives the SDK's own metrics, e.g. queue throughput, request timings and retries,
+     * see [PostHogMetrics]
+     * Defaults to a no-op
+     */
+    public var metrics: PostHogMetrics = PostHogNoOpMetrics
+
+    /**
+     * Maximum size in bytes of the records in a batch call for events and replay snapshots,
+     * measured on the records' JSON as sent, estimated for [queueBinaryStorage]. Batches hold up to
+     * [maxBatchSize] records within this budget, a single record larger than the budget is sent on
+     * its own.
+     * Set to 0 to only limit batches by [maxBatchSize]
+     * Defaults to 5 MB
+     */
+    public var maxBatchBytes: Long = DEFAULT_MAX_BATCH_BYTES
+
+    /**
+     * Window in milliseconds to group records before writing them to disk. Records added within
+     * the window are written to one file with a single write instead of a file each, which saves
+     * file system calls during bursts of events. Records still waiting for the window are lost
+     * if the process dies, [PostHog.flush] and closing the SDK write them right away.
+     * Set to 0 to write every record as soon as it's added
+     * Defaults to 0
+     */
+    public var queueGroupCommitWindowMs: Int = 0
+
+    /**
+     * Sends identify, alias and group identify events before the other queued events, and
+     * `$snapshot` events after them, so they aren't stuck behind a large offline backlog.
+     * Fatal exceptions are always sent first
+     * Defaults to false
+     */
+    public var queuePriorityLanes: Boolean = false
+
+    /**
+     * Stores queued events and replay snapshots in a compact binary format instead of JSON, which
+     * takes less disk space and is faster to read back for large offline backlogs. They are only
+     * converted to JSON when sent, [maxBatchBytes] is measured on their estimated JSON size.
+     * Records stay readable when this is toggled
+     * Defaults to false
+     */
+    public var queueBinaryStorage: Boolean = false
+
+    /**
+     * Encodes and decodes the JSON of queued events, requests, responses and cached values
+     * Defaults to null, which uses Gson
+     */
+    public var jsonSerializer: PostHogJsonSerializer? = null
+
     @PostHogInternal
     public val serializer: PostHogSerializer by lazy {
         PostHogSerializer(this)
@@ -569,6 +645,9 @@ public open class PostHogConfig(
         /** Shared default for [maxBatchSize] and [PostHogLogsConfig.maxBatchSize]. */
         public const val DEFAULT_MAX_BATCH_SIZE: Int = 50
 
+        /** Default for [maxBatchBytes], 5 MB. */
+        public const val DEFAULT_MAX_BATCH_BYTES: Long = 5L * 1024 * 1024
+
         /** Shared default for [maxQueueSize] and [PostHogLogsConfig.maxBufferSize]. */
         public const val DEFAULT_MAX_QUEUE_SIZE: Int = 1000
 
@@ -3,7 +3,7 @@ package com.posthog
 import com.google.gson.annotations.SerializedName
 import com.posthog.internal.errortracking.ThrowableCoercer.Companion.EXCEPTION_LEVEL_ATTRIBUTE
 import com.posthog.internal.errortracking.ThrowableCoercer.Companion.EXCEPTION_LEVEL_FATAL
-import com.posthog.vendor.uuid.TimeBasedEpochGenerator
+import com.posthog.vendor.uuid.ThreadLocalEpochGenerator
 import java.util.Date
 import java.util.UUID
 
@@ -25,7 +25,7 @@ public data class PostHogEvent(
     val properties: MutableMap<String, Any>? = null,
     // refactor to use PostHogDateProvider
     val timestamp: Date = Date(),
-    val uuid: UUID? = TimeBasedEpochGenerator.generate(),
+    val uuid: UUID? = ThreadLocalEpochGenerator.generate(),
     @Deprecated("Do not use")
     val type: String? = null,
     @Deprecated("Do not use it, prefer [uuid]")
@@ -0,0 +1,35 @@
+package com.posthog
+
+import java.io.Reader
+import java.io.Writer
+import java.lang.reflect.Type
+
+/**
+ * Interface for encoding and decoding the JSON the SDK stores and sends: queued events, request
+ * bodies, responses and cached values. By default Gson does it, set
+ * [PostHogConfig.jsonSerializer] to use another JSON library.
+ */
+public interface PostHogJsonSerializer {
+    /**
+     * Writes [value] as JSON to [writer], without flushing or closing it.
+     * @param value the value
+     * @param type the declared type of the value, including its type arguments
+     * @param writer the Writer
+     */
+    public fun serialize(
+        value: Any?,
+        type: Type,
+        writer: Writer,
+    )
+
+    /**
+     * Reads a value of [type] from the JSON in [reader].
+     * @param reader the Reader
+     * @param type the type to read, including its type arguments
+     * @return the value, null if the JSON is empty or null
+     */
+    public fun <T> deserialize(
+        reader: Reader,
+        type: Type,
+    ): T
+}
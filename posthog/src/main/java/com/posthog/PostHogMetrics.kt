@@ -0,0 +1,103 @@
+package com.posthog
+
+/**
+ * Receives the SDK's own telemetry: records enqueued, dropped and sent per endpoint, batch sizes,
+ * request timings, retries and feature flag cache and evaluation counts.
+ *
+ * Metric names are the constants of this interface, their dimensions are passed as tags (see
+ * the `TAG_*` constants). Durations are in milliseconds. Methods are called on the SDK's worker
+ * and request threads, so they must be thread-safe and must not block.
+ */
+public interface PostHogMetrics {
+    /**
+     * Adds [amount] to the counter [name]
+     * @param name the metric name
+     * @param amount the amount to add
+     * @param tags the metric dimensions
+     */
+    public fun count(
+        name: String,
+        amount: Long,
+        tags: Map<String, String>,
+    )
+
+    /**
+     * Records a single [value] into the distribution [name]
+     * @param name the metric name
+     * @param value the observed value
+     * @param tags the metric dimensions
+     */
+    public fun record(
+        name: String,
+        value: Double,
+        tags: Map<String, String>,
+    )
+
+    public companion object {
+        /** Records accepted by a queue, tagged with [TAG_ENDPOINT]. */
+        public const val RECORDS_ENQUEUED: String = "posthog.records.enqueued"
+
+        /** Records discarded without being sent, tagged with [TAG_ENDPOINT] and [TAG_REASON]. */
+        public const val RECORDS_DROPPED: String = "posthog.records.dropped"
+
+        /** Records delivered, tagged with [TAG_ENDPOINT]. */
+        public const val RECORDS_SENT: String = "posthog.records.sent"
+
+        /** Records per batch request, tagged with [TAG_ENDPOINT]. */
+        public const val BATCH_SIZE: String = "posthog.batch.size"
+
+        /** Failed batch or flags requests that will be retried, tagged with [TAG_ENDPOINT]. */
+        public const val RETRIES: String = "posthog.retries"
+
+        /**
+         * Records held by a queue, waiting or being sent, tagged with [TAG_ENDPOINT]. Recorded each
+         * time records are added, sent or dropped, the latest value is the current depth.
+         */
+        public const val QUEUE_DEPTH: String = "posthog.queue.depth"
+
+        /** Times the batch size was halved after the server rejected a batch as too large. */
+        public const val BATCH_LIMIT_HALVINGS: String = "posthog.batch.limit.halvings"
+
+        /** Time to serialize a request body, tagged with [TAG_PATH]. */
+        public const val SERIALIZE_DURATION: String = "posthog.request.serialize.duration"
+
+        /**
+         * Time to gzip a request body, tagged with [TAG_PATH]. The body is serialized straight into
+         * the compressor, so this includes [SERIALIZE_DURATION].
+         */
+        public const val COMPRESS_DURATION: String = "posthog.request.compress.duration"
+
+        /** Time from sending a request until its response, tagged with [TAG_PATH]. */
+        public const val HTTP_DURATION: String = "posthog.request.http.duration"
+
+        /** Feature flag lookups served from a cache, tagged with [TAG_CACHE]. */
+        public const val FEATURE_FLAG_CACHE_HITS: String = "posthog.feature_flags.cache.hits"
+
+        /** Feature flag lookups not found in a cache, tagged with [TAG_CACHE]. */
+        public const val FEATURE_FLAG_CACHE_MISSES: String = "posthog.feature_flags.cache.misses"
+
+        /**
+         * Feature flag evaluations, tagged with [TAG_SOURCE]: flags evaluated locally by the SDK, or
+         * requests to the `/flags` API.
+         */
+        public const val FEATURE_FLAG_EVALUATIONS: String = "posthog.feature_flags.evaluations"
+
+        /** Time from a remote flag request being made until it completes, including any wait for a free slot. */
+        public const val FEATURE_FLAG_REMOTE_LATENCY: String = "posthog.feature_flags.remote.latency"
+
+        /** The records' endpoint, e.g. `events`, `snapshots`, `logs` or `flags`. */
+        public const val TAG_ENDPOINT: String = "endpoint"
+
+        /** Why records were dropped, `queue_full`, `rejected`, `max_retries` or `invalid`. */
+        public const val TAG_REASON: String = "reason"
+
+        /** The request path, e.g. `/batch`. */
+        public const val TAG_PATH: String = "path"
+
+        /** The feature flag cache, `flags` or `flag_called`. */
+        public const val TAG_CACHE: String = "cache"
+
+        /** Where a feature flag was evaluated, `local` or `remote`. */
+        public const val TAG_SOURCE: String = "source"
+    }
+}
@@ -0,0 +1,34 @@
+package com.posthog
+
+/**
+ * A [PostHogEncryption] that also encrypts records one by one. Files holding several records (see
+ * [PostHogConfig.queueGroupCommitWindowMs]) are then stored as a sequence of records encrypted on
+ * their own instead of one encrypted stream, so a record is read without decrypting the ones
+ * before it and a damaged record doesn't take the rest of the file with it.
+ */
+public interface PostHogRecordEncryption : PostHogEncryption {
+    /**
+     * Encrypts [records], each on its own. Each record is authenticated together with [segment]
+     * and its index, so a record moved to another file or position fails to decrypt.
+     * @param records the encoded records
+     * @param segment the name of the file the records are stored in
+     * @return the encrypted records, in the same order
+     */
+    public fun encryptRecords(
+        records: List<ByteArray>,
+        segment: String,
+    ): List<ByteArray>
+
+    /**
+     * Decrypts a single record encrypted by [encryptRecords]
+     * @param record the encrypted record
+     * @param segment the name of the file the record is stored in
+     * @param index the record's index in the file
+     * @return the encoded record
+     */
+    public fun decryptRecord(
+        record: ByteArray,
+        segment: String,
+        index: Int,
+    ): ByteArray
+}
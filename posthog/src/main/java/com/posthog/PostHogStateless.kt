@@ -4,6 +4,7 @@ import com.posthog.internal.PostHogApi
 import com.posthog.internal.PostHogApiEndpoint
 import com.posthog.internal.PostHogFeatureFlagCalledCache
 import com.posthog.internal.PostHogFeatureFlagsInterface
+import com.posthog.internal.PostHogLayeredProperties
 import com.posthog.internal.PostHogMemoryPreferences
 import com.posthog.internal.PostHogNoOpLogger
 import com.posthog.internal.PostHogPreferences
@@ -35,6 +36,7 @@ public open class PostHogStateless protected constructor(
     protected val setupLock: Any = Any()
     protected val optOutLock: Any = Any()
     private var featureFlagsCalled: PostHogFeatureFlagCalledCache? = null
+    private var api: PostHogApi? = null
 
     @JvmField
     protected var config: PostHogConfig? = null
@@ -65,6 +67,7 @@ public open class PostHogStateless protected constructor(
 
                 config.cachePreferences = memoryPreferences
                 val api = PostHogApi(config)
+                this.api = api
                 val queue =
                     config.queueProvider(
                         config,
@@ -89,7 +92,10 @@ public open class PostHogStateless protected constructor(
                 this.queue = queue
                 this.featureFlags = remoteConfig
                 this.featureFlagsCalled =
-                    PostHogFeatureFlagCalledCache(config.featureFlagCalledCacheSize)
+                    PostHogFeatureFlagCalledCache(
+                        config.featureFlagCalledCacheSize,
+                        config.featureFlagCalledCacheShards,
+                    )
 
                 enabled = true
 
@@ -131,6 +137,7 @@ public open class PostHogStateless protected constructor(
 
                 queue?.stop()
                 featureFlags?.shutDown()
+                api?.close()
                 featureFlagsCalled?.clear()
             } catch (e: Throwable) {
                 config?.logger?.log("Close failed: $e.")
@@ -138,72 +145,57 @@ public open class PostHogStateless protected constructor(
         }
     }
 
+    /**
+     * Assemble event properties as [PostHogLayeredProperties], so the registered properties,
+     * context and SDK info are referenced rather than copied per event. Later layers win, and
+     * [properties] win over all of them.
+     */
     private fun buildProperties(
         properties: Map<String, Any>?,
         userProperties: Map<String, Any>?,
         userPropertiesSetOnce: Map<String, Any>?,
         groups: Map<String, String>?,
         appendGroups: Boolean = true,
-    ): Map<String, Any> {
-        val props = mutableMapOf<String, Any>()
-
-        val registeredPrefs = getPreferences().getAll()
-        if (registeredPrefs.isNotEmpty()) {
-            props.putAll(registeredPrefs)
-        }
+    ): MutableMap<String, Any> {
+        val layers = mutableListOf<Map<String, Any>>()
 
-        config?.context?.getStaticContext()?.let {
-            props.putAll(it)
-        }
+        layers.add(getPreferences().getAll())
 
-        config?.context?.getDynamicContext()?.let {
-            props.putAll(it)
+        config?.context?.let {
+            layers.add(it.getStaticContext())
+            layers.add(it.getDynamicContext())
         }
 
         if (config?.sendFeatureFlagEvent == true) {
-            featureFlags?.getFeatureFlags()?.let {
-                if (it.isNotEmpty()) {
-                    val keys = mutableListOf<String>()
-                    for (entry in it.entries) {
-                        props["\$feature/${entry.key}"] = entry.value
-
-                        // only add active feature flags
-                        val active = entry.value as? Boolean ?: true
-
-                        if (active) {
-                            keys.add(entry.key)
-                        }
-                    }
-                    props["\$active_feature_flags"] = keys
-                }
+            featureFlags?.getFeatureFlagEventProperties()?.let {
+                layers.add(it)
             }
         }
 
+        val eventProps = mutableMapOf<String, Any>()
+
         userProperties?.let {
-            props["\$set"] = it
+            eventProps["\$set"] = it
         }
 
         userPropertiesSetOnce?.let {
-            props["\$set_once"] = it
+            eventProps["\$set_once"] = it
         }
 
         if (appendGroups) {
             // merge groups
             mergeGroups(groups)?.let {
-                props["\$groups"] = it
+                eventProps["\$groups"] = it
             }
         }
+        layers.add(eventProps)
 
         // Session replay should have the SDK info as well
         config?.context?.getSdkInfo()?.let {
-            props.putAll(it)
-        }
-
-        properties?.let {
-            props.putAll(it)
+            layers.add(it)
         }
 
-        return props
+        return PostHogLayeredProperties(layers, properties)
     }
 
     protected fun mergeGroups(givenGroups: Map<String, String>?): Map<String, String>? {
@@ -268,7 +260,7 @@ public open class PostHogStateless protected constructor(
                 buildEvent(
                     event,
                     distinctId,
-                    eventProperties.toMutableMap(),
+                    eventProperties,
                     timestamp,
                 )
             if (postHogEvent == null) {
@@ -297,7 +289,11 @@ public open class PostHogStateless protected constructor(
         timestamp: Date? = null,
     ): PostHogEvent? {
         // sanitize the properties or fallback to the original properties
-        val sanitizedProperties = config?.propertiesSanitizer?.sanitize(properties)?.toMutableMap() ?: properties
+        val sanitizedProperties =
+            config?.propertiesSanitizer?.sanitize(properties)?.let { sanitized ->
+                // a sanitizer that edits in place hands back the same map, which needs no copy
+                if (sanitized === properties) properties else sanitized.toMutableMap()
+            } ?: properties
         val postHogEvent =
             PostHogEvent(
                 event,
@@ -446,7 +442,13 @@ public open class PostHogStateless protected constructor(
         return false
     }
 
-    private fun sendFeatureFlagCalled(
+    /**
+     * Build the `$feature_flag_called` properties for [key] from what [featureFlags] cached when
+     * resolving it, and capture the event unless disabled. Exposed so SDKs that resolve flags
+     * asynchronously can report them the same way the blocking accessors do.
+     */
+    @PostHogInternal
+    protected fun sendFeatureFlagCalled(
         distinctId: String,
         key: String,
         value: Any?,
@@ -494,7 +496,13 @@ public open class PostHogStateless protected constructor(
         properties: Map<String, Any>,
         groups: Map<String, String>? = null,
     ) {
-        val isNewlySeen = featureFlagsCalled?.add(distinctId, key, value, groups) ?: false
+        val cache = featureFlagsCalled ?: return
+        val isNewlySeen = cache.add(distinctId, key, value, groups)
+        config?.metrics?.count(
+            if (isNewlySeen) PostHogMetrics.FEATURE_FLAG_CACHE_MISSES else PostHogMetrics.FEATURE_FLAG_CACHE_HITS,
+            1,
+            FLAG_CALLED_CACHE_METRIC_TAGS,
+        )
         if (!isNewlySeen) return
 
         val props = mutableMapOf<String, Any>()
@@ -512,7 +520,7 @@ public open class PostHogStateless protected constructor(
      * unknown) keeps the full legacy shape, and experiment-linked flags always send the full
      * envelope because experiment exposure analysis reads it.
      */
-    private fun minimizeFeatureFlagCalledProperties(properties: Map<String, Any>): Map<String, Any> {
+    private fun minimizeFeatureFlagCalledProperties(properties: MutableMap<String, Any>): MutableMap<String, Any> {
         if (!isMinimalFlagCalledEventsEnabled()) {
             return properties
         }
@@ -520,7 +528,7 @@ public open class PostHogStateless protected constructor(
             return properties
         }
 
-        return properties.filterKeys { it in MINIMAL_FEATURE_FLAG_CALLED_PROPERTIES }
+        return properties.filterTo(mutableMapOf()) { it.key in MINIMAL_FEATURE_FLAG_CALLED_PROPERTIES }
     }
 
     /**
@@ -743,6 +751,8 @@ public open class PostHogStateless protected constructor(
 
         private const val GROUP_IDENTIFY = "\$groupidentify"
 
+        private val FLAG_CALLED_CACHE_METRIC_TAGS = mapOf(PostHogMetrics.TAG_CACHE to "flag_called")
+
         // Strict allowlist for minimal $feature_flag_called events, defined by the cross-SDK
         // contract: everything not listed is stripped, including registered super properties, the
         // static and dynamic context envelope, and the $feature_flag_bootstrapped_* /
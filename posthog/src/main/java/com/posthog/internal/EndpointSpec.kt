@@ -25,13 +25,18 @@ public class EndpointSpec<Record> internal constructor(
     internal val initialFlushAt: (PostHogConfig) -> Int,
     internal val maxQueueSize: (PostHogConfig) -> Int,
     internal val flushIntervalSeconds: (PostHogConfig) -> Int,
-    internal val encode: (Record, OutputStream) -> Unit,
+    // returns the record's size in a request body if it isn't its encoded size, null otherwise
+    internal val encode: (Record, OutputStream) -> Long?,
     internal val decode: (InputStream) -> Record?,
     internal val describe: (Record) -> String,
     internal val send: (List<Record>) -> Unit,
     internal val isRetriableStatusCode: (Int) -> Boolean,
     internal val isFatalRecord: (Record) -> Boolean = { false },
     internal val recordUuid: (Record) -> UUID? = { null },
+    // byte budget of a batch, measured on the records' sizes in a request body, see [encode], 0 to
+    // only cap batches by record count
+    internal val maxBatchBytes: (PostHogConfig) -> Long = { 0L },
+    internal val lane: (Record) -> PostHogQueueLane = { PostHogQueueLane.NORMAL },
 ) {
     public companion object {
         @JvmStatic
@@ -39,52 +44,51 @@ public class EndpointSpec<Record> internal constructor(
             config: PostHogConfig,
             api: PostHogApi,
             storagePrefix: String?,
-        ): EndpointSpec<PostHogEvent> =
-            EndpointSpec(
+        ): EndpointSpec<PostHogEvent> {
+            val codec = PostHogEventBinaryCodec(config)
+            return EndpointSpec(
                 recordsLabel = "events",
                 storagePrefix = storagePrefix,
                 initialCap = { it.maxBatchSize },
                 initialFlushAt = { it.flushAt },
                 maxQueueSize = { it.maxQueueSize },
                 flushIntervalSeconds = { it.flushIntervalSeconds },
-                encode = { event, stream ->
-                    config.serializer.serialize(event, stream.writer().buffered())
-                },
-                decode = { stream ->
-                    config.serializer.deserialize<PostHogEvent?>(stream.reader().buffered())
-                },
+                encode = { event, stream -> encodeQueuedEvent(config, codec, event, stream) },
+                decode = { stream -> decodeQueuedEvent(config, codec, stream) },
                 describe = { event -> "Event ${event.event}" },
                 send = { events -> api.batch(events) },
                 isRetriableStatusCode = ::isEventsRetriableStatusCode,
                 isFatalRecord = { it.isFatalExceptionEvent() },
                 recordUuid = { it.uuid },
+                maxBatchBytes = { it.maxBatchBytes },
+                lane = { it.queueLane(config.queuePriorityLanes) },
             )
+        }
 
         @JvmStatic
         public fun snapshot(
             config: PostHogConfig,
             api: PostHogApi,
             storagePrefix: String?,
-        ): EndpointSpec<PostHogEvent> =
-            EndpointSpec(
+        ): EndpointSpec<PostHogEvent> {
+            val codec = PostHogEventBinaryCodec(config)
+            return EndpointSpec(
                 recordsLabel = "snapshots",
                 storagePrefix = storagePrefix,
                 initialCap = { it.maxBatchSize },
                 initialFlushAt = { it.flushAt },
                 maxQueueSize = { it.maxQueueSize },
                 flushIntervalSeconds = { it.flushIntervalSeconds },
-                encode = { event, stream ->
-                    config.serializer.serialize(event, stream.writer().buffered())
-                },
-                decode = { stream ->
-                    config.serializer.deserialize<PostHogEvent?>(stream.reader().buffered())
-                },
+                encode = { event, stream -> encodeQueuedEvent(config, codec, event, stream) },
+                decode = { stream -> decodeQueuedEvent(config, codec, stream) },
                 describe = { _ -> "snapshot" },
                 send = { events -> api.snapshot(events) },
                 isRetriableStatusCode = ::isEventsRetriableStatusCode,
                 isFatalRecord = { it.isFatalExceptionEvent() },
                 recordUuid = { it.uuid },
+                maxBatchBytes = { it.maxBatchBytes },
             )
+        }
 
         /**
          * Returns the [EndpointSpec] for PostHog's logs ingestion endpoint
@@ -111,6 +115,7 @@ public class EndpointSpec<Record> internal constructor(
                 flushIntervalSeconds = { it.logs.flushIntervalSeconds },
                 encode = { record, stream ->
                     config.serializer.serialize(record.toStorageMap(), stream.writer().buffered())
+                    null
                 },
                 decode = { stream ->
                     val map: Map<String, Any>? = config.serializer.deserialize(stream.reader().buffered())
@@ -124,6 +129,40 @@ public class EndpointSpec<Record> internal constructor(
     }
 }
 
+/**
+ * Writes a queued event as JSON, or with [codec] if [PostHogConfig.queueBinaryStorage] is enabled
+ * @return the estimated size of the event's JSON for a binary record, null for a JSON one
+ */
+internal fun encodeQueuedEvent(
+    config: PostHogConfig,
+    codec: PostHogEventBinaryCodec,
+    event: PostHogEvent,
+    stream: OutputStream,
+): Long? {
+    if (config.queueBinaryStorage) {
+        return codec.encode(event, stream)
+    }
+    config.serializer.serialize(event, stream.writer().buffered())
+    return null
+}
+
+/**
+ * Reads a queued event in either encoding, so records stay readable when
+ * [PostHogConfig.queueBinaryStorage] is toggled
+ */
+internal fun decodeQueuedEvent(
+    config: PostHogConfig,
+    codec: PostHogEventBinaryCodec,
+    stream: InputStream,
+): PostHogEvent? {
+    val input = stream.buffered()
+    return if (PostHogEventBinaryCodec.isBinaryRecord(input)) {
+        codec.decode(input)
+    } else {
+        config.serializer.deserialize<PostHogEvent?>(input.reader().buffered())
+    }
+}
+
 internal val DEFAULT_EVENTS_RETRYABLE_STATUS_CODES: Set<Int> = setOf(408, 429, 500, 502, 503, 504)
 
 internal fun isEventsRetriableStatusCode(code: Int): Boolean = code in DEFAULT_EVENTS_RETRYABLE_STATUS_CODES
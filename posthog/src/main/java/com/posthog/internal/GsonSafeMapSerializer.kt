@@ -1,13 +1,14 @@
 package com.posthog.internal
 
-import com.google.gson.JsonArray
+import com.google.gson.Gson
 import com.google.gson.JsonElement
-import com.google.gson.JsonObject
-import com.google.gson.JsonSerializationContext
-import com.google.gson.JsonSerializer
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
 import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
 import com.posthog.PostHogConfig
-import java.lang.reflect.Type
+import java.util.Date
 
 /**
  * A Gson serializer that safely handles Map<String, Any> by filtering out
@@ -16,77 +17,128 @@ import java.lang.reflect.Type
  * Performs depth-first serialization to ensure only unserializable leaf values
  * are dropped, not entire branches containing them.
  *
+ * Maps and lists are streamed to the writer as they are walked, and so are leaves of the JSON
+ * types, which are checked up front. Only other leaves, e.g. objects, are serialized to a tree on
+ * their own first, see [PropertyValueType].
+ *
+ * Maps are read as Gson does by default.
+ *
  * @property config the Config
  */
-internal class GsonSafeMapSerializer(private val config: PostHogConfig) : JsonSerializer<Map<String, Any?>> {
-    private val mapType: Type = object : TypeToken<Map<String, Any?>>() {}.type
+internal class GsonSafeMapSerializer(private val config: PostHogConfig) : TypeAdapterFactory {
+    private val mapTypes =
+        listOf(
+            object : TypeToken<Map<String, Any?>>() {},
+            object : TypeToken<MutableMap<String, Any?>>() {},
+        )
+
+    override fun <T> create(
+        gson: Gson,
+        type: TypeToken<T>,
+    ): TypeAdapter<T>? {
+        if (mapTypes.none { it == type }) {
+            return null
+        }
+        @Suppress("UNCHECKED_CAST")
+        return SafeMapAdapter(gson, gson.getDelegateAdapter(this, type)) as TypeAdapter<T>
+    }
 
-    override fun serialize(
-        src: Map<String, Any?>?,
-        typeOfSrc: Type,
-        context: JsonSerializationContext,
-    ): JsonElement {
-        val jsonObject = JsonObject()
+    private inner class SafeMapAdapter(
+        private val gson: Gson,
+        private val delegate: TypeAdapter<*>,
+    ) : TypeAdapter<Map<String, Any?>>() {
+        private val treeAdapter = gson.getAdapter(JsonElement::class.java)
 
-        src?.forEach { (key, srcValue) ->
-            val serialized = safeSerializeValue(srcValue, key, context)
-            if (serialized != null) {
-                jsonObject.add(key, serialized)
+        override fun write(
+            out: JsonWriter,
+            value: Map<String, Any?>?,
+        ) {
+            if (value == null) {
+                out.nullValue()
+                return
             }
+            writeMap(out, value)
         }
 
-        return jsonObject
-    }
+        @Suppress("UNCHECKED_CAST")
+        override fun read(reader: JsonReader): Map<String, Any?>? = delegate.read(reader) as Map<String, Any?>?
 
-    /**
-     * Recursively serializes a value, handling nested maps and lists to ensure
-     * only unserializable leaf values are dropped.
-     */
-    private fun safeSerializeValue(
-        targetValue: Any?,
-        key: String,
-        context: JsonSerializationContext,
-    ): JsonElement? {
-        return when (targetValue) {
-            null -> null
-            is List<*> -> safeSerializeList(targetValue, context)
-            is Array<*> -> safeSerializeList(targetValue.toList(), context)
-            is Map<*, *> -> {
-                @Suppress("UNCHECKED_CAST")
-                serialize(targetValue as Map<String, Any?>, mapType, context)
+        private fun writeMap(
+            out: JsonWriter,
+            map: Map<*, *>,
+        ) {
+            out.beginObject()
+            map.forEach { (key, value) ->
+                if (value != null) {
+                    val name = key.toString()
+                    writeValue(out, name, name, value)
+                }
             }
-            else -> {
-                try {
-                    config.serializer.gson.toJsonTree(targetValue)
-                } catch (e: Throwable) {
-                    config.logger.log(
-                        "Property '$key' with value '$targetValue' cannot be serialized to JSON: $e. " +
-                            "This property will be ignored.",
-                    )
-                    null
+            out.endObject()
+        }
+
+        /**
+         * Safely serializes a list, filtering out unserializable elements.
+         */
+        private fun writeList(
+            out: JsonWriter,
+            list: List<*>,
+        ) {
+            out.beginArray()
+            list.forEach { element ->
+                if (element != null) {
+                    writeValue(out, null, "list-element", element)
                 }
             }
+            out.endArray()
         }
-    }
 
-    /**
-     * Safely serializes a list, filtering out unserializable elements.
-     */
-    private fun safeSerializeList(
-        list: List<*>,
-        context: JsonSerializationContext,
-    ): JsonElement {
-        val jsonArray = JsonArray()
+        /**
+         * Recursively serializes a value, handling nested maps and lists to ensure
+         * only unserializable leaf values are dropped.
+         *
+         * @param name the value's name in its object, null for list elements
+         * @param key the name used when logging an unserializable value
+         */
+        private fun writeValue(
+            out: JsonWriter,
+            name: String?,
+            key: String,
+            value: Any,
+        ) {
+            when (propertyValueType(config, key, value)) {
+                PropertyValueType.MAP -> writeMap(out.nameIfAny(name), value as Map<*, *>)
+                PropertyValueType.LIST -> writeList(out.nameIfAny(name), propertyValueAsList(value))
+                PropertyValueType.STRING -> out.nameIfAny(name).value(value as String)
+                PropertyValueType.BOOLEAN -> out.nameIfAny(name).value(value as Boolean)
+                PropertyValueType.NUMBER -> out.nameIfAny(name).value(value as Number)
+                PropertyValueType.DATE -> out.nameIfAny(name).value(formatISO8601Date(value as Date))
+                PropertyValueType.OTHER -> writeObject(out, name, key, value)
+                // a number JSON can't represent, already logged
+                null -> Unit
+            }
+        }
 
-        list.forEach { element ->
-            if (element != null) {
-                val serialized = safeSerializeValue(element, "list-element", context)
-                if (serialized != null) {
-                    jsonArray.add(serialized)
+        /**
+         * Serializes any other value to a tree on its own before writing it, dropping it if that
+         * fails. A tree can be written to any writer, including the tree writer of toJsonTree.
+         */
+        private fun writeObject(
+            out: JsonWriter,
+            name: String?,
+            key: String,
+            value: Any,
+        ) {
+            val tree: JsonElement =
+                try {
+                    gson.toJsonTree(value)
+                } catch (e: Throwable) {
+                    logUnserializableProperty(config, key, value, e)
+                    return
                 }
-            }
+            treeAdapter.write(out.nameIfAny(name), tree)
         }
 
-        return jsonArray
+        private fun JsonWriter.nameIfAny(name: String?): JsonWriter = if (name != null) name(name) else this
     }
 }
@@ -0,0 +1,339 @@
+package com.posthog.internal
+
+import com.google.gson.Gson
+import com.google.gson.JsonSyntaxException
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.internal.replay.RREvent
+import com.posthog.internal.replay.RREventType
+import com.posthog.internal.replay.RRStyle
+import com.posthog.internal.replay.RRWireframe
+import java.lang.reflect.Modifier
+import java.util.Date
+import java.util.UUID
+
+/**
+ * Writes the models every captured event goes through, [PostHogEvent], [PostHogBatchEvent],
+ * [RREvent] and [RRWireframe], field by field straight to the [JsonWriter] instead of through
+ * Gson's reflection. The output is the same as the reflective one: same keys, same order and null
+ * fields left out.
+ *
+ * Events and batches are also read field by field, replay models are only read in tests and are
+ * read by reflection.
+ *
+ * @property config the Config
+ */
+internal class GsonStreamingAdapterFactory(private val config: PostHogConfig) : TypeAdapterFactory {
+    override fun <T> create(
+        gson: Gson,
+        type: TypeToken<T>,
+    ): TypeAdapter<T>? {
+        val rawType = type.rawType
+        val adapter: TypeAdapter<*> =
+            when {
+                rawType == PostHogEvent::class.java -> EventAdapter(gson)
+                rawType == PostHogBatchEvent::class.java -> BatchEventAdapter(gson)
+                rawType == RRWireframe::class.java -> WireframeAdapter(gson, gson.getDelegateAdapter(this, type))
+                RREvent::class.java.isAssignableFrom(rawType) && !declaresFields(rawType) ->
+                    ReplayEventAdapter(gson, gson.getDelegateAdapter(this, type))
+                else -> return null
+            }
+        @Suppress("UNCHECKED_CAST")
+        return adapter as TypeAdapter<T>
+    }
+
+    /**
+     * Whether a subclass of [RREvent] adds fields of its own, those are left to reflection
+     */
+    private fun declaresFields(rawType: Class<*>): Boolean =
+        generateSequence<Class<*>>(rawType) { it.superclass }
+            .takeWhile { it != RREvent::class.java }
+            .any { cls -> cls.declaredFields.any { !Modifier.isStatic(it.modifiers) && !it.isSynthetic } }
+
+    private fun JsonWriter.date(
+        name: String,
+        date: Date?,
+    ) {
+        date ?: return
+        val formatted =
+            try {
+                formatISO8601Date(date)
+            } catch (e: Throwable) {
+                config.logger.log("$date isn't a serializable ISO8601 Date: $e.")
+                return
+            }
+        name(name).value(formatted)
+    }
+
+    private fun JsonReader.date(): Date? {
+        val value = nextString()
+        return try {
+            parseISO8601Date(value)
+        } catch (e: Throwable) {
+            config.logger.log("$value isn't a deserializable ISO8601 Date: $e.")
+            null
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    private inner class EventAdapter(gson: Gson) : TypeAdapter<PostHogEvent>() {
+        // the type the properties are registered with, so unserializable values are still dropped
+        private val mapAdapter = gson.getAdapter(object : TypeToken<MutableMap<String, Any>>() {})
+
+        override fun write(
+            out: JsonWriter,
+            value: PostHogEvent?,
+        ) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("event").value(value.event)
+            out.name("distinct_id").value(value.distinctId)
+            value.properties?.let {
+                out.name("properties")
+                mapAdapter.write(out, it)
+            }
+            out.date("timestamp", value.timestamp)
+            value.uuid?.let { out.name("uuid").value(it.toString()) }
+            value.type?.let { out.name("type").value(it) }
+            value.messageId?.let { out.name("message_id").value(it.toString()) }
+            value.set?.let {
+                out.name("\$set")
+                mapAdapter.write(out, it as MutableMap<String, Any>)
+            }
+            value.apiKey?.let { out.name("api_key").value(it) }
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): PostHogEvent? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var event: String? = null
+            var distinctId: String? = null
+            var properties: MutableMap<String, Any>? = null
+            var timestamp: Date? = null
+            var uuid: UUID? = null
+            var type: String? = null
+            var messageId: UUID? = null
+            var set: Map<String, Any>? = null
+            var apiKey: String? = null
+
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull()
+                    continue
+                }
+                when (name) {
+                    "event" -> event = reader.nextString()
+                    "distinct_id" -> distinctId = reader.nextString()
+                    "properties" -> properties = mapAdapter.read(reader)
+                    "timestamp" -> timestamp = reader.date()
+                    "uuid" -> uuid = UUID.fromString(reader.nextString())
+                    "type" -> type = reader.nextString()
+                    "message_id" -> messageId = UUID.fromString(reader.nextString())
+                    "\$set" -> set = mapAdapter.read(reader)
+                    "api_key" -> apiKey = reader.nextString()
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+
+            if (event == null || distinctId == null) {
+                throw JsonSyntaxException("Event without an event name or a distinct id at ${reader.path}.")
+            }
+            return PostHogEvent(
+                event = event,
+                distinctId = distinctId,
+                properties = properties,
+                timestamp = timestamp ?: Date(),
+                uuid = uuid,
+                type = type,
+                messageId = messageId,
+                set = set,
+                apiKey = apiKey,
+            )
+        }
+    }
+
+    private inner class BatchEventAdapter(gson: Gson) : TypeAdapter<PostHogBatchEvent>() {
+        private val eventAdapter = gson.getAdapter(PostHogEvent::class.java)
+
+        override fun write(
+            out: JsonWriter,
+            value: PostHogBatchEvent?,
+        ) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("api_key").value(value.apiKey)
+            out.name("batch").beginArray()
+            value.batch.forEach { eventAdapter.write(out, it) }
+            out.endArray()
+            out.date("sent_at", value.sentAt)
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): PostHogBatchEvent? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var apiKey: String? = null
+            val batch = mutableListOf<PostHogEvent>()
+            var sentAt: Date? = null
+
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull()
+                    continue
+                }
+                when (name) {
+                    "api_key" -> apiKey = reader.nextString()
+                    "batch" -> {
+                        reader.beginArray()
+                        while (reader.hasNext()) {
+                            eventAdapter.read(reader)?.let { batch.add(it) }
+                        }
+                        reader.endArray()
+                    }
+                    "sent_at" -> sentAt = reader.date()
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+
+            apiKey ?: throw JsonSyntaxException("Batch without an API key at ${reader.path}.")
+            return PostHogBatchEvent(apiKey, batch, sentAt)
+        }
+    }
+
+    private class ReplayEventAdapter(
+        private val gson: Gson,
+        private val delegate: TypeAdapter<*>,
+    ) : TypeAdapter<RREvent>() {
+        private val typeAdapter = gson.getAdapter(RREventType::class.java)
+
+        override fun write(
+            out: JsonWriter,
+            value: RREvent?,
+        ) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("type")
+            typeAdapter.write(out, value.type)
+            out.name("timestamp").value(value.timestamp)
+            value.data?.let {
+                out.name("data")
+                gson.writeAny(out, it)
+            }
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): RREvent? = delegate.read(reader) as RREvent?
+    }
+
+    private class WireframeAdapter(
+        private val gson: Gson,
+        private val delegate: TypeAdapter<*>,
+    ) : TypeAdapter<RRWireframe>() {
+        override fun write(
+            out: JsonWriter,
+            value: RRWireframe?,
+        ) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("id").value(value.id.toLong())
+            out.name("x").value(value.x.toLong())
+            out.name("y").value(value.y.toLong())
+            out.name("width").value(value.width.toLong())
+            out.name("height").value(value.height.toLong())
+            value.childWireframes?.let { children ->
+                out.name("childWireframes").beginArray()
+                children.forEach { write(out, it) }
+                out.endArray()
+            }
+            value.type?.let { out.name("type").value(it) }
+            value.inputType?.let { out.name("inputType").value(it) }
+            value.text?.let { out.name("text").value(it) }
+            value.label?.let { out.name("label").value(it) }
+            value.value?.let {
+                out.name("value")
+                if (it is String) out.value(it) else gson.writeAny(out, it)
+            }
+            value.base64?.let { out.name("base64").value(it) }
+            value.style?.let {
+                out.name("style")
+                writeStyle(out, it)
+            }
+            value.disabled?.let { out.name("disabled").value(it) }
+            value.checked?.let { out.name("checked").value(it) }
+            value.options?.let { options ->
+                out.name("options").beginArray()
+                options.forEach { out.value(it) }
+                out.endArray()
+            }
+            value.max?.let { out.name("max").value(it.toLong()) }
+            out.endObject()
+        }
+
+        private fun writeStyle(
+            out: JsonWriter,
+            style: RRStyle,
+        ) {
+            out.beginObject()
+            style.color?.let { out.name("color").value(it) }
+            style.backgroundColor?.let { out.name("backgroundColor").value(it) }
+            style.backgroundImage?.let { out.name("backgroundImage").value(it) }
+            style.borderWidth?.let { out.name("borderWidth").value(it.toLong()) }
+            style.borderRadius?.let { out.name("borderRadius").value(it.toLong()) }
+            style.borderColor?.let { out.name("borderColor").value(it) }
+            style.fontSize?.let { out.name("fontSize").value(it.toLong()) }
+            style.fontFamily?.let { out.name("fontFamily").value(it) }
+            style.horizontalAlign?.let { out.name("horizontalAlign").value(it) }
+            style.verticalAlign?.let { out.name("verticalAlign").value(it) }
+            style.paddingTop?.let { out.name("paddingTop").value(it.toLong()) }
+            style.paddingBottom?.let { out.name("paddingBottom").value(it.toLong()) }
+            style.paddingLeft?.let { out.name("paddingLeft").value(it.toLong()) }
+            style.paddingRight?.let { out.name("paddingRight").value(it.toLong()) }
+            style.bar?.let { out.name("bar").value(it) }
+            style.iconLeft?.let { out.name("iconLeft").value(it) }
+            style.iconRight?.let { out.name("iconRight").value(it) }
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): RRWireframe? = delegate.read(reader) as RRWireframe?
+    }
+}
+
+/**
+ * Writes [value] with the adapter of its runtime type, as Gson does for fields declared as [Any]
+ */
+internal fun Gson.writeAny(
+    out: JsonWriter,
+    value: Any,
+) {
+    @Suppress("UNCHECKED_CAST")
+    (getAdapter(value.javaClass) as TypeAdapter<Any>).write(out, value)
+}
@@ -20,6 +20,7 @@ package com.posthog.internal
 
 import com.posthog.PostHogConfig
 import com.posthog.PostHogInternal
+import com.posthog.PostHogMetrics
 import okhttp3.Interceptor
 import okhttp3.MediaType
 import okhttp3.MultipartBody
@@ -52,9 +53,16 @@ public class GzipRequestInterceptor(private val config: PostHogConfig) : Interce
         } else {
             val compressedRequest =
                 try {
+                    val start = System.nanoTime()
+                    val compressedBody = forceContentLength(gzip(body))
+                    config.metrics.record(
+                        PostHogMetrics.COMPRESS_DURATION,
+                        elapsedMillis(start),
+                        mapOf(PostHogMetrics.TAG_PATH to originalRequest.url.encodedPath),
+                    )
                     originalRequest.newBuilder()
                         .header("Content-Encoding", "gzip")
-                        .method(originalRequest.method, forceContentLength(gzip(body)))
+                        .method(originalRequest.method, compressedBody)
                         .build()
                 } catch (e: Throwable) {
                     config.logger.log("Failed to gzip the request body: $e.")
@@ -9,8 +9,12 @@ import com.posthog.PostHogConfig.Companion.DEFAULT_US_ASSETS_HOST
 import com.posthog.PostHogConfig.Companion.DEFAULT_US_HOST
 import com.posthog.PostHogEvent
 import com.posthog.PostHogInternal
+import com.posthog.PostHogMetrics
 import com.posthog.internal.logs.PostHogLogsOTLP
 import com.posthog.logs.PostHogLogRecord
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -24,6 +28,10 @@ import java.io.IOException
 import java.io.OutputStream
 import java.net.SocketException
 import java.net.SocketTimeoutException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 
 /**
  * The class that calls the PostHog API
@@ -37,6 +45,7 @@ public class PostHogApi(
         private const val APP_JSON_UTF_8 = "application/json; charset=utf-8"
         private const val FLAGS_INITIAL_RETRY_DELAY_MS = 300L
         private const val FLAGS_MAX_RETRY_DELAY_MS = 30_000L
+        private val FLAGS_METRIC_TAGS = mapOf(PostHogMetrics.TAG_ENDPOINT to "flags")
     }
 
     private val mediaType by lazy {
@@ -49,8 +58,8 @@ public class PostHogApi(
     }
 
     private val client: OkHttpClient =
-        config.httpClient ?: OkHttpClient.Builder()
-            .proxy(config.proxy)
+        config.httpClient ?: (config.baseHttpClient?.newBuilder() ?: OkHttpClient.Builder())
+            .apply { config.proxy?.let { proxy(it) } }
             .addInterceptor(GzipRequestInterceptor(config))
             // Network interceptor so the host check re-runs on each redirect hop.
             .addNetworkInterceptor(CustomHeadersInterceptor(config))
@@ -62,6 +71,25 @@ public class PostHogApi(
             .build()
     }
 
+    /**
+     * Schedules the retries of [flagsAsync], which must not sleep on the caller's or OkHttp's threads.
+     * Started on the first retry and stopped by [close].
+     */
+    private var flagsRetryScheduler: ScheduledExecutorService? = null
+    private var closed = false
+    private val flagsRetrySchedulerLock = Any()
+
+    private fun flagsRetryScheduler(): ScheduledExecutorService {
+        synchronized(flagsRetrySchedulerLock) {
+            if (closed) {
+                throw RejectedExecutionException("PostHogApi is closed.")
+            }
+            return flagsRetryScheduler
+                ?: Executors.newSingleThreadScheduledExecutor(PostHogThreadFactory("PostHogFlagsRetryThread"))
+                    .also { flagsRetryScheduler = it }
+        }
+    }
+
     private val theHost: String
         get() {
             return if (config.host.endsWith("/")) config.host.substring(0, config.host.length - 1) else config.host
@@ -190,7 +218,9 @@ public class PostHogApi(
     private fun executeNoBody(request: Request) {
         logRequestHeaders(request)
 
+        val start = System.nanoTime()
         client.newCall(request).execute().use {
+            config.metrics.record(PostHogMetrics.HTTP_DURATION, elapsedMillis(start), pathTags(request))
             val response = logResponse(it)
 
             if (!response.isSuccessful) {
@@ -212,20 +242,27 @@ public class PostHogApi(
         method: String = "POST",
         serializer: (outputStream: OutputStream) -> Unit,
     ): Request {
+        val httpUrl = url.toHttpUrl()
         val requestBody =
             object : RequestBody() {
                 override fun contentType() = mediaType
 
                 override fun writeTo(sink: BufferedSink) {
+                    val start = System.nanoTime()
                     sink.outputStream().use {
                         serializer(it)
                     }
+                    config.metrics.record(
+                        PostHogMetrics.SERIALIZE_DURATION,
+                        elapsedMillis(start),
+                        mapOf(PostHogMetrics.TAG_PATH to httpUrl.encodedPath),
+                    )
                 }
             }
 
         val builder =
             Request.Builder()
-                .url(url)
+                .url(httpUrl)
                 .header("User-Agent", config.userAgent)
         return when (method) {
             "DELETE" -> builder.delete(requestBody)
@@ -244,6 +281,87 @@ public class PostHogApi(
         flagKeys: List<String>? = null,
         disableGeoip: Boolean = false,
     ): PostHogFlagsResponse? {
+        val request =
+            makeFlagsRequest(
+                distinctId,
+                anonymousId,
+                deviceId,
+                groups,
+                personProperties,
+                groupProperties,
+                flagKeys,
+                disableGeoip,
+            )
+
+        return executeFlagsWithRetry(request)
+    }
+
+    /**
+     * Non-blocking variant of [flags]: the request runs on OkHttp's dispatcher and retries are
+     * scheduled rather than slept, so the calling thread is never held. Exactly one of [onResponse]
+     * or [onFailure] is called, on an OkHttp or retry thread; [onFailure] receives the same errors
+     * [flags] would throw.
+     *
+     * @param retryScheduler schedules the retries instead of this api's own retry thread, e.g. one
+     * scheduler shared by many SDK instances
+     */
+    public fun flagsAsync(
+        distinctId: String,
+        anonymousId: String? = null,
+        deviceId: String? = null,
+        groups: Map<String, String>? = null,
+        personProperties: Map<String, Any?>? = null,
+        groupProperties: Map<String, Map<String, Any?>>? = null,
+        flagKeys: List<String>? = null,
+        disableGeoip: Boolean = false,
+        retryScheduler: ScheduledExecutorService? = null,
+        onResponse: (PostHogFlagsResponse?) -> Unit,
+        onFailure: (Throwable) -> Unit,
+    ) {
+        val request =
+            try {
+                makeFlagsRequest(
+                    distinctId,
+                    anonymousId,
+                    deviceId,
+                    groups,
+                    personProperties,
+                    groupProperties,
+                    flagKeys,
+                    disableGeoip,
+                )
+            } catch (e: Throwable) {
+                onFailure(e)
+                return
+            }
+
+        enqueueFlagsWithRetry(request, 0, retryScheduler, onResponse, onFailure)
+    }
+
+    /**
+     * Stops the thread scheduling the retries of [flagsAsync] once the retries already scheduled
+     * ran, later ones fail with their last error. Called when the SDK is closed.
+     */
+    public fun close() {
+        val scheduler: ScheduledExecutorService?
+        synchronized(flagsRetrySchedulerLock) {
+            closed = true
+            scheduler = flagsRetryScheduler
+            flagsRetryScheduler = null
+        }
+        scheduler?.shutdown()
+    }
+
+    private fun makeFlagsRequest(
+        distinctId: String,
+        anonymousId: String?,
+        deviceId: String?,
+        groups: Map<String, String>?,
+        personProperties: Map<String, Any?>?,
+        groupProperties: Map<String, Map<String, Any?>>?,
+        flagKeys: List<String>?,
+        disableGeoip: Boolean,
+    ): Request {
         val flagsRequest =
             PostHogFlagsRequest(
                 config.apiKey,
@@ -261,12 +379,9 @@ public class PostHogApi(
         val url = "$theHost/flags/?v=2"
         logRequest(flagsRequest, url)
 
-        val request =
-            makeRequest(url) {
-                config.serializer.serialize(flagsRequest, it.bufferedWriter())
-            }
-
-        return executeFlagsWithRetry(request)
+        return makeRequest(url) {
+            config.serializer.serialize(flagsRequest, it.bufferedWriter())
+        }
     }
 
     @Throws(PostHogApiError::class, IOException::class)
@@ -283,6 +398,7 @@ public class PostHogApi(
                 }
             }
 
+            config.metrics.count(PostHogMetrics.RETRIES, 1, FLAGS_METRIC_TAGS)
             retryAttempt++
             sleepBeforeFlagsRetry(retryAttempt)
         }
@@ -299,20 +415,83 @@ public class PostHogApi(
         }
     }
 
+    private fun enqueueFlagsWithRetry(
+        request: Request,
+        retryAttempt: Int,
+        retryScheduler: ScheduledExecutorService?,
+        onFlagsResponse: (PostHogFlagsResponse?) -> Unit,
+        onFlagsFailure: (Throwable) -> Unit,
+    ) {
+        fun retryOrFail(error: Exception) {
+            val maxRetries = config.featureFlagRequestMaxRetries.coerceAtLeast(0)
+            if (retryAttempt >= maxRetries || !isRetryableFlagsError(error)) {
+                onFlagsFailure(error)
+                return
+            }
+
+            config.metrics.count(PostHogMetrics.RETRIES, 1, FLAGS_METRIC_TAGS)
+            val nextAttempt = retryAttempt + 1
+            try {
+                (retryScheduler ?: flagsRetryScheduler()).schedule(
+                    Runnable {
+                        enqueueFlagsWithRetry(request, nextAttempt, retryScheduler, onFlagsResponse, onFlagsFailure)
+                    },
+                    flagsRetryDelayMillis(nextAttempt),
+                    TimeUnit.MILLISECONDS,
+                )
+            } catch (e: Throwable) {
+                onFlagsFailure(error)
+            }
+        }
+
+        logRequestHeaders(request)
+
+        val start = System.nanoTime()
+        flagsClient.newCall(request).enqueue(
+            object : Callback {
+                override fun onFailure(
+                    call: Call,
+                    e: IOException,
+                ) {
+                    retryOrFail(e)
+                }
+
+                override fun onResponse(
+                    call: Call,
+                    response: Response,
+                ) {
+                    config.metrics.record(PostHogMetrics.HTTP_DURATION, elapsedMillis(start), pathTags(request))
+                    val flagsResponse =
+                        try {
+                            response.use { readFlagsResponse(it) }
+                        } catch (e: Exception) {
+                            retryOrFail(e)
+                            return
+                        }
+                    onFlagsResponse(flagsResponse)
+                }
+            },
+        )
+    }
+
     @Throws(PostHogApiError::class, IOException::class)
     private fun executeFlagsRequest(request: Request): PostHogFlagsResponse? {
         logRequestHeaders(request)
 
-        flagsClient.newCall(request).execute().use {
-            val response = logResponse(it)
+        val start = System.nanoTime()
+        return flagsClient.newCall(request).execute().use {
+            config.metrics.record(PostHogMetrics.HTTP_DURATION, elapsedMillis(start), pathTags(request))
+            readFlagsResponse(it)
+        }
+    }
 
-            if (!response.isSuccessful) throw PostHogApiError(response.code, response.message, response.body)
+    @Throws(PostHogApiError::class)
+    private fun readFlagsResponse(it: Response): PostHogFlagsResponse? {
+        val response = logResponse(it)
 
-            response.body?.let { body ->
-                return deserializeFlagsResponse(body)
-            }
-            return null
-        }
+        if (!response.isSuccessful) throw PostHogApiError(response.code, response.message, response.body)
+
+        return response.body?.let { body -> deserializeFlagsResponse(body) }
     }
 
     @Throws(IOException::class)
@@ -493,6 +672,9 @@ public class PostHogApi(
         }
     }
 
+    private fun pathTags(request: Request): Map<String, String> =
+        mapOf(PostHogMetrics.TAG_PATH to request.url.encodedPath)
+
     private fun logRequestHeaders(request: Request) {
         if (config.debug) {
             try {
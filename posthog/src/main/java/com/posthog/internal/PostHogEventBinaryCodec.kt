@@ -0,0 +1,523 @@
+package com.posthog.internal
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.StringReader
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.Date
+import java.util.UUID
+
+/**
+ * A compact binary encoding of [PostHogEvent] for records at rest in [PostHogQueue], see
+ * [PostHogConfig.queueBinaryStorage]. Records are converted to JSON only when building the request
+ * body.
+ *
+ * A record starts with [MAGIC], which no JSON text starts with, so records of both encodings are
+ * told apart when reading. Numbers are varints, a property key is written once per record and then
+ * referred to by its index, and values are tagged with their type. Property values are kept and
+ * dropped as in JSON, see [PropertyValueType], and other values, e.g. replay events, are serialized
+ * to JSON and transcoded, so they read back as the maps, lists and numbers a JSON record would.
+ *
+ * The size of the event's JSON is estimated as it's encoded, so batches of binary records are still
+ * packed against the size of the request body, see [PostHogConfig.maxBatchBytes].
+ *
+ * @property config the Config
+ */
+internal class PostHogEventBinaryCodec(private val config: PostHogConfig) {
+    private val numberPolicy = GsonNumberPolicy()
+
+    /**
+     * Writes [event] to [stream]
+     * @return the estimated size of the event's JSON in a batch request body, in bytes, see
+     * [EndpointSpec.encode]
+     */
+    @Throws(IOException::class)
+    @Suppress("DEPRECATION")
+    fun encode(
+        event: PostHogEvent,
+        stream: OutputStream,
+    ): Long {
+        val out = DataOutputStream(stream.buffered())
+        val encoder = Encoder(out)
+        out.write(MAGIC)
+        out.write(VERSION)
+
+        var fields = 0
+        if (event.properties != null) fields = fields or FIELD_PROPERTIES
+        if (event.uuid != null) fields = fields or FIELD_UUID
+        if (event.type != null) fields = fields or FIELD_TYPE
+        if (event.messageId != null) fields = fields or FIELD_MESSAGE_ID
+        if (event.set != null) fields = fields or FIELD_SET
+        if (event.apiKey != null) fields = fields or FIELD_API_KEY
+        encoder.writeVarLong(fields.toLong())
+
+        // the braces of the event's JSON object, its comma in the batch makes up for the first
+        // member, which has none
+        encoder.jsonBytes = 2
+        encoder.writeString(event.event)
+        encoder.countJsonMember("event", jsonStringBytes(event.event))
+        encoder.writeString(event.distinctId)
+        encoder.countJsonMember("distinct_id", jsonStringBytes(event.distinctId))
+        encoder.writeVarLong(zigZag(event.timestamp.time))
+        encoder.countJsonMember("timestamp", formatISO8601Date(event.timestamp).length + 2L)
+        event.uuid?.let {
+            encoder.writeUuid(it)
+            encoder.countJsonMember("uuid", UUID_JSON_BYTES)
+        }
+        event.type?.let {
+            encoder.writeString(it)
+            encoder.countJsonMember("type", jsonStringBytes(it))
+        }
+        event.messageId?.let {
+            encoder.writeUuid(it)
+            encoder.countJsonMember("message_id", UUID_JSON_BYTES)
+        }
+        event.properties?.let {
+            encoder.countJsonMember("properties", 0)
+            encoder.writeMap(it)
+        }
+        event.set?.let {
+            encoder.countJsonMember("\$set", 0)
+            encoder.writeMap(it)
+        }
+        event.apiKey?.let {
+            encoder.writeString(it)
+            encoder.countJsonMember("api_key", jsonStringBytes(it))
+        }
+        out.flush()
+        return encoder.jsonBytes
+    }
+
+    @Throws(IOException::class)
+    @Suppress("DEPRECATION", "UNCHECKED_CAST")
+    fun decode(stream: InputStream): PostHogEvent {
+        val decoder = Decoder(DataInputStream(stream.buffered()))
+        if (decoder.readByte() != MAGIC) {
+            throw IOException("Not a binary event record.")
+        }
+        val version = decoder.readByte()
+        if (version != VERSION) {
+            throw IOException("Unsupported binary event record version: $version.")
+        }
+
+        val fields = decoder.readVarLong().toInt()
+        val event = decoder.readString()
+        val distinctId = decoder.readString()
+        val timestamp = Date(unZigZag(decoder.readVarLong()))
+        val uuid = if (fields and FIELD_UUID != 0) decoder.readUuid() else null
+        val type = if (fields and FIELD_TYPE != 0) decoder.readString() else null
+        val messageId = if (fields and FIELD_MESSAGE_ID != 0) decoder.readUuid() else null
+        val properties = if (fields and FIELD_PROPERTIES != 0) decoder.readMap() as MutableMap<String, Any> else null
+        val set = if (fields and FIELD_SET != 0) decoder.readMap() as Map<String, Any> else null
+        val apiKey = if (fields and FIELD_API_KEY != 0) decoder.readString() else null
+
+        return PostHogEvent(
+            event = event,
+            distinctId = distinctId,
+            properties = properties,
+            timestamp = timestamp,
+            uuid = uuid,
+            type = type,
+            messageId = messageId,
+            set = set,
+            apiKey = apiKey,
+        )
+    }
+
+    private inner class Encoder(private val out: DataOutputStream) {
+        // the keys written so far in this record, by index
+        private val keys = HashMap<String, Int>()
+
+        // the estimated size of the record's JSON, counted as values are written
+        var jsonBytes = 0L
+
+        /**
+         * Counts a member of the event's JSON object, its name, colon and comma and [valueBytes]
+         */
+        fun countJsonMember(
+            name: String,
+            valueBytes: Long,
+        ) {
+            jsonBytes += name.length + 4 + valueBytes
+        }
+
+        fun writeVarLong(value: Long) {
+            var remaining = value
+            while (remaining and 0x7FL.inv() != 0L) {
+                out.write(((remaining and 0x7F) or 0x80).toInt())
+                remaining = remaining ushr 7
+            }
+            out.write(remaining.toInt())
+        }
+
+        fun writeString(value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            writeVarLong(bytes.size.toLong())
+            out.write(bytes)
+        }
+
+        fun writeUuid(value: UUID) {
+            out.writeLong(value.mostSignificantBits)
+            out.writeLong(value.leastSignificantBits)
+        }
+
+        private fun writeKey(key: String) {
+            val index = keys[key]
+            if (index != null) {
+                writeVarLong((KEY_INDEX + index).toLong())
+            } else {
+                writeVarLong(KEY_NEW.toLong())
+                writeString(key)
+                keys[key] = keys.size
+            }
+        }
+
+        fun writeMap(map: Map<*, *>) {
+            out.write(TAG_MAP)
+            var members = 0
+            map.forEach { (key, value) ->
+                if (value != null) {
+                    val name = key.toString()
+                    if (writeMember(name, name, value)) {
+                        members++
+                    }
+                }
+            }
+            writeVarLong(KEY_END.toLong())
+            countJsonContainer(members)
+        }
+
+        private fun writeList(list: List<*>) {
+            out.write(TAG_LIST)
+            var elements = 0
+            list.forEach { element ->
+                if (element != null && writeMember(null, "list-element", element)) {
+                    elements++
+                }
+            }
+            out.write(TAG_END)
+            countJsonContainer(elements)
+        }
+
+        /**
+         * Counts the brackets of a JSON object or array and the commas between its [members]
+         */
+        private fun countJsonContainer(members: Int) {
+            jsonBytes += 2 + (members - 1).coerceAtLeast(0)
+        }
+
+        /**
+         * Writes [value] under [name], or as a list element without one, unless it can't be
+         * serialized, dropping it as the JSON serializer does, see [PropertyValueType]
+         *
+         * @param key the name used when logging an unserializable value
+         * @return whether the value was written
+         */
+        private fun writeMember(
+            name: String?,
+            key: String,
+            value: Any,
+        ): Boolean {
+            val type = propertyValueType(config, key, value) ?: return false
+            val json =
+                if (type == PropertyValueType.OTHER) {
+                    serializePropertyValue(config, config.serializer.gson, key, value) ?: return false
+                } else {
+                    null
+                }
+
+            name?.let {
+                writeKey(it)
+                jsonBytes += jsonStringBytes(it) + 1
+            }
+            when (type) {
+                PropertyValueType.MAP -> writeMap(value as Map<*, *>)
+                PropertyValueType.LIST -> writeList(propertyValueAsList(value))
+                PropertyValueType.STRING -> {
+                    jsonBytes += jsonStringBytes(value as String)
+                    writeValue(value)
+                }
+                PropertyValueType.DATE -> {
+                    val date = formatISO8601Date(value as Date)
+                    jsonBytes += date.length + 2
+                    writeValue(date)
+                }
+                PropertyValueType.OTHER -> {
+                    // already escaped by Gson
+                    jsonBytes += utf8Bytes(json!!)
+                    transcode(JsonReader(StringReader(json)))
+                }
+                // booleans and numbers, written as their string
+                else -> {
+                    jsonBytes += value.toString().length
+                    writeValue(value)
+                }
+            }
+            return true
+        }
+
+        /**
+         * Writes a string, boolean or number
+         */
+        private fun writeValue(value: Any) {
+            when (value) {
+                is String -> {
+                    out.write(TAG_STRING)
+                    writeString(value)
+                }
+                is Boolean -> out.write(if (value) TAG_TRUE else TAG_FALSE)
+                is Int, is Short, is Byte -> {
+                    out.write(TAG_INT)
+                    writeVarLong(zigZag((value as Number).toLong()))
+                }
+                is Long -> {
+                    out.write(TAG_LONG)
+                    writeVarLong(zigZag(value))
+                }
+                is Float -> {
+                    out.write(TAG_FLOAT)
+                    out.writeFloat(value)
+                }
+                is Double -> {
+                    out.write(TAG_DOUBLE)
+                    out.writeDouble(value)
+                }
+                is BigInteger -> {
+                    out.write(TAG_BIG_INTEGER)
+                    writeString(value.toString())
+                }
+                is BigDecimal -> {
+                    out.write(TAG_BIG_DECIMAL)
+                    writeString(value.toString())
+                }
+            }
+        }
+
+        /**
+         * Writes the JSON of a value that isn't a JSON type, numbers are read as Gson reads them
+         */
+        private fun transcode(reader: JsonReader) {
+            when (reader.peek()) {
+                JsonToken.BEGIN_OBJECT -> {
+                    out.write(TAG_MAP)
+                    reader.beginObject()
+                    while (reader.hasNext()) {
+                        writeKey(reader.nextName())
+                        transcode(reader)
+                    }
+                    reader.endObject()
+                    writeVarLong(KEY_END.toLong())
+                }
+                JsonToken.BEGIN_ARRAY -> {
+                    out.write(TAG_LIST)
+                    reader.beginArray()
+                    while (reader.hasNext()) {
+                        transcode(reader)
+                    }
+                    reader.endArray()
+                    out.write(TAG_END)
+                }
+                JsonToken.STRING -> writeValue(reader.nextString())
+                JsonToken.NUMBER -> writeValue(numberPolicy.readNumber(reader))
+                JsonToken.BOOLEAN -> writeValue(reader.nextBoolean())
+                JsonToken.NULL -> {
+                    reader.nextNull()
+                    out.write(TAG_NULL)
+                }
+                else -> throw IOException("Unexpected JSON token ${reader.peek()}.")
+            }
+        }
+    }
+
+    private class Decoder(private val input: DataInputStream) {
+        // the keys read so far in this record, by index
+        private val keys = ArrayList<String>()
+
+        fun readByte(): Int {
+            val value = input.read()
+            if (value < 0) {
+                throw EOFException("Binary event record is truncated.")
+            }
+            return value
+        }
+
+        fun readVarLong(): Long {
+            var value = 0L
+            var shift = 0
+            while (shift < 64) {
+                val b = readByte()
+                value = value or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) {
+                    return value
+                }
+                shift += 7
+            }
+            throw IOException("Malformed varint in binary event record.")
+        }
+
+        fun readString(): String {
+            val length = readVarLong()
+            if (length < 0 || length > MAX_STRING_BYTES) {
+                throw IOException("Invalid string length in binary event record: $length.")
+            }
+            val bytes = ByteArray(length.toInt())
+            input.readFully(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        fun readUuid(): UUID = UUID(input.readLong(), input.readLong())
+
+        fun readMap(): MutableMap<String, Any?> {
+            val tag = readByte()
+            if (tag != TAG_MAP) {
+                throw IOException("Expected a map in binary event record, got tag $tag.")
+            }
+            @Suppress("UNCHECKED_CAST")
+            return readValue(tag) as MutableMap<String, Any?>
+        }
+
+        private fun readValue(): Any? = readValue(readByte())
+
+        private fun readValue(tag: Int): Any? =
+            when (tag) {
+                TAG_NULL -> null
+                TAG_FALSE -> false
+                TAG_TRUE -> true
+                TAG_INT -> unZigZag(readVarLong()).toInt()
+                TAG_LONG -> unZigZag(readVarLong())
+                TAG_FLOAT -> input.readFloat()
+                TAG_DOUBLE -> input.readDouble()
+                TAG_BIG_INTEGER -> BigInteger(readString())
+                TAG_BIG_DECIMAL -> BigDecimal(readString())
+                TAG_STRING -> readString()
+                TAG_LIST -> {
+                    val list = ArrayList<Any?>()
+                    var elementTag = readByte()
+                    while (elementTag != TAG_END) {
+                        list.add(readValue(elementTag))
+                        elementTag = readByte()
+                    }
+                    list
+                }
+                TAG_MAP -> {
+                    val map = LinkedHashMap<String, Any?>()
+                    var ref = readVarLong().toInt()
+                    while (ref != KEY_END) {
+                        val key =
+                            if (ref == KEY_NEW) {
+                                readString().also { keys.add(it) }
+                            } else {
+                                keys.getOrNull(ref - KEY_INDEX)
+                                    ?: throw IOException("Unknown key index in binary event record: $ref.")
+                            }
+                        map[key] = readValue()
+                        ref = readVarLong().toInt()
+                    }
+                    map
+                }
+                else -> throw IOException("Unknown value tag in binary event record: $tag.")
+            }
+    }
+
+    internal companion object {
+        // never the first byte of JSON text, not even valid UTF-8
+        const val MAGIC = 0xFF
+        const val VERSION = 1
+
+        private const val FIELD_PROPERTIES = 1
+        private const val FIELD_UUID = 1 shl 1
+        private const val FIELD_TYPE = 1 shl 2
+        private const val FIELD_MESSAGE_ID = 1 shl 3
+        private const val FIELD_SET = 1 shl 4
+        private const val FIELD_API_KEY = 1 shl 5
+
+        private const val TAG_END = 0
+        private const val TAG_NULL = 1
+        private const val TAG_FALSE = 2
+        private const val TAG_TRUE = 3
+        private const val TAG_INT = 4
+        private const val TAG_LONG = 5
+        private const val TAG_FLOAT = 6
+        private const val TAG_DOUBLE = 7
+        private const val TAG_BIG_INTEGER = 8
+        private const val TAG_BIG_DECIMAL = 9
+        private const val TAG_STRING = 10
+        private const val TAG_LIST = 11
+        private const val TAG_MAP = 12
+
+        // a key reference is the end of the map, a new key written inline, or a key's index plus 2
+        private const val KEY_END = 0
+        private const val KEY_NEW = 1
+        private const val KEY_INDEX = 2
+
+        private const val MAX_STRING_BYTES = 64 * 1024 * 1024
+
+        // a quoted UUID string
+        private const val UUID_JSON_BYTES = 38L
+
+        private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+        private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+        /**
+         * The size of [value] in UTF-8, in bytes
+         */
+        private fun utf8Bytes(value: String): Long {
+            var bytes = 0L
+            for (c in value) {
+                bytes +=
+                    when {
+                        c < '\u0080' -> 1
+                        c < '\u0800' -> 2
+                        // a surrogate pair is 4 bytes
+                        Character.isSurrogate(c) -> 2
+                        else -> 3
+                    }
+            }
+            return bytes
+        }
+
+        /**
+         * The size of [value] as a quoted JSON string in UTF-8, escaped as Gson does, in bytes
+         */
+        private fun jsonStringBytes(value: String): Long {
+            var bytes = 2L
+            for (c in value) {
+                bytes +=
+                    when (c) {
+                        '"', '\\', '\t', '\b', '\n', '\r', '\u000c' -> 2
+                        '<', '>', '&', '=', '\'', '\u2028', '\u2029' -> 6
+                        else ->
+                            when {
+                                c < ' ' -> 6
+                                c < '\u0080' -> 1
+                                c < '\u0800' -> 2
+                                Character.isSurrogate(c) -> 2
+                                else -> 3
+                            }
+                    }
+            }
+            return bytes
+        }
+
+        /**
+         * Whether the record in [stream] is a binary one, without consuming it
+         */
+        fun isBinaryRecord(stream: BufferedInputStream): Boolean {
+            stream.mark(1)
+            val first = stream.read()
+            stream.reset()
+            return first == MAGIC
+        }
+    }
+}
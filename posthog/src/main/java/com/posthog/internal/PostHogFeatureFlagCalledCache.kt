@@ -3,21 +3,24 @@ package com.posthog.internal
 /**
  * LRU cache for tracking which feature flag values have been seen
  * to deduplicate $feature_flag_called events
+ *
+ * Entries are spread over [shardCount] independently locked LRU shards by key hash, so threads
+ * reading flags for different users rarely contend on the same monitor. Each shard evicts on its
+ * own at its share of [maxSize], which makes eviction order approximate across shards; a single
+ * shard keeps exact LRU order.
  */
 internal class PostHogFeatureFlagCalledCache(
-    private val maxSize: Int,
+    maxSize: Int,
+    shardCount: Int = 1,
 ) {
-    // LinkedHashMap isn't supported in Android API 21. We use a linked list instead
-    // to maintain the order of access for LRU eviction
-    private class Node(
-        val key: FeatureFlagCalledKey,
-        var prev: Node? = null,
-        var next: Node? = null,
-    )
-
-    private val cache = HashMap<FeatureFlagCalledKey, Node>()
-    private var head: Node? = null // Most recently used
-    private var tail: Node? = null // Least recently used
+    private val shards: Array<Shard>
+
+    init {
+        val count = shardCount.coerceIn(1, maxSize.coerceAtLeast(1))
+        // round up so the shards together hold at least maxSize entries
+        val shardMaxSize = ((maxSize + count - 1) / count).coerceAtLeast(1)
+        shards = Array(count) { Shard(shardMaxSize) }
+    }
 
     /**
      * Atomically check if this combination has been seen before, and if not, mark it as seen.
@@ -28,7 +31,6 @@ internal class PostHogFeatureFlagCalledCache(
      * same user is evaluated under. Same groups passed in a different insertion order
      * still dedupe to the same cache entry.
      */
-    @Synchronized
     fun add(
         distinctId: String,
         flagKey: String,
@@ -36,91 +38,127 @@ internal class PostHogFeatureFlagCalledCache(
         groups: Map<String, String>? = null,
     ): Boolean {
         val key = FeatureFlagCalledKey(distinctId, flagKey, value, canonicalGroupsRepr(groups))
+        return shardFor(key).add(key)
+    }
 
-        val existingNode = cache.get(key)
-        if (existingNode != null) {
-            // Mark as most recent
-            moveToHead(existingNode)
-            return false
+    private fun shardFor(key: FeatureFlagCalledKey): Shard {
+        if (shards.size == 1) {
+            return shards[0]
         }
+        val hash = key.hashCode()
+        // spread the high bits so keys differing only there don't pile into one shard
+        val spread = hash xor (hash ushr 16)
+        return shards[(spread and Int.MAX_VALUE) % shards.size]
+    }
 
-        val newNode = Node(key)
-        cache.put(key, newNode)
-        addToHead(newNode)
+    /**
+     * Clear all cached entries
+     */
+    fun clear() {
+        shards.forEach { it.clear() }
+    }
 
-        // When over max size, evict some percentage of the oldest entries
-        if (cache.size > maxSize) {
-            val evictionCount = (maxSize * BATCH_EVICTION_FACTOR).toInt().coerceAtLeast(1)
-            repeat(evictionCount) {
-                removeTail()
+    /**
+     * Get current cache size
+     */
+    fun size(): Int = shards.sumOf { it.size() }
+
+    private class Shard(
+        private val maxSize: Int,
+    ) {
+        // LinkedHashMap isn't supported in Android API 21. We use a linked list instead
+        // to maintain the order of access for LRU eviction
+        private class Node(
+            val key: FeatureFlagCalledKey,
+            var prev: Node? = null,
+            var next: Node? = null,
+        )
+
+        private val cache = HashMap<FeatureFlagCalledKey, Node>()
+        private var head: Node? = null // Most recently used
+        private var tail: Node? = null // Least recently used
+
+        @Synchronized
+        fun add(key: FeatureFlagCalledKey): Boolean {
+            val existingNode = cache.get(key)
+            if (existingNode != null) {
+                // Mark as most recent
+                moveToHead(existingNode)
+                return false
             }
-        }
 
-        return true
-    }
+            val newNode = Node(key)
+            cache.put(key, newNode)
+            addToHead(newNode)
 
-    private fun addToHead(node: Node) {
-        node.next = head
-        node.prev = null
-        head?.prev = node
-        head = node
-        if (tail == null) {
-            tail = node
+            // When over max size, evict some percentage of the oldest entries
+            if (cache.size > maxSize) {
+                val evictionCount = (maxSize * BATCH_EVICTION_FACTOR).toInt().coerceAtLeast(1)
+                repeat(evictionCount) {
+                    removeTail()
+                }
+            }
+
+            return true
         }
-    }
 
-    private fun removeNode(node: Node) {
-        val prev = node.prev
-        val next = node.next
+        private fun addToHead(node: Node) {
+            node.next = head
+            node.prev = null
+            head?.prev = node
+            head = node
+            if (tail == null) {
+                tail = node
+            }
+        }
+
+        private fun removeNode(node: Node) {
+            val prev = node.prev
+            val next = node.next
 
-        if (prev != null) {
-            prev.next = next
-        } else {
-            head = next
+            if (prev != null) {
+                prev.next = next
+            } else {
+                head = next
+            }
+
+            if (next != null) {
+                next.prev = prev
+            } else {
+                tail = prev
+            }
         }
 
-        if (next != null) {
-            next.prev = prev
-        } else {
-            tail = prev
+        private fun moveToHead(node: Node) {
+            if (node == head) return
+            removeNode(node)
+            addToHead(node)
         }
-    }
 
-    private fun moveToHead(node: Node) {
-        if (node == head) return
-        removeNode(node)
-        addToHead(node)
-    }
+        private fun removeTail() {
+            val tailNode = tail ?: return
+            cache.remove(tailNode.key)
+            val prev = tailNode.prev
+            if (prev != null) {
+                prev.next = null
+                tail = prev
+            } else {
+                head = null
+                tail = null
+            }
+        }
 
-    private fun removeTail() {
-        val tailNode = tail ?: return
-        cache.remove(tailNode.key)
-        val prev = tailNode.prev
-        if (prev != null) {
-            prev.next = null
-            tail = prev
-        } else {
+        @Synchronized
+        fun clear() {
+            cache.clear()
             head = null
             tail = null
         }
-    }
 
-    /**
-     * Clear all cached entries
-     */
-    @Synchronized
-    fun clear() {
-        cache.clear()
-        head = null
-        tail = null
+        @Synchronized
+        fun size(): Int = cache.size
     }
 
-    /**
-     * Get current cache size
-     */
-    @Synchronized
-    fun size(): Int = cache.size
-
     private companion object {
         const val BATCH_EVICTION_FACTOR = 0.2
     }
@@ -2,6 +2,7 @@ package com.posthog.internal
 
 import com.posthog.FeatureFlagResult
 import com.posthog.PostHogInternal
+import java.util.Collections
 
 @PostHogInternal
 public interface PostHogFeatureFlagsInterface {
@@ -73,4 +74,38 @@ public interface PostHogFeatureFlagsInterface {
     public fun isMinimalFlagCalledEventsEnabled(): Boolean {
         return false
     }
+
+    /**
+     * The `$feature/<key>` and `$active_feature_flags` properties attached to captured events, or
+     * null when there are no flags. The default builds them from [getFeatureFlags] on every call;
+     * implementations that know when their flags change should cache the result.
+     */
+    public fun getFeatureFlagEventProperties(): Map<String, Any>? {
+        return buildFeatureFlagEventProperties(getFeatureFlags())
+    }
+}
+
+/**
+ * Build the read-only `$feature/<key>` and `$active_feature_flags` event properties for [flags].
+ * Boolean flags are active iff `true`; non-boolean (multivariant) flags are always active.
+ */
+internal fun buildFeatureFlagEventProperties(flags: Map<String, Any>?): Map<String, Any>? {
+    if (flags.isNullOrEmpty()) {
+        return null
+    }
+
+    val props = LinkedHashMap<String, Any>()
+    val keys = ArrayList<String>(flags.size)
+    for (entry in flags.entries) {
+        props["\$feature/${entry.key}"] = entry.value
+
+        // only add active feature flags
+        val active = entry.value as? Boolean ?: true
+
+        if (active) {
+            keys.add(entry.key)
+        }
+    }
+    props["\$active_feature_flags"] = Collections.unmodifiableList(keys)
+    return Collections.unmodifiableMap(props)
 }
@@ -0,0 +1,215 @@
+package com.posthog.internal
+
+/**
+ * Event properties assembled from shared layers without copying them into a single map.
+ *
+ * [layers] are read-only and ordered from lowest to highest precedence, e.g. registered super
+ * properties, the static and dynamic context and the SDK info; they may be shared with other
+ * events and are never written to. Writes go to a private top layer, seeded with [properties],
+ * which wins over every shared layer. Removing a key that only a shared layer holds hides it
+ * instead of touching that layer.
+ *
+ * Iteration yields each key once with its winning value, so the map can be serialized as-is.
+ * When [properties] is itself a [PostHogLayeredProperties], its shared layers are adopted above
+ * [layers] and only its top layer is copied.
+ */
+internal class PostHogLayeredProperties(
+    layers: List<Map<String, Any>>,
+    properties: Map<String, Any>? = null,
+) : AbstractMutableMap<String, Any>() {
+    private val layers: List<Map<String, Any>>
+
+    private val top: HashMap<String, Any>
+
+    // keys removed while a shared layer still holds them
+    private var hidden: HashSet<String>? = null
+
+    init {
+        val shared = layers.filterTo(ArrayList()) { it.isNotEmpty() }
+        if (properties is PostHogLayeredProperties && properties.hidden.isNullOrEmpty()) {
+            // properties assembled the same way, e.g. by PostHog before it hands the event to
+            // captureStateless: adopt its shared layers rather than copying them into the top layer
+            shared.addAll(properties.layers)
+            top = HashMap(properties.top)
+        } else {
+            top = if (properties != null) HashMap(properties) else HashMap()
+        }
+        this.layers = shared
+    }
+
+    override fun get(key: String): Any? {
+        top[key]?.let { return it }
+        if (hidden?.contains(key) == true) {
+            return null
+        }
+        for (index in layers.indices.reversed()) {
+            layers[index][key]?.let { return it }
+        }
+        return null
+    }
+
+    override fun containsKey(key: String): Boolean = get(key) != null
+
+    override fun put(
+        key: String,
+        value: Any,
+    ): Any? {
+        val previous = get(key)
+        hidden?.remove(key)
+        top[key] = value
+        return previous
+    }
+
+    override fun remove(key: String): Any? {
+        val previous = get(key) ?: return null
+        top.remove(key)
+        hide(key)
+        return previous
+    }
+
+    override fun clear() {
+        top.clear()
+        layers.forEach { layer -> layer.keys.forEach { hide(it) } }
+    }
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Any>>
+        get() = EntrySet()
+
+    private fun hide(key: String) {
+        if (layers.any { it.containsKey(key) }) {
+            val keys = hidden ?: HashSet<String>().also { hidden = it }
+            keys.add(key)
+        }
+    }
+
+    /**
+     * Whether the entry for [key] in the layer at [layerIndex] is the one visible in this map.
+     */
+    private fun isVisible(
+        key: String,
+        layerIndex: Int,
+    ): Boolean {
+        if (top.containsKey(key) || hidden?.contains(key) == true) {
+            return false
+        }
+        for (index in layerIndex + 1 until layers.size) {
+            if (layers[index].containsKey(key)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any>>() {
+        override val size: Int
+            get() {
+                var count = 0
+                val iterator = iterator()
+                while (iterator.hasNext()) {
+                    iterator.next()
+                    count++
+                }
+                return count
+            }
+
+        override fun add(element: MutableMap.MutableEntry<String, Any>): Boolean {
+            throw UnsupportedOperationException()
+        }
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any>> = EntryIterator()
+    }
+
+    /**
+     * Walks the top layer, then each shared layer skipping keys it doesn't win. Only the shared
+     * layers need a lookahead to filter, and removing or setting a value there never touches
+     * the top layer's iteration, which is already done by then.
+     */
+    private inner class EntryIterator : MutableIterator<MutableMap.MutableEntry<String, Any>> {
+        private val topIterator = top.entries.iterator()
+        private var layerIndex = -1
+        private var layerIterator: Iterator<Map.Entry<String, Any>>? = null
+        private var next: MutableMap.MutableEntry<String, Any>? = null
+        private var lastFromTop = false
+        private var lastKey: String? = null
+
+        override fun hasNext(): Boolean {
+            if (topIterator.hasNext()) {
+                return true
+            }
+            if (next == null) {
+                next = advance()
+            }
+            return next != null
+        }
+
+        override fun next(): MutableMap.MutableEntry<String, Any> {
+            if (topIterator.hasNext()) {
+                val entry = topIterator.next()
+                lastFromTop = true
+                lastKey = entry.key
+                return entry
+            }
+            if (!hasNext()) {
+                throw NoSuchElementException()
+            }
+            val entry = next!!
+            next = null
+            lastFromTop = false
+            lastKey = entry.key
+            return entry
+        }
+
+        override fun remove() {
+            val key = lastKey ?: throw IllegalStateException()
+            lastKey = null
+            if (lastFromTop) {
+                topIterator.remove()
+                hide(key)
+            } else {
+                this@PostHogLayeredProperties.remove(key)
+            }
+        }
+
+        private fun advance(): MutableMap.MutableEntry<String, Any>? {
+            while (true) {
+                val iterator = layerIterator
+                if (iterator != null) {
+                    while (iterator.hasNext()) {
+                        val entry = iterator.next()
+                        if (isVisible(entry.key, layerIndex)) {
+                            return LayerEntry(entry.key, entry.value)
+                        }
+                    }
+                }
+                layerIndex++
+                if (layerIndex >= layers.size) {
+                    return null
+                }
+                layerIterator = layers[layerIndex].entries.iterator()
+            }
+        }
+    }
+
+    private inner class LayerEntry(
+        override val key: String,
+        private var current: Any,
+    ) : MutableMap.MutableEntry<String, Any> {
+        override val value: Any
+            get() = current
+
+        override fun setValue(newValue: Any): Any {
+            val previous = current
+            put(key, newValue)
+            current = newValue
+            return previous
+        }
+
+        override fun equals(other: Any?): Boolean {
+            return other is Map.Entry<*, *> && other.key == key && other.value == current
+        }
+
+        override fun hashCode(): Int = key.hashCode() xor current.hashCode()
+
+        override fun toString(): String = "$key=$current"
+    }
+}
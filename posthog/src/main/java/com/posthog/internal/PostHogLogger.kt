@@ -11,3 +11,15 @@ public interface PostHogLogger {
 
     public fun isEnabled(): Boolean
 }
+
+/**
+ * Logs the message built by [message] only if the logger is enabled, so per event and per flag
+ * call sites don't build strings that are thrown away when debug logging is off
+ * @param message builds the message, only called if the logger is enabled
+ */
+@PostHogInternal
+public inline fun PostHogLogger.log(message: () -> String) {
+    if (isEnabled()) {
+        log(message())
+    }
+}
@@ -0,0 +1,24 @@
+package com.posthog.internal
+
+import com.posthog.PostHogMetrics
+
+/**
+ * NoOp Metrics
+ */
+internal object PostHogNoOpMetrics : PostHogMetrics {
+    override fun count(
+        name: String,
+        amount: Long,
+        tags: Map<String, String>,
+    ) {
+    }
+
+    override fun record(
+        name: String,
+        value: Double,
+        tags: Map<String, String>,
+    ) {
+    }
+}
+
+internal fun elapsedMillis(startNanos: Long): Double = (System.nanoTime() - startNanos) / 1_000_000.0
@@ -0,0 +1,91 @@
+package com.posthog.internal
+
+import com.google.gson.Gson
+import com.google.gson.stream.JsonWriter
+import com.posthog.PostHogConfig
+import java.io.StringWriter
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.Date
+
+/**
+ * How a property value is written by [GsonSafeMapSerializer] and [PostHogEventBinaryCodec], so
+ * both keep and drop the same values. Maps and lists are walked, leaves of the JSON types are
+ * written as they are and anything else is serialized by Gson on its own first.
+ */
+internal enum class PropertyValueType {
+    MAP,
+    LIST,
+    STRING,
+    BOOLEAN,
+    NUMBER,
+    DATE,
+    OTHER,
+}
+
+/**
+ * The type [value] is written as, null if it's a number JSON can't represent, which is logged
+ * @param key the name used when logging an unserializable value
+ */
+internal fun propertyValueType(
+    config: PostHogConfig,
+    key: String,
+    value: Any,
+): PropertyValueType? =
+    when (value) {
+        is Map<*, *> -> PropertyValueType.MAP
+        is List<*>, is Array<*> -> PropertyValueType.LIST
+        is String -> PropertyValueType.STRING
+        is Boolean -> PropertyValueType.BOOLEAN
+        is Int, is Long, is Short, is Byte, is BigInteger, is BigDecimal -> PropertyValueType.NUMBER
+        is Double, is Float -> {
+            val number = (value as Number).toDouble()
+            if (number.isNaN() || number.isInfinite()) {
+                logUnserializableProperty(config, key, value, "$number is not a valid JSON number")
+                null
+            } else {
+                PropertyValueType.NUMBER
+            }
+        }
+        // subclasses, e.g. java.sql.Timestamp, are left to Gson
+        else -> if (value.javaClass == Date::class.java) PropertyValueType.DATE else PropertyValueType.OTHER
+    }
+
+/**
+ * The elements of a [PropertyValueType.LIST] value
+ */
+internal fun propertyValueAsList(value: Any): List<*> = if (value is Array<*>) value.asList() else value as List<*>
+
+/**
+ * Serializes a [PropertyValueType.OTHER] value on its own, so a failure doesn't leave a half
+ * written value behind
+ *
+ * @param key the name used when logging an unserializable value
+ * @return the JSON, null if the value can't be serialized, which is logged
+ */
+internal fun serializePropertyValue(
+    config: PostHogConfig,
+    gson: Gson,
+    key: String,
+    value: Any,
+): String? =
+    try {
+        val buffer = StringWriter()
+        gson.toJson(value, value.javaClass, JsonWriter(buffer))
+        buffer.toString()
+    } catch (e: Throwable) {
+        logUnserializableProperty(config, key, value, e)
+        null
+    }
+
+internal fun logUnserializableProperty(
+    config: PostHogConfig,
+    key: String,
+    value: Any,
+    error: Any,
+) {
+    config.logger.log(
+        "Property '$key' with value '$value' cannot be serialized to JSON: $error. " +
+            "This property will be ignored.",
+    )
+}
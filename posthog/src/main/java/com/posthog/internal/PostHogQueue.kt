@@ -2,14 +2,22 @@ package com.posthog.internal
 
 import com.posthog.PostHogConfig
 import com.posthog.PostHogInternal
+import com.posthog.PostHogMetrics
+import com.posthog.PostHogRecordEncryption
 import com.posthog.PostHogVisibleForTesting
-import com.posthog.vendor.uuid.TimeBasedEpochGenerator
+import com.posthog.vendor.uuid.ThreadLocalEpochGenerator
+import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InputStream
 import java.util.Date
+import java.util.PriorityQueue
 import java.util.Timer
 import java.util.TimerTask
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.concurrent.schedule
 import kotlin.math.min
@@ -26,13 +34,34 @@ public class PostHogQueue<Record>(
     private val spec: EndpointSpec<Record>,
     private val executor: ExecutorService,
 ) : PostHogQueueInterface<Record> {
-    private val deque: ArrayDeque<File> = ArrayDeque()
+    // one index per lane, in the order they are drained, see [PostHogQueueLane]
+    private val lanes = PostHogQueueLane.values().map { LaneIndex(it) }
+
+    // the batch being sent, taken off the head of the lanes and either
+    // acknowledged (dropped) or rolled back (put back at the head) as a whole
+    private var inFlight = ArrayList<QueuedFile>()
+
+    // the number of records in the in-flight window, still counted towards the max queue size
+    private var inFlightRecords = 0
+
+    // the number of records in all lanes, segment files hold several
+    private var queuedRecords = 0
     private val dequeLock = Any()
+
+    // records waiting for the group commit, see [PostHogConfig.queueGroupCommitWindowMs]
+    private val pending = ArrayList<Record>()
+    private var commitScheduled = false
+    private var scheduledCommit: Future<*>? = null
+    private val pendingLock = Any()
     private val timerLock = Any()
     private var pausedUntil: Date? = null
     private var retryCount = 0
     private val batchLimits =
-        BatchLimits(cap = spec.initialCap(config).coerceAtLeast(1), flushAt = spec.initialFlushAt(config).coerceAtLeast(1))
+        BatchLimits(
+            cap = spec.initialCap(config).coerceAtLeast(1),
+            flushAt = spec.initialFlushAt(config).coerceAtLeast(1),
+            maxBytes = spec.maxBatchBytes(config).coerceAtLeast(0),
+        )
     private val initialRetryDelaySeconds = 1
     private val maxRetryDelaySeconds = 30
 
@@ -47,66 +76,190 @@ public class PostHogQueue<Record>(
     @Volatile
     private var cachedRecordsLoaded = false
 
-    private var dirCreated = false
+    private val createdDirs = HashSet<PostHogQueueLane>()
 
     private val delay: Long get() = (spec.flushIntervalSeconds(config) * 1000).toLong()
 
+    private val metricTags = mapOf(PostHogMetrics.TAG_ENDPOINT to spec.recordsLabel)
+
     public val queueDirectory: File?
         get() = spec.storagePrefix?.let { File(it, config.apiKey) }
 
+    private fun laneDirectory(lane: PostHogQueueLane): File? {
+        val queueDirectory = queueDirectory ?: return null
+        val suffix = lane.directorySuffix ?: return queueDirectory
+        return File(queueDirectory.parentFile, "${queueDirectory.name}$suffix")
+    }
+
+    private fun createLaneDirectory(lane: PostHogQueueLane): File? {
+        val dir = laneDirectory(lane) ?: return null
+        if (createdDirs.add(lane)) {
+            // the queue directory exists once a record was written, whatever its lane
+            queueDirectory?.mkdirs()
+            dir.mkdirs()
+        }
+        return dir
+    }
+
     private fun addRecordSync(record: Record): Boolean {
         spec.storagePrefix?.let {
-            val dir = File(it, config.apiKey)
-
-            if (!dirCreated) {
-                dir.mkdirs()
-                dirCreated = true
-            }
+            val lane = spec.lane(record)
+            val dir = createLaneDirectory(lane) ?: return true
 
-            val uuid = spec.recordUuid(record) ?: TimeBasedEpochGenerator.generate()
-            val file = File(dir, "$uuid.event")
+            val queuedFile = writeRecordFile(record, lane, dir) ?: return false
             synchronized(dequeLock) {
-                deque.add(file)
+                lanes[lane.ordinal].deque.add(queuedFile)
+                queuedRecords++
             }
+            config.logger.log { "Queued ${spec.describe(record)}: ${queuedFile.file.name}." }
+            config.metrics.count(PostHogMetrics.RECORDS_ENQUEUED, 1, metricTags)
 
-            try {
-                val os = config.encryption?.encrypt(file.outputStream()) ?: file.outputStream()
-                os.use { theOutputStream ->
-                    spec.encode(record, theOutputStream)
-                }
-                config.logger.log("Queued ${spec.describe(record)}: ${file.name}.")
+            return true
+        }
+
+        // if there's no storagePrefix, we assume it failed
+        return true
+    }
 
-                return true
+    /**
+     * Encodes [record] into a buffer first, so the file is created once under its final name with
+     * the encoded size in it, see [recordFileName]. Returns null if the record can't be written.
+     */
+    private fun writeRecordFile(
+        record: Record,
+        lane: PostHogQueueLane,
+        dir: File,
+    ): QueuedFile? {
+        val buffer = ByteArrayOutputStream()
+        val batchBytes =
+            try {
+                spec.encode(record, buffer)
             } catch (e: Throwable) {
-                config.logger.log("${spec.describe(record)}: ${file.name} failed to parse: $e.")
+                config.logger.log("${spec.describe(record)} failed to parse: $e.")
+                countDropped(1, "invalid")
+                return null
+            }
 
-                // if for some reason the file failed to serialize, lets delete it
-                file.deleteSafely(config)
+        val uuid = spec.recordUuid(record) ?: ThreadLocalEpochGenerator.generate()
+        // kept in the name for when it's loaded from disk again
+        val file = File(dir, recordFileName(uuid, batchBytes))
+        try {
+            val os = config.encryption?.encrypt(file.outputStream()) ?: file.outputStream()
+            os.use { theOutputStream ->
+                buffer.writeTo(theOutputStream)
             }
+        } catch (e: Throwable) {
+            config.logger.log("${spec.describe(record)}: ${file.name} failed to write: $e.")
+            countDropped(1, "invalid")
 
-            return false
+            file.deleteSafely(config)
+            return null
         }
 
-        // if there's no storagePrefix, we assume it failed
-        return true
+        // the encoded bytes before encryption, that's what ends up in a batch
+        val size = buffer.size().toLong()
+        return QueuedFile(file, size, lane = lane, batchBytes = batchBytes ?: size)
     }
 
-    private fun removeRecordSync() {
-        if (deque.size >= spec.maxQueueSize(config)) {
+    /**
+     * Writes several records of the same [lane] to one segment file with a single stream, see
+     * [writeSegment].
+     */
+    private fun addSegmentSync(
+        records: List<Record>,
+        lane: PostHogQueueLane,
+    ): Boolean {
+        val dir = createLaneDirectory(lane) ?: return true
+
+        val encodedRecords = ArrayList<ByteArray>(records.size)
+        var batchBytes = 0L
+        var hasBatchBytes = false
+        val buffer = ByteArrayOutputStream()
+        for (record in records) {
             try {
-                val first: File
-                synchronized(dequeLock) {
-                    first = deque.removeFirst()
+                buffer.reset()
+                val recordBatchBytes = spec.encode(record, buffer)
+                encodedRecords.add(buffer.toByteArray())
+                hasBatchBytes = hasBatchBytes || recordBatchBytes != null
+                batchBytes += recordBatchBytes ?: buffer.size().toLong()
+            } catch (e: Throwable) {
+                config.logger.log("${spec.describe(record)} failed to parse: $e.")
+                countDropped(1, "invalid")
+            }
+        }
+        if (encodedRecords.isEmpty()) {
+            return false
+        }
+
+        val uuid = spec.recordUuid(records.first()) ?: ThreadLocalEpochGenerator.generate()
+        val encodedBytes = encodedRecords.sumOf { it.size.toLong() }
+        val file = File(dir, segmentFileName(uuid, encodedRecords.size, batchBytes.takeIf { hasBatchBytes }))
+        try {
+            val recordEncryption = config.encryption as? PostHogRecordEncryption
+            // each record is encrypted on its own, or the whole segment as one stream
+            val frames = recordEncryption?.encryptRecords(encodedRecords, file.name) ?: encodedRecords
+            val os =
+                if (recordEncryption != null) {
+                    file.outputStream()
+                } else {
+                    config.encryption?.encrypt(file.outputStream()) ?: file.outputStream()
                 }
-                first.deleteSafely(config)
-                config.logger.log("Queue is full, the oldest ${spec.recordsLabel} ${first.name} is dropped.")
-            } catch (ignored: NoSuchElementException) {
+            os.buffered().use { theOutputStream ->
+                writeSegment(theOutputStream, frames)
+            }
+            synchronized(dequeLock) {
+                lanes[lane.ordinal].deque.add(
+                    QueuedFile(file, encodedBytes, encodedRecords.size, lane, batchBytes = batchBytes),
+                )
+                queuedRecords += encodedRecords.size
             }
+            config.logger.log { "Queued ${encodedRecords.size} ${spec.recordsLabel}: ${file.name}." }
+            config.metrics.count(PostHogMetrics.RECORDS_ENQUEUED, encodedRecords.size.toLong(), metricTags)
+
+            return true
+        } catch (e: Throwable) {
+            config.logger.log("${file.name} failed to write: $e.")
+            countDropped(encodedRecords.size, "invalid")
+
+            file.deleteSafely(config)
         }
+
+        return false
     }
 
     /**
-     * Ensures cached records from disk are loaded into the deque exactly once.
+     * Drops the oldest files of the lowest lane until there's room for [incoming] records.
+     */
+    private fun removeRecordSync(incoming: Int = 1) {
+        val maxQueueSize = spec.maxQueueSize(config)
+        while (true) {
+            val file: File
+            val count: Int
+            synchronized(dequeLock) {
+                if (queuedRecords + inFlightRecords + incoming <= maxQueueSize) {
+                    return
+                }
+                // the in-flight window can't be dropped, it's acknowledged or rolled back as a whole
+                val lane = lanes.lastOrNull { it.isNotEmpty() } ?: return
+                val oldest = lane.backlog.poll()
+                if (oldest != null) {
+                    file = oldest.file
+                    count = oldest.count
+                } else {
+                    val first = lane.deque.removeFirst()
+                    file = first.file
+                    count = first.count
+                }
+                queuedRecords -= count
+            }
+            file.deleteSafely(config)
+            config.logger.log { "Queue is full, the oldest ${spec.recordsLabel} ${file.name} is dropped." }
+            countDropped(count, "queue_full")
+        }
+    }
+
+    /**
+     * Ensures cached records from disk are loaded into the lanes exactly once.
      * Must be called on the executor thread (single-threaded executor, no lock needed).
      */
     private fun ensureCachedRecordsLoaded() {
@@ -118,6 +271,7 @@ public class PostHogQueue<Record>(
             } finally {
                 cachedRecordsLoaded = true
             }
+            recordDepth()
         }
     }
 
@@ -125,9 +279,12 @@ public class PostHogQueue<Record>(
         record: Record,
         isFatal: Boolean = false,
     ) {
+        // records waiting for a group commit were added first
+        commitPendingSync(flushIfOverThreshold = false)
         ensureCachedRecordsLoaded()
         removeRecordSync()
         if (addRecordSync(record)) {
+            recordDepth()
             // this is best effort since we dont know if theres
             // enough time to flush records to the wire
             flushIfOverThreshold(isFatal)
@@ -139,6 +296,8 @@ public class PostHogQueue<Record>(
             executor.submitSyncSafely {
                 flushRecordSync(record, true)
             }
+        } else if (config.queueGroupCommitWindowMs > 0 && spec.storagePrefix != null) {
+            addPending(record)
         } else {
             executor.executeSafely {
                 flushRecordSync(record)
@@ -146,6 +305,75 @@ public class PostHogQueue<Record>(
         }
     }
 
+    private fun addPending(record: Record) {
+        val commit = Runnable { commitPendingSync(flushIfOverThreshold = true) }
+        val scheduler = executor as? ScheduledExecutorService
+        synchronized(pendingLock) {
+            pending.add(record)
+            if (commitScheduled) {
+                return
+            }
+            commitScheduled = true
+            if (scheduler != null) {
+                // published with the flag so a commit running meanwhile cancels this one, not an older one
+                try {
+                    scheduledCommit =
+                        scheduler.schedule(commit, config.queueGroupCommitWindowMs.toLong(), TimeUnit.MILLISECONDS)
+                } catch (e: Throwable) {
+                    // e.g. RejectedExecutionException, the next record tries again
+                    commitScheduled = false
+                }
+                return
+            }
+        }
+
+        // no timer, commit whatever piled up once the executor gets to it
+        try {
+            executor.execute(commit)
+        } catch (e: Throwable) {
+            synchronized(pendingLock) {
+                commitScheduled = false
+            }
+        }
+    }
+
+    /**
+     * Writes the records added during the group commit window, at most a batch per file so a
+     * segment always fits in a batch. Must be called on the executor thread.
+     */
+    private fun commitPendingSync(flushIfOverThreshold: Boolean) {
+        val records: List<Record>
+        synchronized(pendingLock) {
+            // committed before the window ended, e.g. by a flush
+            scheduledCommit?.cancel(false)
+            scheduledCommit = null
+            commitScheduled = false
+            if (pending.isEmpty()) {
+                return
+            }
+            records = ArrayList(pending)
+            pending.clear()
+        }
+
+        ensureCachedRecordsLoaded()
+        var added = false
+        // a segment is stored in a single lane
+        val laneRecords = records.groupBy { spec.lane(it) }
+        for (lane in PostHogQueueLane.values()) {
+            for (chunk in laneRecords[lane]?.chunked(batchLimits.cap) ?: continue) {
+                removeRecordSync(chunk.size)
+                val chunkAdded = if (chunk.size == 1) addRecordSync(chunk.first()) else addSegmentSync(chunk, lane)
+                added = added || chunkAdded
+            }
+        }
+        if (added) {
+            recordDepth()
+        }
+        if (added && flushIfOverThreshold) {
+            flushIfOverThreshold(false)
+        }
+    }
+
     private fun flushIfOverThreshold(isFatal: Boolean) {
         if (isAboveThreshold(batchLimits.flushAt)) {
             flushBatch(isFatal)
@@ -153,30 +381,125 @@ public class PostHogQueue<Record>(
     }
 
     private fun isAboveThreshold(flushAt: Int): Boolean {
-        if (deque.size >= flushAt) {
+        if (queuedRecords >= flushAt) {
             return true
-        } else if (deque.size > 0) {
+        } else if (queuedRecords > 0) {
             // only log if there are records in the queue
-            config.logger.log("Cannot flush the Queue yet, below the threshold: $flushAt")
+            config.logger.log { "Cannot flush the Queue yet, below the threshold: $flushAt" }
         }
         return false
     }
 
     private fun canFlushBatch(): Boolean {
         if (pausedUntil?.after(config.dateProvider.currentDate()) == true) {
-            config.logger.log("Queue is paused until $pausedUntil")
+            config.logger.log { "Queue is paused until $pausedUntil" }
             return false
         }
 
         return true
     }
 
-    private fun takeFiles(): List<File> {
-        val events: List<File>
+    /**
+     * Moves the oldest files of the highest lanes up to the batch cap, and up to the byte budget if
+     * the endpoint has one, from the lanes into the in-flight window. The first file is always
+     * taken, so a record larger than the budget is sent on its own.
+     * Must be followed by [acknowledgeInFlight] or [rollBackInFlight].
+     */
+    private fun takeFiles(): List<QueuedFile> {
+        val maxBytes = batchLimits.maxBytes
         synchronized(dequeLock) {
-            events = deque.take(batchLimits.cap)
+            var records = 0
+            var bytes = 0L
+            while (true) {
+                val file = peekOldestLocked() ?: break
+                if (inFlight.isNotEmpty() &&
+                    (records + file.count > batchLimits.cap || (maxBytes > 0 && bytes + file.batchBytes > maxBytes))
+                ) {
+                    break
+                }
+                val lane = lanes[file.lane.ordinal]
+                if (file.backlogFile != null) {
+                    lane.backlog.poll()
+                } else {
+                    lane.deque.removeFirst()
+                }
+                inFlight.add(file)
+                queuedRecords -= file.count
+                inFlightRecords += file.count
+                records += file.count
+                bytes += file.batchBytes
+            }
+            return inFlight.toList()
+        }
+    }
+
+    /**
+     * The oldest queued file of the highest lane that isn't empty, the head of its backlog if
+     * there's one. Must hold [dequeLock].
+     */
+    private fun peekOldestLocked(): QueuedFile? {
+        for (lane in lanes) {
+            val backlogFile = lane.backlog.peek()
+            if (backlogFile != null) {
+                // written by an earlier process, the size on disk stands in for the encoded size
+                val size = backlogFile.file.length()
+                return QueuedFile(
+                    backlogFile.file,
+                    size,
+                    backlogFile.count,
+                    lane.lane,
+                    backlogFile,
+                    backlogFile.batchBytes ?: size,
+                )
+            }
+            lane.deque.firstOrNull()?.let { return it }
+        }
+        return null
+    }
+
+    private fun hasQueuedFiles(): Boolean {
+        synchronized(dequeLock) {
+            return lanes.any { it.isNotEmpty() }
+        }
+    }
+
+    /**
+     * Drops the in-flight window from the index, its files are deleted by the caller.
+     */
+    private fun acknowledgeInFlight(): List<QueuedFile> {
+        synchronized(dequeLock) {
+            val files = inFlight
+            inFlight = ArrayList()
+            inFlightRecords = 0
+            return files
+        }
+    }
+
+    /**
+     * Puts the in-flight window back at the head of the lanes it was taken from, so it's the next
+     * batch taken.
+     */
+    private fun rollBackInFlight() {
+        synchronized(dequeLock) {
+            for (lane in lanes) {
+                val dequeFiles = ArrayList<QueuedFile>()
+                for (file in inFlight) {
+                    if (file.lane != lane.lane) {
+                        continue
+                    }
+                    val backlogFile = file.backlogFile
+                    if (backlogFile != null) {
+                        lane.backlog.add(backlogFile)
+                    } else {
+                        dequeFiles.add(file)
+                    }
+                }
+                lane.deque.addAll(0, dequeFiles)
+            }
+            queuedRecords += inFlightRecords
+            inFlight.clear()
+            inFlightRecords = 0
         }
-        return events
     }
 
     private fun flushBatch(isFatal: Boolean) {
@@ -209,9 +532,10 @@ public class PostHogQueue<Record>(
                 config.logger.log("Max retries (${config.maxRetries}) exceeded, dropping ${spec.recordsLabel}.")
                 retryCount = 0
                 pausedUntil = null
-                dropAllRecords()
+                countDropped(dropAllRecords(), "max_retries")
             } else {
                 retry = true
+                config.metrics.count(PostHogMetrics.RETRIES, 1, metricTags)
 
                 if (e is PostHogApiError) {
                     retryAfterSeconds = e.retryAfterSeconds
@@ -236,14 +560,30 @@ public class PostHogQueue<Record>(
     }
 
     private fun deleteFileSafely(
-        file: File,
+        queuedFile: QueuedFile,
         throwable: Throwable? = null,
     ) {
+        val file = queuedFile.file
         synchronized(dequeLock) {
-            deque.remove(file)
+            if (inFlight.remove(queuedFile)) {
+                inFlightRecords -= queuedFile.count
+            }
         }
         file.deleteSafely(config)
         config.logger.log("File: ${file.name} failed to parse: $throwable.")
+        countDropped(1, "invalid")
+    }
+
+    /**
+     * Decodes the record at [index] of the segment [file]
+     */
+    private fun decodeSegmentRecord(
+        file: File,
+        index: Int,
+        stream: InputStream,
+    ): Record? {
+        val recordEncryption = config.encryption as? PostHogRecordEncryption ?: return spec.decode(stream)
+        return spec.decode(recordEncryption.decryptRecord(stream.readBytes(), file.name, index).inputStream())
     }
 
     @Throws(PostHogApiError::class, IOException::class)
@@ -251,33 +591,78 @@ public class PostHogQueue<Record>(
         val files = takeFiles()
 
         val records = mutableListOf<Record>()
-        for (file in files) {
-            try {
-                val inputStream = config.encryption?.decrypt(file.inputStream()) ?: file.inputStream()
-                inputStream.use {
-                    val record = spec.decode(it)
-                    record?.let { theRecord ->
-                        records.add(theRecord)
-                    } ?: run {
-                        deleteFileSafely(file)
+        var recordsBytes = 0L
+        var deleteFiles = true
+        var sent = false
+        try {
+            for (queuedFile in files) {
+                val file = queuedFile.file
+                try {
+                    val inputStream =
+                        if (file.isSegmentFile() && config.encryption is PostHogRecordEncryption) {
+                            file.inputStream()
+                        } else {
+                            config.encryption?.decrypt(file.inputStream()) ?: file.inputStream()
+                        }
+                    inputStream.use {
+                        if (file.isSegmentFile()) {
+                            var index = 0
+                            val decoded =
+                                readSegment(it.buffered()) { record -> decodeSegmentRecord(file, index++, record) }
+                            val segmentRecords = decoded.filterNotNull()
+                            if (segmentRecords.isEmpty()) {
+                                deleteFileSafely(queuedFile)
+                            } else {
+                                countDropped(decoded.size - segmentRecords.size, "invalid")
+                                records.addAll(segmentRecords)
+                                recordsBytes += queuedFile.batchBytes
+                            }
+                            return@use
+                        }
+                        val record = spec.decode(it)
+                        record?.let { theRecord ->
+                            records.add(theRecord)
+                            recordsBytes += queuedFile.batchBytes
+                        } ?: run {
+                            deleteFileSafely(queuedFile)
+                        }
                     }
+                } catch (e: Throwable) {
+                    deleteFileSafely(queuedFile, e)
                 }
-            } catch (e: Throwable) {
-                deleteFileSafely(file, e)
             }
-        }
 
-        var deleteFiles = true
-        try {
             if (records.isNotEmpty()) {
                 config.logger.log("Flushing ${records.size} ${spec.recordsLabel}.")
+                config.metrics.record(PostHogMetrics.BATCH_SIZE, records.size.toDouble(), metricTags)
 
                 spec.send(records)
+                sent = true
 
                 config.logger.log("Flushed ${records.size} ${spec.recordsLabel} successfully.")
+                config.metrics.count(PostHogMetrics.RECORDS_SENT, records.size.toLong(), metricTags)
             }
         } catch (e: PostHogApiError) {
-            deleteFiles = deleteFilesIfAPIError(e, batchLimits, records.size, config.logger, spec.isRetriableStatusCode)
+            val cap = batchLimits.cap
+            val maxBytes = batchLimits.maxBytes
+            deleteFiles =
+                deleteFilesIfAPIError(
+                    e,
+                    batchLimits,
+                    records.size,
+                    config.logger,
+                    spec.isRetriableStatusCode,
+                    actualBatchBytes = recordsBytes,
+                )
+            if (batchLimits.cap != cap || batchLimits.maxBytes != maxBytes) {
+                config.metrics.count(PostHogMetrics.BATCH_LIMIT_HALVINGS, 1, metricTags)
+            }
+
+            // a segment is taken as a whole, so smaller batches alone would never get past it
+            if (e.statusCode == 413 && splitSegment(files, records)) {
+                deleteFiles = false
+                return
+            }
 
             // only re-throw if retriable (files kept), so executeWithRetry
             // can track retryCount and apply backoff
@@ -295,15 +680,45 @@ public class PostHogQueue<Record>(
             throw e
         } finally {
             if (deleteFiles) {
-                synchronized(dequeLock) {
-                    deque.removeAll(files)
+                if (!sent) {
+                    countDropped(records.size, "rejected")
                 }
-
-                files.forEach {
-                    it.deleteSafely(config)
+                acknowledgeInFlight().forEach {
+                    it.file.deleteSafely(config)
                 }
+            } else {
+                rollBackInFlight()
             }
+            recordDepth()
+        }
+    }
+
+    /**
+     * Rewrites a batch made of a single segment that was too large as one file per record, at the
+     * head of its lane, so the next batches are packed by record and only a record that's too large
+     * on its own is rejected. Returns false if [files] isn't a single segment of several records.
+     */
+    private fun splitSegment(
+        files: List<QueuedFile>,
+        records: List<Record>,
+    ): Boolean {
+        val segment = files.singleOrNull() ?: return false
+        if (!segment.file.isSegmentFile() || records.size < 2) {
+            return false
+        }
+        val dir = segment.file.parentFile ?: return false
+
+        val split = records.mapNotNull { writeRecordFile(it, segment.lane, dir) }
+        synchronized(dequeLock) {
+            inFlight.clear()
+            inFlightRecords = 0
+            lanes[segment.lane.ordinal].deque.addAll(0, split)
+            queuedRecords += split.size
         }
+        segment.file.deleteSafely(config)
+        config.logger.log("${segment.file.name} is too large, split into ${split.size} ${spec.recordsLabel}.")
+
+        return true
     }
 
     override fun flush() {
@@ -313,6 +728,8 @@ public class PostHogQueue<Record>(
         }
 
         executor.executeSafely {
+            // write the records waiting for a group commit, they go out with this flush
+            commitPendingSync(flushIfOverThreshold = false)
             // load any cached records from disk before checking the threshold
             ensureCachedRecordsLoaded()
 
@@ -334,7 +751,7 @@ public class PostHogQueue<Record>(
             }
 
             executeWithRetry {
-                while (deque.isNotEmpty()) {
+                while (hasQueuedFiles()) {
                     batchRecords()
                 }
             }
@@ -349,15 +766,43 @@ public class PostHogQueue<Record>(
         return true
     }
 
-    private fun dropAllRecords() {
+    private fun dropAllRecords(): Int {
         val tempFiles: List<File>
+        val count: Int
         synchronized(dequeLock) {
-            tempFiles = deque.toList()
-            deque.clear()
+            tempFiles = inFlight.map { it.file } + lanes.flatMap { it.files() }
+            count = queuedRecords + inFlightRecords
+            inFlight = ArrayList()
+            inFlightRecords = 0
+            lanes.forEach { it.clear() }
+            queuedRecords = 0
         }
         tempFiles.forEach {
             it.deleteSafely(config)
         }
+        recordDepth()
+        return count
+    }
+
+    /**
+     * Reports the records held by the queue, queued and in flight, see [PostHogMetrics.QUEUE_DEPTH].
+     */
+    private fun recordDepth() {
+        val depth = synchronized(dequeLock) { queuedRecords + inFlightRecords }
+        config.metrics.record(PostHogMetrics.QUEUE_DEPTH, depth.toDouble(), metricTags)
+    }
+
+    private fun countDropped(
+        count: Int,
+        reason: String,
+    ) {
+        if (count > 0) {
+            config.metrics.count(
+                PostHogMetrics.RECORDS_DROPPED,
+                count.toLong(),
+                mapOf(PostHogMetrics.TAG_ENDPOINT to spec.recordsLabel, PostHogMetrics.TAG_REASON to reason),
+            )
+        }
     }
 
     private fun calculateDelay(
@@ -400,52 +845,56 @@ public class PostHogQueue<Record>(
     }
 
     /**
-     * Loads cached record files from disk into the deque so they are sent in order
-     * with any new records added after SDK start.
+     * Loads cached record files from disk into the backlog of their lanes so they are sent in
+     * order, before any new records added after SDK start. Only the file names are read, a file's
+     * size once it's the oldest left. Listing the directories and ordering the names still takes
+     * longer, and an entry per file more memory, with a larger backlog.
      */
     private fun loadCachedRecords() {
-        val files = loadQueueFilesFromDisk()
-        if (files.isEmpty()) return
+        val files = PostHogQueueLane.values().map { loadBacklogFromDisk(it) }
+        val count = files.sumOf { it.size }
+        if (count == 0) return
 
         synchronized(dequeLock) {
-            // prepend cached files before any records already in the deque
-            // so that older records are sent first
-            val existingFiles = deque.toList()
-            deque.clear()
-            deque.addAll(files)
-            deque.addAll(existingFiles)
+            // loaded once, before any batch is taken
+            for ((ordinal, laneFiles) in files.withIndex()) {
+                lanes[ordinal].backlog = PriorityQueue(laneFiles)
+                queuedRecords += laneFiles.sumOf { it.count }
+            }
         }
-        config.logger.log("Loaded ${files.size} cached ${spec.recordsLabel} from disk.")
+        config.logger.log("Loaded $count cached ${spec.recordsLabel} from disk.")
     }
 
-    private fun loadQueueFilesFromDisk(): List<File> {
-        val dir = queueDirectory ?: return emptyList()
+    private fun loadBacklogFromDisk(lane: PostHogQueueLane): List<BacklogFile> {
+        val dir = laneDirectory(lane) ?: return emptyList()
 
         if (!dir.existsSafely(config)) {
             return emptyList()
         }
 
-        val files = (dir.listFiles() ?: emptyArray()).toMutableList()
-        if (files.isEmpty()) {
-            return emptyList()
+        val names = dir.list() ?: return emptyList()
+        // ordered by the time in their names, see [queuedAtMillis]
+        return names.map { name ->
+            val file = File(dir, name)
+            BacklogFile(file, file.queuedAtMillis())
         }
-
-        // sort by last modified date ascending so records are sent in order
-        files.sortBy { file -> file.lastModified() }
-        return files
     }
 
     private fun reloadFromDiskSync() {
-        val files = loadQueueFilesFromDisk()
+        val files = PostHogQueueLane.values().map { loadBacklogFromDisk(it) }
         synchronized(dequeLock) {
-            deque.clear()
-            deque.addAll(files)
+            queuedRecords = 0
+            for ((ordinal, laneFiles) in files.withIndex()) {
+                lanes[ordinal].deque.clear()
+                lanes[ordinal].backlog = PriorityQueue(laneFiles)
+                queuedRecords += laneFiles.sumOf { it.count }
+            }
         }
         cachedRecordsLoaded = true
     }
 
     /**
-     * Rebuilds the in-memory deque from disk, sorted by file last-modified time.
+     * Rebuilds the in-memory index from disk, ordered by the time the files were written.
      */
     @PostHogInternal
     public fun reloadFromDisk() {
@@ -464,10 +913,20 @@ public class PostHogQueue<Record>(
             stopTimer()
         }
 
+        // don't keep records waiting for the group commit window
+        if (synchronized(pendingLock) { pending.isNotEmpty() }) {
+            executor.executeSafely {
+                commitPendingSync(flushIfOverThreshold = false)
+            }
+        }
+
         config.networkStatus?.unregister()
     }
 
     override fun clear() {
+        synchronized(pendingLock) {
+            pending.clear()
+        }
         executor.executeSafely {
             dropAllRecords()
         }
@@ -478,7 +937,7 @@ public class PostHogQueue<Record>(
         get() {
             val tempFiles: List<File>
             synchronized(dequeLock) {
-                tempFiles = deque.toList()
+                tempFiles = inFlight.map { it.file } + lanes.flatMap { it.files(sorted = true) }
             }
             return tempFiles
         }
@@ -490,13 +949,86 @@ public class PostHogQueue<Record>(
     internal val currentFlushAtForTesting: Int
         @PostHogVisibleForTesting
         get() = batchLimits.flushAt
+
+    internal val currentMaxBytesForTesting: Long
+        @PostHogVisibleForTesting
+        get() = batchLimits.maxBytes
+
+    /**
+     * The files of a lane: its backlog, all older than the files of its deque, which were written
+     * by this process
+     */
+    private class LaneIndex(val lane: PostHogQueueLane) {
+        val deque = ArrayDeque<QueuedFile>()
+
+        // files left on disk by an earlier process, oldest first, resolved into the deque's
+        // entries only as batches are taken, see [loadCachedRecords]
+        var backlog = PriorityQueue<BacklogFile>()
+
+        fun isNotEmpty(): Boolean = backlog.isNotEmpty() || deque.isNotEmpty()
+
+        fun files(sorted: Boolean = false): List<File> {
+            val backlogFiles = if (sorted) backlog.sorted() else backlog.toList()
+            return backlogFiles.map { it.file } + deque.map { it.file }
+        }
+
+        fun clear() {
+            deque.clear()
+            backlog = PriorityQueue()
+        }
+    }
+}
+
+/**
+ * A queued record file, the encoded size of its records in bytes and the number of records,
+ * more than one for segment files
+ */
+internal class QueuedFile(
+    val file: File,
+    val size: Long,
+    val count: Int = 1,
+    val lane: PostHogQueueLane = PostHogQueueLane.NORMAL,
+    // the backlog entry the file was taken from, it goes back there if its batch is rolled back
+    val backlogFile: BacklogFile? = null,
+    // the size of its records in a request body, batches are packed by it, see [EndpointSpec.encode]
+    val batchBytes: Long = size,
+)
+
+/**
+ * A record file left on disk by an earlier process, ordered by the time it was written
+ */
+internal class BacklogFile(
+    val file: File,
+    private val queuedAtMillis: Long,
+) : Comparable<BacklogFile> {
+    val count: Int = file.segmentRecordCount()
+
+    val batchBytes: Long? = file.batchBytesFromName()
+
+    override fun compareTo(other: BacklogFile): Int {
+        val byTime = queuedAtMillis.compareTo(other.queuedAtMillis)
+        // UUIDv7 names of the same millisecond are ordered by their counter
+        return if (byTime != 0) byTime else file.name.compareTo(other.file.name)
+    }
 }
 
 internal class BatchLimits(
     var cap: Int,
     var flushAt: Int,
+    // byte budget of a batch, 0 if batches are only capped by their number of records
+    var maxBytes: Long = 0,
 ) {
-    fun halve(actualBatchSize: Int) {
+    fun halve(
+        actualBatchSize: Int,
+        actualBatchBytes: Long = 0,
+    ) {
+        if (maxBytes > 0 && actualBatchBytes > 0) {
+            // batches are sized by bytes, so only shrink the byte budget and
+            // leave the record limits alone for batches of small records
+            maxBytes = (minOf(maxBytes, actualBatchBytes) / 2).coerceAtLeast(1)
+            return
+        }
+
         cap =
             minOf(cap, actualBatchSize)
                 .div(2)
@@ -522,6 +1054,7 @@ internal fun deleteFilesIfAPIError(
     actualBatchSize: Int,
     logger: PostHogLogger,
     isRetriableStatusCode: (Int) -> Boolean = ::isEventsRetriableStatusCode,
+    actualBatchBytes: Long = 0,
 ): Boolean {
     if (e.statusCode < 400) {
         logger.log("Flushing failed with ${e.statusCode}, let's try again soon.")
@@ -532,7 +1065,7 @@ internal fun deleteFilesIfAPIError(
     if (e.statusCode == 413 && actualBatchSize > 1 && batchLimits.cap > 1) {
         // try to reduce multi-event batches and flushAt until the cap is 1.
         // A single event that receives 413 is not retryable because splitting cannot help.
-        batchLimits.halve(actualBatchSize)
+        batchLimits.halve(actualBatchSize, actualBatchBytes)
 
         logger.log("Flushing failed with ${e.statusCode}, let's try again with a smaller batch.")
 
@@ -0,0 +1,39 @@
+package com.posthog.internal
+
+import com.posthog.PostHogEvent
+import com.posthog.PostHogEventName
+
+/**
+ * Priority lanes of [PostHogQueue], in the order they are drained. Each lane is stored in its own
+ * directory, so records of a higher lane go out first even behind a large backlog of a lower one.
+ * When the queue is full, the oldest records of the lowest lane are dropped first.
+ *
+ * @property directorySuffix appended to the queue directory's name for the lane's directory, null
+ * for the queue directory itself so records written before lanes existed stay in the normal lane
+ */
+internal enum class PostHogQueueLane(val directorySuffix: String?) {
+    /** Fatal exceptions, the process is likely about to die. */
+    FATAL(".fatal"),
+
+    /** Records that later records depend on, e.g. identify and alias events. */
+    CRITICAL(".critical"),
+
+    NORMAL(null),
+
+    /** Bulky records that are fine to arrive late, e.g. replay snapshots. */
+    LOW(".low"),
+}
+
+/**
+ * The lane of an event in the events queue, fatal exceptions go first even without [priorityLanes]
+ */
+internal fun PostHogEvent.queueLane(priorityLanes: Boolean): PostHogQueueLane =
+    when {
+        isFatalExceptionEvent() -> PostHogQueueLane.FATAL
+        !priorityLanes -> PostHogQueueLane.NORMAL
+        event == PostHogEventName.IDENTIFY.event ||
+            event == PostHogEventName.CREATE_ALIAS.event ||
+            event == PostHogEventName.GROUP_IDENTIFY.event -> PostHogQueueLane.CRITICAL
+        event == PostHogEventName.SNAPSHOT.event -> PostHogQueueLane.LOW
+        else -> PostHogQueueLane.NORMAL
+    }
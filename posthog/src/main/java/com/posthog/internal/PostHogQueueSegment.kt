@@ -0,0 +1,137 @@
+package com.posthog.internal
+
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.UUID
+
+/**
+ * Segment files hold the records of one group commit of [PostHogQueue] in a single (optionally
+ * encrypted) stream, each record framed by its encoded length as a 4 byte big endian int. With a
+ * [com.posthog.PostHogRecordEncryption] the stream is plain and each record is encrypted on its own.
+ *
+ * They are named `<uuid>.<record count>.events`, so the queue counts the records of a segment
+ * loaded from disk without reading it. Single record files keep the `<uuid>.event` format.
+ *
+ * If the records' size in a request body isn't their encoded size, e.g. binary records sent as
+ * JSON, the name also holds that size before the suffix, `<uuid>.<record count>.<bytes>.events`
+ * and `<uuid>.<bytes>.event`, see [EndpointSpec.encode].
+ */
+internal const val SEGMENT_FILE_SUFFIX = ".events"
+
+internal const val RECORD_FILE_SUFFIX = ".event"
+
+internal fun segmentFileName(
+    uuid: UUID,
+    count: Int,
+    batchBytes: Long? = null,
+): String = "$uuid.$count${batchBytes?.let { ".$it" }.orEmpty()}$SEGMENT_FILE_SUFFIX"
+
+internal fun recordFileName(
+    uuid: UUID,
+    batchBytes: Long? = null,
+): String = "$uuid${batchBytes?.let { ".$it" }.orEmpty()}$RECORD_FILE_SUFFIX"
+
+internal fun File.isSegmentFile(): Boolean = name.endsWith(SEGMENT_FILE_SUFFIX)
+
+/**
+ * The number of records in a segment file according to its name, 1 for single record files
+ */
+internal fun File.segmentRecordCount(): Int {
+    if (!isSegmentFile()) {
+        return 1
+    }
+    return name.split('.').getOrNull(1)?.toIntOrNull()?.coerceAtLeast(1) ?: 1
+}
+
+/**
+ * The size of the records of a queue file in a request body according to its name, null if it's
+ * their encoded size
+ */
+internal fun File.batchBytesFromName(): Long? {
+    val parts = name.split('.')
+    // the size comes before the suffix, after the record count of a segment
+    val index = if (isSegmentFile()) 2 else 1
+    return if (parts.size == index + 2) parts[index].toLongOrNull() else null
+}
+
+/**
+ * Writes the already encoded records to [stream], each framed by its length
+ */
+internal fun writeSegment(
+    stream: OutputStream,
+    encodedRecords: List<ByteArray>,
+) {
+    val output = DataOutputStream(stream)
+    for (encoded in encodedRecords) {
+        output.writeInt(encoded.size)
+        output.write(encoded)
+    }
+    output.flush()
+}
+
+/**
+ * Reads the framed records of a segment from [stream]. A record that fails to decode is returned
+ * as null, a truncated last frame (e.g. the process died while writing) ends the segment.
+ */
+internal fun <Record> readSegment(
+    stream: InputStream,
+    decode: (InputStream) -> Record?,
+): List<Record?> {
+    val input = DataInputStream(stream)
+    val records = mutableListOf<Record?>()
+    while (true) {
+        val encoded: ByteArray
+        try {
+            val length = input.readInt()
+            if (length < 0) {
+                break
+            }
+            encoded = ByteArray(length)
+            input.readFully(encoded)
+        } catch (e: EOFException) {
+            break
+        }
+        val record =
+            try {
+                decode(ByteArrayInputStream(encoded))
+            } catch (e: Throwable) {
+                null
+            }
+        records.add(record)
+    }
+    return records
+}
+
+/**
+ * The unix epoch millis a queue file was written at, taken from the UUIDv7 its name starts with so
+ * a backlog can be ordered without reading every file's attributes. Falls back to the last
+ * modified date for other names, e.g. a record with a custom uuid.
+ */
+internal fun File.queuedAtMillis(): Long {
+    val name = name
+    // xxxxxxxx-xxxx-7xxx-xxxx-xxxxxxxxxxxx, the first 48 bits are the timestamp
+    if (name.length < UUID_LENGTH || name[8] != '-' || name[13] != '-' || name[14] != '7' ||
+        name[18] != '-' || name[23] != '-'
+    ) {
+        return lastModified()
+    }
+    var millis = 0L
+    for (i in 0 until 13) {
+        if (i == 8) {
+            continue
+        }
+        val digit = Character.digit(name[i], 16)
+        if (digit < 0) {
+            return lastModified()
+        }
+        millis = (millis shl 4) or digit.toLong()
+    }
+    return millis
+}
+
+private const val UUID_LENGTH = 36
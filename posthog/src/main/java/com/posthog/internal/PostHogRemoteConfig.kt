@@ -75,6 +75,16 @@ public class PostHogRemoteConfig(
     private var groupPropertiesForFlags: MutableMap<String, MutableMap<String, Any>> = mutableMapOf()
 
     private var featureFlags: Map<String, Any>? = null
+
+    private class FeatureFlagEventProperties(
+        val flags: Map<String, Any>,
+        val properties: Map<String, Any>?,
+    )
+
+    // The event properties built from the featureFlags map they were built for, reused by every
+    // capture until featureFlags is replaced
+    @Volatile
+    private var featureFlagEventProperties: FeatureFlagEventProperties? = null
     private var featureFlagPayloads: Map<String, Any?>? = null
 
     // The served, enabled-only bootstrap flags, kept for $feature_flag_called enrichment. Only enabled
@@ -1292,6 +1302,21 @@ public class PostHogRemoteConfig(
         return flags
     }
 
+    override fun getFeatureFlagEventProperties(): Map<String, Any>? {
+        val flags = synchronized(featureFlagsLock) { featureFlags } ?: return null
+
+        // featureFlags is replaced, never mutated, on every update, so its identity versions the cache
+        featureFlagEventProperties?.let {
+            if (it.flags === flags) {
+                return it.properties
+            }
+        }
+
+        val properties = buildFeatureFlagEventProperties(flags)
+        featureFlagEventProperties = FeatureFlagEventProperties(flags, properties)
+        return properties
+    }
+
     /**
      * Returns the sorted keys of currently-active feature flags, or `null`
      * if flags haven't loaded. "Active" matches the events-side filter at
@@ -7,6 +7,7 @@ import com.google.gson.JsonSyntaxException
 import com.google.gson.reflect.TypeToken
 import com.posthog.PostHogConfig
 import com.posthog.PostHogInternal
+import com.posthog.PostHogJsonSerializer
 import com.posthog.internal.replay.GsonRREventTypeSerializer
 import com.posthog.internal.replay.GsonRRIncrementalSourceSerializer
 import com.posthog.internal.replay.GsonRRMouseInteractionsSerializer
@@ -35,31 +36,36 @@ import com.posthog.surveys.SurveyTextContentType
 import com.posthog.surveys.SurveyType
 import java.io.IOException
 import java.io.Reader
+import java.io.StringReader
+import java.io.StringWriter
 import java.io.Writer
+import java.lang.reflect.Type
 import java.util.Date
 
 /**
- * The JSON serializer using Gson
+ * The JSON serializer using Gson, values are encoded and decoded with [jsonSerializer]
  * @property config the Config
+ * @param streamingModels whether events, batches and replay models are written by
+ * [GsonStreamingAdapterFactory] instead of by reflection, only turned off to compare both
  */
 @Suppress("DEPRECATION")
 @PostHogInternal
-public class PostHogSerializer(private val config: PostHogConfig) {
+public class PostHogSerializer internal constructor(
+    private val config: PostHogConfig,
+    streamingModels: Boolean,
+) : PostHogJsonSerializer {
+    public constructor(config: PostHogConfig) : this(config, streamingModels = true)
+
     public val gson: Gson =
         GsonBuilder().apply {
             // general
             setObjectToNumberStrategy(GsonNumberPolicy())
             registerTypeAdapter(Date::class.java, GsonDateTypeAdapter(config))
-            val mapSerializer = GsonSafeMapSerializer(config)
-            registerTypeAdapter(
-                object : TypeToken<Map<String, Any?>>() {}.type,
-                mapSerializer,
-            )
-            registerTypeAdapter(
-                object : TypeToken<MutableMap<String, Any?>>() {}.type,
-                mapSerializer,
-            )
-                .setLenient()
+            registerTypeAdapterFactory(GsonSafeMapSerializer(config))
+            setLenient()
+            if (streamingModels) {
+                registerTypeAdapterFactory(GsonStreamingAdapterFactory(config))
+            }
             // replay
             registerTypeAdapter(RREventType::class.java, GsonRREventTypeSerializer(config))
             registerTypeAdapter(RRIncrementalSource::class.java, GsonRRIncrementalSourceSerializer(config))
@@ -83,18 +89,25 @@ public class PostHogSerializer(private val config: PostHogConfig) {
             registerTypeAdapter(PropertyType::class.java, GsonPropertyTypeAdapter())
         }.create()
 
+    /**
+     * The serializer values are encoded and decoded with, [PostHogConfig.jsonSerializer] if set,
+     * otherwise this one with Gson
+     */
+    public val jsonSerializer: PostHogJsonSerializer
+        get() = config.jsonSerializer ?: this
+
     @Throws(JsonIOException::class, IOException::class)
     public inline fun <reified T> serialize(
         value: T,
         writer: Writer,
     ) {
-        gson.toJson(value, object : TypeToken<T>() {}.type, writer)
+        jsonSerializer.serialize(value, object : TypeToken<T>() {}.type, writer)
         writer.flush()
     }
 
     @Throws(JsonIOException::class, JsonSyntaxException::class)
     public inline fun <reified T> deserialize(reader: Reader): T {
-        return gson.fromJson(reader, object : TypeToken<T>() {}.type)
+        return jsonSerializer.deserialize(reader, object : TypeToken<T>() {}.type)
     }
 
     @Throws(JsonIOException::class, JsonSyntaxException::class)
@@ -104,10 +117,29 @@ public class PostHogSerializer(private val config: PostHogConfig) {
     }
 
     public fun deserializeString(json: String): Any? {
-        return gson.fromJson(json, Any::class.java)
+        return jsonSerializer.deserialize(StringReader(json), Any::class.java)
     }
 
     public fun serializeObject(value: Any): String? {
-        return gson.toJson(value, Any::class.java)
+        val writer = StringWriter()
+        jsonSerializer.serialize(value, Any::class.java, writer)
+        return writer.toString()
+    }
+
+    @Throws(JsonIOException::class, IOException::class)
+    override fun serialize(
+        value: Any?,
+        type: Type,
+        writer: Writer,
+    ) {
+        gson.toJson(value, type, writer)
+    }
+
+    @Throws(JsonIOException::class, JsonSyntaxException::class)
+    override fun <T> deserialize(
+        reader: Reader,
+        type: Type,
+    ): T {
+        return gson.fromJson(reader, type)
     }
 }
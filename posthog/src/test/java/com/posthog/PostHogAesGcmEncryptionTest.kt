@@ -0,0 +1,113 @@
+package com.posthog
+
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.security.GeneralSecurityException
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+
+internal class PostHogAesGcmEncryptionTest {
+    private val sut = PostHogAesGcmEncryption(ByteArray(32) { it.toByte() })
+
+    private fun encrypt(data: ByteArray): ByteArray {
+        val output = ByteArrayOutputStream()
+        sut.encrypt(output).use { it.write(data) }
+        return output.toByteArray()
+    }
+
+    private fun decrypt(data: ByteArray): ByteArray = sut.decrypt(data.inputStream()).use { it.readBytes() }
+
+    @Test
+    fun `stream round trips`() {
+        val data = "{\"event\":\"test\"}".toByteArray()
+
+        val encrypted = encrypt(data)
+
+        assertFalse(encrypted.contentEquals(data))
+        assertContentEquals(data, decrypt(encrypted))
+    }
+
+    @Test
+    fun `stream round trips across chunks`() {
+        // more than two chunks, written byte by byte and in arrays
+        val data = Random(42).nextBytes(40 * 1024)
+        val output = ByteArrayOutputStream()
+        sut.encrypt(output).use {
+            it.write(data[0].toInt())
+            it.write(data, 1, data.size - 1)
+        }
+
+        assertContentEquals(data, decrypt(output.toByteArray()))
+        assertContentEquals(ByteArray(0), decrypt(encrypt(ByteArray(0))))
+    }
+
+    @Test
+    fun `tampered streams fail to decrypt`() {
+        val encrypted = encrypt("{\"event\":\"test\"}".toByteArray())
+        encrypted[encrypted.size - 1] = (encrypted[encrypted.size - 1].toInt() xor 1).toByte()
+
+        assertFailsWith<IOException> { decrypt(encrypted) }
+    }
+
+    @Test
+    fun `truncated streams fail to decrypt`() {
+        val data = Random(42).nextBytes(20 * 1024)
+        val encrypted = encrypt(data)
+        // only the first, full chunk: flag, length, nonce, 16 KB and the tag
+        val firstChunk = encrypted.copyOf(1 + 4 + 12 + 16 * 1024 + 16)
+
+        assertFailsWith<IOException> { decrypt(firstChunk) }
+    }
+
+    @Test
+    fun `records round trip on their own`() {
+        val records = listOf("a", "bb", "").map { it.toByteArray() }
+
+        val encrypted = sut.encryptRecords(records, SEGMENT)
+
+        assertEquals(3, encrypted.size)
+        assertContentEquals("bb".toByteArray(), sut.decryptRecord(encrypted[1], SEGMENT, 1))
+        assertEquals(
+            records.map { String(it) },
+            encrypted.mapIndexed { index, record -> String(sut.decryptRecord(record, SEGMENT, index)) },
+        )
+    }
+
+    @Test
+    fun `records get their own nonce`() {
+        val record = "a".toByteArray()
+
+        val encrypted = sut.encryptRecords(listOf(record, record), SEGMENT)
+
+        assertFalse(encrypted[0].contentEquals(encrypted[1]))
+    }
+
+    @Test
+    fun `records fail to decrypt with another key`() {
+        val encrypted = sut.encryptRecords(listOf("a".toByteArray()), SEGMENT).single()
+        val other = PostHogAesGcmEncryption(ByteArray(32))
+
+        assertFailsWith<GeneralSecurityException> { other.decryptRecord(encrypted, SEGMENT, 0) }
+    }
+
+    @Test
+    fun `records fail to decrypt at another index or in another segment`() {
+        val encrypted = sut.encryptRecords(listOf("a".toByteArray(), "b".toByteArray()), SEGMENT)
+
+        assertFailsWith<GeneralSecurityException> { sut.decryptRecord(encrypted[0], SEGMENT, 1) }
+        assertFailsWith<GeneralSecurityException> { sut.decryptRecord(encrypted[1], "other.2.events", 1) }
+    }
+
+    @Test
+    fun `rejects keys of invalid length`() {
+        assertFailsWith<IllegalArgumentException> { PostHogAesGcmEncryption(ByteArray(10)) }
+    }
+
+    private companion object {
+        private const val SEGMENT = "0190a3b2-0000-7000-8000-000000000000.3.events"
+    }
+}
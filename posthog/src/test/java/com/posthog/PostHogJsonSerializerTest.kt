@@ -0,0 +1,60 @@
+package com.posthog
+
+import com.posthog.internal.PostHogSerializer
+import java.io.Reader
+import java.io.StringWriter
+import java.io.Writer
+import java.lang.reflect.Type
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+internal class PostHogJsonSerializerTest {
+    private val gson = PostHogSerializer(PostHogConfig(API_KEY))
+
+    /**
+     * Hands everything to Gson and remembers the types it was called with
+     */
+    private class RecordingJsonSerializer(private val gson: PostHogSerializer) : PostHogJsonSerializer {
+        val types = mutableListOf<Type>()
+
+        override fun serialize(
+            value: Any?,
+            type: Type,
+            writer: Writer,
+        ) {
+            types.add(type)
+            gson.serialize(value, type, writer)
+        }
+
+        override fun <T> deserialize(
+            reader: Reader,
+            type: Type,
+        ): T {
+            types.add(type)
+            return gson.deserialize(reader, type)
+        }
+    }
+
+    @Test
+    fun `config serializer uses the configured one`() {
+        val jsonSerializer = RecordingJsonSerializer(gson)
+        val config = PostHogConfig(API_KEY).apply { this.jsonSerializer = jsonSerializer }
+
+        assertSame(jsonSerializer, config.serializer.jsonSerializer)
+        assertSame(gson, gson.jsonSerializer)
+    }
+
+    @Test
+    fun `events are written and read with the configured one`() {
+        val jsonSerializer = RecordingJsonSerializer(gson)
+        val config = PostHogConfig(API_KEY).apply { this.jsonSerializer = jsonSerializer }
+
+        val writer = StringWriter()
+        config.serializer.serialize(generateEvent(), writer)
+        val event = config.serializer.deserialize<PostHogEvent?>(writer.toString().reader())
+
+        assertEquals(generateEvent(), event)
+        assertEquals(2, jsonSerializer.types.size)
+    }
+}
@@ -2,15 +2,19 @@ package com.posthog.internal
 
 import com.posthog.API_KEY
 import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.PostHogEventName
 import com.posthog.TestPostHogContext
 import com.posthog.awaitExecution
 import com.posthog.generateEvent
+import com.posthog.internal.errortracking.ThrowableCoercer
 import com.posthog.mockHttp
 import com.posthog.shutdownAndAwaitTermination
 import com.posthog.unGzip
 import okhttp3.mockwebserver.MockResponse
 import org.junit.Rule
 import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
 import java.io.File
 import java.util.concurrent.Executors
 import kotlin.test.Test
@@ -58,6 +62,7 @@ internal class EndpointSpecTest {
             encode = { record, stream ->
                 if (encodeFails) throw RuntimeException("encode failed")
                 stream.writer().buffered().use { it.write(record.value) }
+                null
             },
             decode = { stream ->
                 stream.reader().buffered().use { SyntheticRecord(it.readText()) }
@@ -269,6 +274,32 @@ internal class EndpointSpecTest {
         assertEquals(false, isEventsRetriableStatusCode(599))
     }
 
+    @Test
+    fun `events spec puts fatal, identify and snapshot events in their lanes`() {
+        val config = PostHogConfig(API_KEY).apply { queuePriorityLanes = true }
+        val spec = EndpointSpec.batch(config, PostHogApi(config), null)
+        val fatal =
+            PostHogEvent(
+                PostHogEventName.EXCEPTION.event,
+                "123",
+                properties =
+                    mutableMapOf(ThrowableCoercer.EXCEPTION_LEVEL_ATTRIBUTE to ThrowableCoercer.EXCEPTION_LEVEL_FATAL),
+            )
+
+        assertEquals(PostHogQueueLane.FATAL, spec.lane(fatal))
+        assertEquals(PostHogQueueLane.CRITICAL, spec.lane(generateEvent(PostHogEventName.IDENTIFY.event)))
+        assertEquals(PostHogQueueLane.CRITICAL, spec.lane(generateEvent(PostHogEventName.CREATE_ALIAS.event)))
+        assertEquals(PostHogQueueLane.CRITICAL, spec.lane(generateEvent(PostHogEventName.GROUP_IDENTIFY.event)))
+        assertEquals(PostHogQueueLane.NORMAL, spec.lane(generateEvent(PostHogEventName.EXCEPTION.event)))
+        assertEquals(PostHogQueueLane.NORMAL, spec.lane(generateEvent("pageview")))
+        assertEquals(PostHogQueueLane.LOW, spec.lane(generateEvent(PostHogEventName.SNAPSHOT.event)))
+
+        // only fatal exceptions skip ahead by default
+        config.queuePriorityLanes = false
+        assertEquals(PostHogQueueLane.FATAL, spec.lane(fatal))
+        assertEquals(PostHogQueueLane.NORMAL, spec.lane(generateEvent(PostHogEventName.IDENTIFY.event)))
+    }
+
     @Test
     fun `logs factory wires os name and version from PostHogContext into resource attributes`() {
         // TestPostHogContext supplies $os_name = "Android" and $os_version = "13".
@@ -353,4 +384,48 @@ internal class EndpointSpecTest {
 
         http.shutdown()
     }
+
+    @Test
+    fun `events spec stores binary records and reads both encodings`() {
+        val config = PostHogConfig(API_KEY)
+        val spec = EndpointSpec.batch(config, PostHogApi(config), null)
+        val event = generateEvent()
+
+        val json = ByteArrayOutputStream().also { spec.encode(event, it) }.toByteArray()
+        config.queueBinaryStorage = true
+        val binary = ByteArrayOutputStream().also { spec.encode(event, it) }.toByteArray()
+
+        assertEquals('{'.code.toByte(), json[0])
+        assertTrue(PostHogEventBinaryCodec.isBinaryRecord(binary.inputStream().buffered()))
+        assertTrue(binary.size < json.size)
+        assertEquals(event, spec.decode(binary.inputStream()))
+        config.queueBinaryStorage = false
+        assertEquals(event, spec.decode(binary.inputStream()))
+        assertEquals(event, spec.decode(json.inputStream()))
+    }
+
+    @Test
+    fun `events spec sends binary records as JSON`() {
+        val executor = Executors.newSingleThreadScheduledExecutor(PostHogThreadFactory("Test"))
+        val storagePrefix = tmpDir.newFolder().absolutePath
+        val http = mockHttp(response = MockResponse().setBody(""))
+        val config =
+            PostHogConfig(API_KEY, http.url("/").toString()).apply {
+                this.storagePrefix = storagePrefix
+                this.flushAt = 1
+                this.queueBinaryStorage = true
+            }
+        val api = PostHogApi(config)
+        val queue = PostHogQueue(config, EndpointSpec.batch(config, api, storagePrefix), executor)
+
+        queue.add(generateEvent("binary-event"))
+
+        executor.shutdownAndAwaitTermination()
+
+        val request = http.takeRequest()
+        val batch = config.serializer.deserialize<PostHogBatchEvent>(request.body.unGzip().reader())
+        assertEquals(listOf(generateEvent("binary-event")), batch.batch)
+
+        http.shutdown()
+    }
 }
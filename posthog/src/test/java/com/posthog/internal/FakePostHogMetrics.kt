@@ -0,0 +1,33 @@
+package com.posthog.internal
+
+import com.posthog.PostHogMetrics
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+internal class FakePostHogMetrics : PostHogMetrics {
+    private val counts = ConcurrentHashMap<Pair<String, Map<String, String>>, Long>()
+    private val records = CopyOnWriteArrayList<Triple<String, Double, Map<String, String>>>()
+
+    override fun count(
+        name: String,
+        amount: Long,
+        tags: Map<String, String>,
+    ) {
+        counts.merge(name to tags, amount) { current, added -> current + added }
+    }
+
+    override fun record(
+        name: String,
+        value: Double,
+        tags: Map<String, String>,
+    ) {
+        records.add(Triple(name, value, tags))
+    }
+
+    fun count(
+        name: String,
+        tags: Map<String, String> = emptyMap(),
+    ): Long = counts[name to tags] ?: 0
+
+    fun values(name: String): List<Double> = records.filter { it.first == name }.map { it.second }
+}
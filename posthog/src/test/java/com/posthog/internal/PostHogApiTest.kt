@@ -21,7 +21,10 @@ import java.net.InetAddress
 import java.net.InetSocketAddress
 import java.net.Proxy
 import java.net.SocketException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
@@ -93,6 +96,23 @@ internal class PostHogApiTest {
         assertEquals("application/json; charset=utf-8", request.headers["Content-Type"])
     }
 
+    @Test
+    fun `batch shares the connection pool of the base http client`() {
+        val http = mockHttp()
+        val url = http.url("/")
+        val baseHttpClient = OkHttpClient()
+
+        val config = PostHogConfig(API_KEY, url.toString())
+        config.baseHttpClient = baseHttpClient
+        val sut = PostHogApi(config)
+
+        sut.batch(listOf(generateEvent()))
+
+        val request = http.takeRequest()
+        assertEquals("gzip", request.headers["Content-Encoding"])
+        assertEquals(1, baseHttpClient.connectionPool.connectionCount())
+    }
+
     @Test
     fun `batch includes custom request headers`() {
         val http = mockHttp()
@@ -906,6 +926,111 @@ internal class PostHogApiTest {
             }
         assertEquals(400, exc.statusCode)
     }
+
+    @Test
+    fun `flagsAsync retries transient IOException and delivers successful response`() {
+        val file = File("src/test/resources/json/flags-v1/basic-flags-no-errors.json")
+        val responseFlagsApi = file.readText()
+        val attempts = AtomicInteger(0)
+        val client =
+            OkHttpClient.Builder()
+                .addInterceptor { chain ->
+                    if (attempts.incrementAndGet() == 1) {
+                        throw SocketException("Connection reset")
+                    }
+                    chain.proceed(chain.request())
+                }
+                .build()
+        val http = mockHttp(response = MockResponse().setBody(responseFlagsApi))
+        val url = http.url("/")
+
+        try {
+            val sut = getSut(host = url.toString(), httpClient = client, featureFlagRequestMaxRetries = 1)
+            val latch = CountDownLatch(1)
+            val response = AtomicReference<PostHogFlagsResponse?>()
+
+            sut.flagsAsync(
+                "distinctId",
+                anonymousId = "anonId",
+                groups = emptyMap(),
+                onResponse = {
+                    response.set(it)
+                    latch.countDown()
+                },
+                onFailure = { latch.countDown() },
+            )
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS))
+            assertEquals(true, response.get()?.featureFlags?.get("4535-funnel-bar-viz"))
+            assertEquals(2, attempts.get())
+            assertEquals(1, http.requestCount)
+        } finally {
+            http.shutdown()
+        }
+    }
+
+    @Test
+    fun `flagsAsync fails instead of retrying once closed`() {
+        val attempts = AtomicInteger(0)
+        val client =
+            OkHttpClient.Builder()
+                .addInterceptor { chain ->
+                    attempts.incrementAndGet()
+                    throw SocketException("Connection reset")
+                }
+                .build()
+        val http = mockHttp()
+        val url = http.url("/")
+
+        try {
+            val sut = getSut(host = url.toString(), httpClient = client, featureFlagRequestMaxRetries = 3)
+            sut.close()
+            val latch = CountDownLatch(1)
+            val failure = AtomicReference<Throwable?>()
+
+            sut.flagsAsync(
+                "distinctId",
+                onResponse = { latch.countDown() },
+                onFailure = {
+                    failure.set(it)
+                    latch.countDown()
+                },
+            )
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS))
+            assertTrue(failure.get() is SocketException)
+            assertEquals(1, attempts.get())
+        } finally {
+            http.shutdown()
+        }
+    }
+
+    @Test
+    fun `flagsAsync delivers non-retryable HTTP errors to onFailure`() {
+        val http = mockHttp(response = MockResponse().setResponseCode(500).setBody("error"))
+        val url = http.url("/")
+
+        try {
+            val sut = getSut(host = url.toString())
+            val latch = CountDownLatch(1)
+            val failure = AtomicReference<Throwable?>()
+
+            sut.flagsAsync(
+                "distinctId",
+                onResponse = { latch.countDown() },
+                onFailure = {
+                    failure.set(it)
+                    latch.countDown()
+                },
+            )
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS))
+            assertEquals(500, (failure.get() as? PostHogApiError)?.statusCode)
+            assertEquals(1, http.requestCount)
+        } finally {
+            http.shutdown()
+        }
+    }
 }
 
 @RunWith(Parameterized::class)
@@ -0,0 +1,126 @@
+package com.posthog.internal
+
+import com.posthog.API_KEY
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import com.posthog.generateEvent
+import com.posthog.internal.replay.RRFullSnapshotEvent
+import com.posthog.internal.replay.RRWireframe
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.StringWriter
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.Date
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+internal class PostHogEventBinaryCodecTest {
+    private val config = PostHogConfig(API_KEY)
+
+    private val sut = PostHogEventBinaryCodec(config)
+
+    private fun encode(event: PostHogEvent): ByteArray {
+        val output = ByteArrayOutputStream()
+        sut.encode(event, output)
+        return output.toByteArray()
+    }
+
+    private fun toJson(event: PostHogEvent): String {
+        val writer = StringWriter()
+        config.serializer.serialize(event, writer)
+        return writer.toString()
+    }
+
+    @Suppress("DEPRECATION")
+    private fun event(): PostHogEvent =
+        generateEvent().copy(
+            properties =
+                mutableMapOf(
+                    "string" to "välue \" ✓",
+                    "int" to -42,
+                    "long" to 1234567890123L,
+                    "double" to 3.14159,
+                    "float" to 0.1f,
+                    "nan" to Double.NaN,
+                    "boolean" to false,
+                    "bigint" to BigInteger("92233720368547758070"),
+                    "bigdecimal" to BigDecimal("123.456"),
+                    "date" to Date(1234567890000L),
+                    "uuid" to UUID.fromString("12345678-90ab-cdef-1234-567890abcdef"),
+                    "bad" to Thread.currentThread(),
+                    "nested" to mapOf("list" to listOf("a", null, 1, listOf(true)), "string" to "again"),
+                    "array" to arrayOf(1, 2),
+                    "empty" to emptyMap<String, Any>(),
+                ),
+            type = "capture",
+            messageId = UUID.fromString("12345678-90ab-cdef-1234-567890abcdef"),
+            set = mapOf("email" to "user@example.com"),
+            apiKey = API_KEY,
+        )
+
+    @Test
+    fun `round trips events to the same JSON`() {
+        val event = event()
+
+        val decoded = sut.decode(encode(event).inputStream())
+
+        assertEquals(toJson(event), toJson(decoded))
+        assertEquals(event.timestamp, decoded.timestamp)
+        assertEquals(event.uuid, decoded.uuid)
+        assertEquals(toJson(generateEvent()), toJson(sut.decode(encode(generateEvent()).inputStream())))
+    }
+
+    @Test
+    fun `estimates the size of the event's JSON in a batch`() {
+        for (event in listOf(event(), generateEvent())) {
+            // the JSON and its comma in the batch
+            val jsonBytes = toJson(event).toByteArray(Charsets.UTF_8).size + 1L
+
+            assertEquals(jsonBytes, sut.encode(event, ByteArrayOutputStream()))
+        }
+    }
+
+    @Test
+    fun `reads other values back as a JSON record would`() {
+        val wireframe = RRWireframe(id = 1, x = 0, y = 0, width = 100, height = 200, text = "text")
+        val snapshot = RRFullSnapshotEvent(listOf(wireframe), 0, 0, 1)
+        val event = generateEvent().copy(properties = mutableMapOf("\$snapshot_data" to listOf(snapshot)))
+
+        val decoded = sut.decode(encode(event).inputStream())
+        val fromJson = config.serializer.deserialize<PostHogEvent?>(toJson(event).reader())!!
+
+        assertEquals(fromJson.properties, decoded.properties)
+        assertEquals(toJson(event), toJson(decoded))
+    }
+
+    @Test
+    fun `writes repeated keys once`() {
+        val wireframes = List(100) { mapOf("id" to it, "x" to 0, "y" to it * 10, "width" to 100, "height" to 20) }
+        val event = generateEvent().copy(properties = mutableMapOf("wireframes" to wireframes))
+
+        val encoded = encode(event)
+
+        assertEquals(1, String(encoded, Charsets.ISO_8859_1).split("height").size - 1)
+        assertTrue(encoded.size < toJson(event).length / 2)
+    }
+
+    @Test
+    fun `tells binary records from JSON ones`() {
+        assertTrue(PostHogEventBinaryCodec.isBinaryRecord(encode(generateEvent()).inputStream().buffered()))
+        assertFalse(PostHogEventBinaryCodec.isBinaryRecord(toJson(generateEvent()).byteInputStream().buffered()))
+        assertFalse(PostHogEventBinaryCodec.isBinaryRecord(ByteArray(0).inputStream().buffered()))
+    }
+
+    @Test
+    fun `fails to read truncated records`() {
+        val encoded = encode(event())
+
+        assertFailsWith<IOException> { sut.decode(encoded.copyOf(encoded.size - 1).inputStream()) }
+        assertFailsWith<IOException> { sut.decode(toJson(generateEvent()).byteInputStream()) }
+    }
+}
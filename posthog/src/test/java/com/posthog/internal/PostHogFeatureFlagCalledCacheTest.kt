@@ -1,5 +1,6 @@
 package com.posthog.internal
 
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
@@ -366,4 +367,59 @@ internal class PostHogFeatureFlagCalledCacheTest {
         cache.add("user13", "flag1", "value1")
         assertEquals(9, cache.size()) // 10 - 2 + 1
     }
+
+    @Test
+    fun `sharded cache dedupes across shards and stays bounded`() {
+        val cache = PostHogFeatureFlagCalledCache(maxSize = 100, shardCount = 8)
+
+        for (i in 1..20) {
+            assertTrue(cache.add("user$i", "flag1", "value1"))
+        }
+        for (i in 1..20) {
+            assertFalse(cache.add("user$i", "flag1", "value1"))
+        }
+        assertEquals(20, cache.size())
+
+        for (i in 21..1000) {
+            cache.add("user$i", "flag1", "value1")
+        }
+        // each of the 8 shards holds at most ceil(100 / 8) entries
+        assertTrue(cache.size() <= 8 * 13)
+
+        cache.clear()
+        assertEquals(0, cache.size())
+    }
+
+    @Test
+    fun `sharded cache dedupes concurrent adds of the same key`() {
+        val cache = PostHogFeatureFlagCalledCache(maxSize = 1000, shardCount = 4)
+        val added = AtomicInteger(0)
+
+        val threads =
+            List(8) {
+                Thread {
+                    for (i in 1..100) {
+                        if (cache.add("user$i", "flag1", true)) {
+                            added.incrementAndGet()
+                        }
+                    }
+                }
+            }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(100, added.get())
+        assertEquals(100, cache.size())
+    }
+
+    @Test
+    fun `shard count is capped at max size`() {
+        val cache = PostHogFeatureFlagCalledCache(maxSize = 2, shardCount = 16)
+
+        cache.add("user1", "flag1", "value1")
+        cache.add("user2", "flag1", "value1")
+        cache.add("user3", "flag1", "value1")
+
+        assertTrue(cache.size() <= 2)
+    }
 }
@@ -17,6 +17,7 @@ import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 
 internal class PostHogFeatureFlagsTest {
@@ -225,6 +226,34 @@ internal class PostHogFeatureFlagsTest {
         assertEquals(1, flags!!.size)
     }
 
+    @Test
+    fun `feature flag event properties are built once per flag set`() {
+        val http =
+            mockHttp(
+                response =
+                    MockResponse()
+                        .setBody(responseFlagsApi),
+            )
+        val url = http.url("/")
+
+        val sut = getSut(host = url.toString())
+
+        assertNull(sut.getFeatureFlagEventProperties())
+
+        sut.loadFeatureFlags("my_identify", anonymousId = "anonId", emptyMap())
+
+        executor.shutdownAndAwaitTermination()
+
+        val properties = sut.getFeatureFlagEventProperties()
+        assertEquals(true, properties!!["\$feature/4535-funnel-bar-viz"])
+        assertEquals(listOf("4535-funnel-bar-viz"), properties["\$active_feature_flags"])
+        assertSame(properties, sut.getFeatureFlagEventProperties())
+
+        sut.clear()
+
+        assertNull(sut.getFeatureFlagEventProperties())
+    }
+
     @Test
     fun `returns default value if given`() {
         val http =
@@ -0,0 +1,121 @@
+package com.posthog.internal
+
+import com.posthog.API_KEY
+import com.posthog.PostHogConfig
+import com.posthog.PostHogEvent
+import java.io.StringReader
+import java.io.StringWriter
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+internal class PostHogLayeredPropertiesTest {
+    private val context = mapOf("\$os" to "Android", "\$lib" to "context-lib")
+    private val sdkInfo = mapOf("\$lib" to "posthog-java", "\$lib_version" to "1.0.0")
+
+    private fun getSut(properties: Map<String, Any>? = null): PostHogLayeredProperties =
+        PostHogLayeredProperties(listOf(context, emptyMap(), sdkInfo), properties)
+
+    @Test
+    fun `later layers and properties win`() {
+        val sut = getSut(mapOf("\$lib_version" to "custom", "prop" to "value"))
+
+        assertEquals("Android", sut["\$os"])
+        assertEquals("posthog-java", sut["\$lib"])
+        assertEquals("custom", sut["\$lib_version"])
+        assertEquals("value", sut["prop"])
+        assertEquals(
+            mapOf<String, Any>(
+                "\$os" to "Android",
+                "\$lib" to "posthog-java",
+                "\$lib_version" to "custom",
+                "prop" to "value",
+            ),
+            sut,
+        )
+        assertEquals(4, sut.size)
+    }
+
+    @Test
+    fun `writes never reach the shared layers`() {
+        val sut = getSut()
+
+        sut["\$os"] = "iOS"
+        sut.remove("\$lib")
+
+        assertEquals("iOS", sut["\$os"])
+        assertFalse(sut.containsKey("\$lib"))
+        assertEquals(mapOf<String, Any>("\$os" to "iOS", "\$lib_version" to "1.0.0"), sut)
+        assertEquals("Android", context["\$os"])
+        assertEquals("posthog-java", sdkInfo["\$lib"])
+    }
+
+    @Test
+    fun `removed keys can be put back`() {
+        val sut = getSut()
+
+        sut.remove("\$os")
+        assertNull(sut["\$os"])
+
+        sut["\$os"] = "Linux"
+        assertEquals("Linux", sut["\$os"])
+    }
+
+    @Test
+    fun `entries can be removed and set while iterating`() {
+        val sut = getSut(mapOf("prop" to "value", "drop" to "me"))
+
+        val iterator = sut.entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            when (entry.key) {
+                "drop", "\$lib_version" -> iterator.remove()
+                "\$os" -> entry.setValue("Fuchsia")
+            }
+        }
+
+        assertEquals(
+            mapOf<String, Any>(
+                "\$os" to "Fuchsia",
+                "\$lib" to "posthog-java",
+                "prop" to "value",
+            ),
+            sut,
+        )
+    }
+
+    @Test
+    fun `clear hides every layer`() {
+        val sut = getSut(mapOf("prop" to "value"))
+
+        sut.clear()
+
+        assertTrue(sut.isEmpty())
+    }
+
+    @Test
+    fun `serializes with the winning values`() {
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val event =
+            PostHogEvent(
+                "event",
+                "distinctId",
+                properties = getSut(mapOf("\$lib" to "override")),
+            )
+
+        val writer = StringWriter()
+        serializer.serialize(event, writer)
+        val properties = serializer.deserialize<PostHogEvent>(StringReader(writer.toString())).properties
+
+        assertEquals<Map<String, Any>?>(
+            mapOf(
+                "\$os" to "Android",
+                "\$lib" to "override",
+                "\$lib_version" to "1.0.0",
+            ),
+            properties,
+        )
+    }
+}
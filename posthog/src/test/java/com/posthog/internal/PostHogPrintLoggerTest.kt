@@ -7,6 +7,7 @@ import java.io.PrintStream
 import kotlin.test.BeforeTest
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertTrue
 
 internal class PostHogPrintLoggerTest {
@@ -42,4 +43,27 @@ internal class PostHogPrintLoggerTest {
 
         assertTrue(outputStreamCaptor.toString().trim().isEmpty())
     }
+
+    @Test
+    fun `lazy log builds the message if enabled`() {
+        val sut = getSut(true)
+
+        sut.log { "test" }
+
+        assertEquals("test", outputStreamCaptor.toString().trim())
+    }
+
+    @Test
+    fun `lazy log does not build the message if disabled`() {
+        val sut = getSut()
+        var built = false
+
+        sut.log {
+            built = true
+            "test"
+        }
+
+        assertFalse(built)
+        assertTrue(outputStreamCaptor.toString().trim().isEmpty())
+    }
 }
@@ -0,0 +1,95 @@
+package com.posthog.internal
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
+import java.util.UUID
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+internal class PostHogQueueSegmentTest {
+    private val decode: (InputStream) -> String? = { stream ->
+        stream.reader().readText().takeUnless { it == "invalid" }
+    }
+
+    private fun segment(vararg records: String): ByteArray {
+        val output = ByteArrayOutputStream()
+        writeSegment(output, records.map { it.toByteArray() })
+        return output.toByteArray()
+    }
+
+    @Test
+    fun `reads back the records of a segment`() {
+        val records = readSegment(ByteArrayInputStream(segment("a", "bb", "")), decode)
+
+        assertEquals(listOf("a", "bb", ""), records)
+    }
+
+    @Test
+    fun `records failing to decode are returned as null`() {
+        val records = readSegment(ByteArrayInputStream(segment("a", "invalid", "c")), decode)
+
+        assertEquals(listOf("a", null, "c"), records)
+    }
+
+    @Test
+    fun `a truncated last record ends the segment`() {
+        val bytes = segment("a", "bbbb")
+
+        val records = readSegment(ByteArrayInputStream(bytes.copyOf(bytes.size - 2)), decode)
+
+        assertEquals(listOf("a"), records)
+    }
+
+    @Test
+    fun `segment file names carry the record count`() {
+        val file = File(segmentFileName(UUID.randomUUID(), 12))
+
+        assertTrue(file.isSegmentFile())
+        assertEquals(12, file.segmentRecordCount())
+        assertFalse(File("${UUID.randomUUID()}.event").isSegmentFile())
+        assertEquals(1, File("${UUID.randomUUID()}.event").segmentRecordCount())
+    }
+
+    @Test
+    fun `queue file names carry the records' size in a request body`() {
+        val uuid = UUID.randomUUID()
+        val segment = File(segmentFileName(uuid, 12, batchBytes = 4096))
+        val record = File(recordFileName(uuid, batchBytes = 512))
+
+        assertEquals(4096L, segment.batchBytesFromName())
+        assertEquals(12, segment.segmentRecordCount())
+        assertEquals(512L, record.batchBytesFromName())
+        assertEquals(1, record.segmentRecordCount())
+        assertFalse(record.isSegmentFile())
+        assertNull(File(segmentFileName(uuid, 12)).batchBytesFromName())
+        assertNull(File(recordFileName(uuid)).batchBytesFromName())
+        assertEquals("$uuid.event", recordFileName(uuid))
+    }
+
+    @Test
+    fun `queue files are timed by the UUIDv7 in their names`() {
+        val millis = 1_700_000_000_123L
+        val uuid = UUID((millis shl 16) or (7L shl 12), Long.MIN_VALUE)
+
+        assertEquals(millis, File("$uuid.event").queuedAtMillis())
+        assertEquals(millis, File(segmentFileName(uuid, 3)).queuedAtMillis())
+    }
+
+    @Test
+    fun `other queue file names are timed by their last modified date`() {
+        // a custom, not time based uuid
+        val file = File.createTempFile(UUID.randomUUID().toString(), ".event")
+        try {
+            file.setLastModified(1_700_000_000_000L)
+
+            assertEquals(file.lastModified(), file.queuedAtMillis())
+        } finally {
+            file.delete()
+        }
+    }
+}
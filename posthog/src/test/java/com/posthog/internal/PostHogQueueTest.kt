@@ -1,23 +1,33 @@
 package com.posthog.internal
 
 import com.posthog.API_KEY
+import com.posthog.PostHogAesGcmEncryption
 import com.posthog.PostHogConfig
+import com.posthog.PostHogEncryption
 import com.posthog.PostHogEvent
 import com.posthog.PostHogEventName
+import com.posthog.PostHogMetrics
 import com.posthog.awaitExecution
 import com.posthog.generateEvent
 import com.posthog.internal.errortracking.ThrowableCoercer
 import com.posthog.mockHttp
 import com.posthog.shutdownAndAwaitTermination
+import com.posthog.unGzip
 import com.posthog.vendor.uuid.TimeBasedEpochGenerator
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.SocketPolicy
 import org.junit.Assert.assertFalse
 import org.junit.Rule
 import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
 import java.io.File
 import java.util.UUID
 import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertTrue
@@ -36,6 +46,13 @@ internal class PostHogQueueTest {
         dateProvider: PostHogDateProvider = PostHogDeviceDateProvider(),
         maxBatchSize: Int = 50,
         networkStatus: PostHogNetworkStatus? = null,
+        metrics: PostHogMetrics? = null,
+        maxBatchBytes: Long = PostHogConfig.DEFAULT_MAX_BATCH_BYTES,
+        groupCommitWindowMs: Int = 0,
+        priorityLanes: Boolean = false,
+        encryption: PostHogEncryption? = null,
+        binaryStorage: Boolean = false,
+        executor: ScheduledExecutorService = this.executor,
     ): PostHogQueue<PostHogEvent> {
         val config =
             PostHogConfig(API_KEY, host).apply {
@@ -45,6 +62,12 @@ internal class PostHogQueueTest {
                 this.networkStatus = networkStatus
                 this.maxBatchSize = maxBatchSize
                 this.dateProvider = dateProvider
+                metrics?.let { this.metrics = it }
+                this.maxBatchBytes = maxBatchBytes
+                this.queueGroupCommitWindowMs = groupCommitWindowMs
+                this.queuePriorityLanes = priorityLanes
+                this.encryption = encryption
+                this.queueBinaryStorage = binaryStorage
             }
         val api = PostHogApi(config)
         return PostHogQueue(config, EndpointSpec.batch(config, api, config.storagePrefix), executor)
@@ -279,6 +302,52 @@ internal class PostHogQueueTest {
         assertEquals(1, File(path, API_KEY).listFiles()!!.size)
     }
 
+    @Test
+    fun `puts a failed batch back in order and removes only the sent batch`() {
+        val http = mockHttp(response = MockResponse().setResponseCode(500))
+        val url = http.url("/")
+
+        val fakeCurrentTime = FakePostHogDateProvider()
+        // pause time pinned to the past so the backoff never blocks the next flush
+        fakeCurrentTime.setAddSecondsToCurrentDate(parseISO8601Date("1970-09-20T11:58:49.000Z")!!)
+
+        val path = tmpDir.newFolder().absolutePath
+        val sut =
+            getSut(
+                host = url.toString(),
+                flushAt = 100,
+                storagePrefix = path,
+                dateProvider = fakeCurrentTime,
+                maxBatchSize = 2,
+            )
+
+        for (i in 0 until 3) {
+            sut.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        executor.awaitExecution()
+        val files = sut.dequeList
+
+        // the first batch fails with a retriable error and goes back to the head
+        sut.flush()
+        executor.awaitExecution()
+
+        assertEquals(1, http.requestCount)
+        assertEquals(files, sut.dequeList)
+
+        // the first batch is sent, the last record stays queued
+        http.enqueue(MockResponse().setBody(""))
+        http.enqueue(MockResponse().setResponseCode(500))
+        sut.flush()
+        executor.awaitExecution()
+
+        assertEquals(3, http.requestCount)
+        assertEquals(listOf(files[2]), sut.dequeList)
+        assertEquals(1, File(path, API_KEY).listFiles()!!.size)
+
+        sut.clear()
+        executor.shutdownAndAwaitTermination()
+    }
+
     @Test
     fun `deletes the files if successful`() {
         val http = mockHttp()
@@ -296,6 +365,53 @@ internal class PostHogQueueTest {
         assertEquals(0, File(path, API_KEY).listFiles()!!.size)
     }
 
+    @Test
+    fun `reports enqueued, sent and batch metrics`() {
+        val http = mockHttp()
+        val url = http.url("/")
+        val metrics = FakePostHogMetrics()
+
+        val sut = getSut(host = url.toString(), flushAt = 2, metrics = metrics)
+
+        sut.add(generateEvent())
+        sut.add(generateEvent())
+
+        executor.shutdownAndAwaitTermination()
+
+        val tags = mapOf(PostHogMetrics.TAG_ENDPOINT to "events")
+        assertEquals(2L, metrics.count(PostHogMetrics.RECORDS_ENQUEUED, tags))
+        assertEquals(2L, metrics.count(PostHogMetrics.RECORDS_SENT, tags))
+        assertEquals(listOf(2.0), metrics.values(PostHogMetrics.BATCH_SIZE))
+        assertEquals(1, metrics.values(PostHogMetrics.HTTP_DURATION).size)
+        assertEquals(1, metrics.values(PostHogMetrics.COMPRESS_DURATION).size)
+        // nothing on disk yet, then queued one by one and sent
+        assertEquals(listOf(0.0, 1.0, 2.0, 0.0), metrics.values(PostHogMetrics.QUEUE_DEPTH))
+    }
+
+    @Test
+    fun `reports dropped records when the queue is full or the batch is rejected`() {
+        val http = mockHttp(response = MockResponse().setResponseCode(400).setBody("error"))
+        val url = http.url("/")
+        val metrics = FakePostHogMetrics()
+
+        val sut = getSut(host = url.toString(), maxQueueSize = 1, flushAt = 2, metrics = metrics)
+
+        sut.add(generateEvent())
+        sut.add(generateEvent())
+        sut.flush()
+
+        executor.shutdownAndAwaitTermination()
+
+        fun dropped(reason: String) =
+            metrics.count(
+                PostHogMetrics.RECORDS_DROPPED,
+                mapOf(PostHogMetrics.TAG_ENDPOINT to "events", PostHogMetrics.TAG_REASON to reason),
+            )
+        assertEquals(1L, dropped("queue_full"))
+        assertEquals(1L, dropped("rejected"))
+        assertEquals(0L, metrics.count(PostHogMetrics.RECORDS_SENT, mapOf(PostHogMetrics.TAG_ENDPOINT to "events")))
+    }
+
     @Test
     fun `clear deletes all files and clean the queue`() {
         val http = mockHttp(response = MockResponse().setResponseCode(300).setBody("error"))
@@ -450,6 +566,8 @@ internal class PostHogQueueTest {
                 flushAt = 100,
                 dateProvider = fakeCurrentTime,
                 maxBatchSize = 4,
+                // without a byte budget, a 413 halves the record cap
+                maxBatchBytes = 0,
             )
 
         for (i in 0 until 4) {
@@ -477,6 +595,112 @@ internal class PostHogQueueTest {
         executor.shutdownAndAwaitTermination()
     }
 
+    @Test
+    fun `halves the byte budget and keeps the record limits if 413`() {
+        val e = PostHogApiError(413, "", null)
+        val config = PostHogConfig(API_KEY)
+        val limits = BatchLimits(cap = config.maxBatchSize, flushAt = config.flushAt, maxBytes = 10_000)
+
+        val deleteFiles =
+            deleteFilesIfAPIError(e, limits, actualBatchSize = 10, logger = config.logger, actualBatchBytes = 4_000)
+
+        assertFalse(deleteFiles)
+        assertEquals(2_000, limits.maxBytes) // halved from min(10_000, 4_000)
+        assertEquals(50, limits.cap) // unchanged
+        assertEquals(20, limits.flushAt) // unchanged
+    }
+
+    @Test
+    fun `packs batches up to the byte budget`() {
+        val http = mockHttp(total = 2)
+        val url = http.url("/")
+
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val eventBytes = ByteArrayOutputStream()
+        serializer.serialize(generateEvent(), eventBytes.writer().buffered())
+
+        // room for 2 records but not 3
+        val sut =
+            getSut(
+                host = url.toString(),
+                flushAt = 100,
+                maxBatchBytes = eventBytes.size() * 5L / 2,
+            )
+
+        for (i in 0 until 4) {
+            sut.add(generateEvent(givenUuuid = UUID.randomUUID()))
+        }
+        executor.awaitExecution()
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        assertEquals(2, http.requestCount)
+        for (i in 0 until 2) {
+            val content = http.takeRequest().body.unGzip()
+            val batch = serializer.deserialize<PostHogBatchEvent>(content.reader())
+            assertEquals(2, batch.batch.size)
+        }
+        assertEquals(50, sut.currentBatchCapForTesting)
+        assertEquals(0, sut.dequeList.size)
+    }
+
+    @Test
+    fun `packs binary records against the size of their JSON`() {
+        val http = mockHttp(total = 2)
+        val url = http.url("/")
+
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val eventBytes = ByteArrayOutputStream()
+        serializer.serialize(generateEvent(), eventBytes.writer().buffered())
+
+        // room for 2 records sent as JSON but not 3, the binary records alone would all fit
+        val sut =
+            getSut(
+                host = url.toString(),
+                flushAt = 100,
+                maxBatchBytes = eventBytes.size() * 5L / 2,
+                binaryStorage = true,
+            )
+
+        for (i in 0 until 4) {
+            sut.add(generateEvent(givenUuuid = UUID.randomUUID()))
+        }
+        executor.awaitExecution()
+        // the estimate is read back from the file names, as by the next process
+        assertTrue(sut.dequeList.all { it.batchBytesFromName() != null })
+        sut.reloadFromDisk()
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        assertEquals(2, http.requestCount)
+        for (i in 0 until 2) {
+            val content = http.takeRequest().body.unGzip()
+            val batch = serializer.deserialize<PostHogBatchEvent>(content.reader())
+            assertEquals(2, batch.batch.size)
+        }
+        assertEquals(0, sut.dequeList.size)
+    }
+
+    @Test
+    fun `sends a record larger than the byte budget on its own`() {
+        val http = mockHttp(total = 2)
+        val url = http.url("/")
+
+        val sut = getSut(host = url.toString(), flushAt = 100, maxBatchBytes = 1)
+
+        sut.add(generateEvent(givenUuuid = UUID.randomUUID()))
+        sut.add(generateEvent(givenUuuid = UUID.randomUUID()))
+        executor.awaitExecution()
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        assertEquals(2, http.requestCount)
+        assertEquals(0, sut.dequeList.size)
+    }
+
     @Test
     fun `delete files if batch is min already`() {
         val e = PostHogApiError(413, "", null)
@@ -701,4 +925,344 @@ internal class PostHogQueueTest {
         assertEquals(file1.name, dequeFiles[0].name)
         assertEquals(file2.name, dequeFiles[1].name)
     }
+
+    @Test
+    fun `cached events are ordered by the time in their names`() {
+        val path = tmpDir.newFolder().absolutePath
+        val dir = File(path, API_KEY)
+        dir.mkdirs()
+
+        // written a second apart, their last modified dates say otherwise
+        val older = File(dir, "${uuidV7(1_000_000L)}.event")
+        older.writeText("{}")
+        older.setLastModified(System.currentTimeMillis())
+        val newer = File(dir, "${uuidV7(1_001_000L)}.event")
+        newer.writeText("{}")
+        newer.setLastModified(System.currentTimeMillis() - 10000L)
+
+        val sut = getSut(host = "http://localhost:9001", storagePrefix = path)
+        sut.reloadFromDisk()
+
+        assertEquals(listOf(older.name, newer.name), sut.dequeList.map { it.name })
+        executor.shutdownAndAwaitTermination()
+    }
+
+    @Test
+    fun `sends the cached backlog oldest first and before new events`() {
+        val http = mockHttp(total = 3)
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        writeCachedEvents(path, 5)
+
+        val sut = getSut(host = url.toString(), storagePrefix = path, maxBatchSize = 2)
+        sut.add(generateEvent("new", givenUuuid = UUID.randomUUID()))
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val batches =
+            (0 until 3).map {
+                val content = http.takeRequest().body.unGzip()
+                serializer.deserialize<PostHogBatchEvent>(content.reader()).batch.map { event -> event.event }
+            }
+        assertEquals(
+            listOf(listOf("cached0", "cached1"), listOf("cached2", "cached3"), listOf("cached4", "new")),
+            batches,
+        )
+        assertEquals(0, File(path, API_KEY).listFiles()!!.size)
+    }
+
+    @Test
+    fun `puts a failed batch of the cached backlog back in order`() {
+        val http = mockHttp(response = MockResponse().setResponseCode(500))
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        writeCachedEvents(path, 3)
+
+        val sut = getSut(host = url.toString(), storagePrefix = path, maxBatchSize = 2)
+        sut.reloadFromDisk()
+        val files = sut.dequeList
+
+        sut.flush()
+        executor.awaitExecution()
+
+        assertEquals(1, http.requestCount)
+        assertEquals(files, sut.dequeList)
+        assertEquals(3, files.size)
+
+        sut.clear()
+        executor.shutdownAndAwaitTermination()
+    }
+
+    @Test
+    fun `sends the higher lanes first and stores them apart`() {
+        val http = mockHttp(total = 2)
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val sut =
+            getSut(host = url.toString(), flushAt = 100, storagePrefix = path, maxBatchSize = 2, priorityLanes = true)
+        for (i in 0 until 3) {
+            sut.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        sut.add(generateEvent(PostHogEventName.IDENTIFY.event, givenUuuid = UUID.randomUUID()))
+        executor.awaitExecution()
+
+        val identifyFiles = File(path, "$API_KEY.critical").listFiles()!!
+        assertEquals(1, identifyFiles.size)
+        assertEquals(3, File(path, API_KEY).listFiles()!!.size)
+        assertEquals(identifyFiles.first(), sut.dequeList.first())
+
+        // lanes are loaded from their own directories as well
+        val reloaded = getSut(host = url.toString(), storagePrefix = path)
+        reloaded.reloadFromDisk()
+        assertEquals(identifyFiles.first(), reloaded.dequeList.first())
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val batches =
+            (0 until 2).map {
+                val content = http.takeRequest().body.unGzip()
+                serializer.deserialize<PostHogBatchEvent>(content.reader()).batch.map { event -> event.event }
+            }
+        assertEquals(listOf(listOf(PostHogEventName.IDENTIFY.event, "event0"), listOf("event1", "event2")), batches)
+    }
+
+    @Test
+    fun `drops the oldest records of the lowest lane when full`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val sut = getSut(host = url.toString(), maxQueueSize = 2, storagePrefix = path, priorityLanes = true)
+        sut.add(generateEvent(PostHogEventName.IDENTIFY.event, givenUuuid = UUID.randomUUID()))
+        sut.add(generateEvent("event0", givenUuuid = UUID.randomUUID()))
+        sut.add(generateEvent("event1", givenUuuid = UUID.randomUUID()))
+        executor.awaitExecution()
+
+        assertEquals(2, sut.dequeList.size)
+        assertEquals(1, File(path, "$API_KEY.critical").listFiles()!!.size)
+        assertEquals(1, File(path, API_KEY).listFiles()!!.size)
+
+        sut.clear()
+        executor.shutdownAndAwaitTermination()
+    }
+
+    private fun uuidV7(millis: Long): UUID = UUID((millis shl 16) or (7L shl 12), Long.MIN_VALUE)
+
+    private fun writeCachedEvents(
+        path: String,
+        count: Int,
+    ) {
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val dir = File(path, API_KEY)
+        dir.mkdirs()
+        for (i in 0 until count) {
+            val file = File(dir, "${uuidV7(1_000_000L + i)}.event")
+            file.writer().use { serializer.serialize(generateEvent("cached$i"), it) }
+        }
+    }
+
+    @Test
+    fun `group commit writes the records added within the window to one file`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val sut = getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 100)
+
+        for (i in 0 until 3) {
+            sut.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        // nothing is written before the window ends
+        executor.awaitExecution()
+        assertEquals(0, sut.dequeList.size)
+
+        Thread.sleep(300)
+        executor.awaitExecution()
+
+        val files = File(path, API_KEY).listFiles()!!
+        assertEquals(1, files.size)
+        assertTrue(files.first().name.endsWith(".3.events"))
+        assertEquals(1, sut.dequeList.size)
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val content = http.takeRequest().body.unGzip()
+        val batch = PostHogSerializer(PostHogConfig(API_KEY)).deserialize<PostHogBatchEvent>(content.reader())
+        assertEquals(listOf("event0", "event1", "event2"), batch.batch.map { it.event })
+        assertEquals(0, File(path, API_KEY).listFiles()!!.size)
+    }
+
+    @Test
+    fun `splits a group committed segment if 413 and drops only the record too large`() {
+        val http = mockHttp(total = 0)
+        for (code in listOf(413, 200, 413, 200)) {
+            http.enqueue(MockResponse().setResponseCode(code).setBody(""))
+        }
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        // a 413 only halves the byte budget, the segment is still taken whole
+        val sut = getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 60_000)
+
+        for (i in 0 until 3) {
+            sut.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val serializer = PostHogSerializer(PostHogConfig(API_KEY))
+        val batches =
+            (0 until 4).map {
+                val content = http.takeRequest().body.unGzip()
+                serializer.deserialize<PostHogBatchEvent>(content.reader()).batch.map { event -> event.event }
+            }
+        // the segment is sent whole once, then record by record, event1 is rejected on its own
+        assertEquals(
+            listOf(listOf("event0", "event1", "event2"), listOf("event0"), listOf("event1"), listOf("event2")),
+            batches,
+        )
+        assertEquals(4, http.requestCount)
+        assertEquals(0, sut.dequeList.size)
+        assertEquals(0, File(path, API_KEY).listFiles()!!.size)
+    }
+
+    @Test
+    fun `group commit schedules the window again after a rejected schedule`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val scheduler =
+            object : ScheduledThreadPoolExecutor(1) {
+                private var rejectNext = true
+
+                override fun schedule(
+                    command: Runnable,
+                    delay: Long,
+                    unit: TimeUnit,
+                ): ScheduledFuture<*> {
+                    if (rejectNext) {
+                        rejectNext = false
+                        throw RejectedExecutionException()
+                    }
+                    return super.schedule(command, delay, unit)
+                }
+            }
+        val path = tmpDir.newFolder().absolutePath
+        val sut = getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 100, executor = scheduler)
+
+        sut.add(generateEvent("event0", givenUuuid = UUID.randomUUID()))
+        sut.add(generateEvent("event1", givenUuuid = UUID.randomUUID()))
+
+        Thread.sleep(300)
+        scheduler.awaitExecution()
+
+        assertTrue(File(path, API_KEY).listFiles()!!.single().name.endsWith(".2.events"))
+        scheduler.shutdownAndAwaitTermination()
+    }
+
+    @Test
+    fun `sends records encrypted with AES-GCM`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val encryption = PostHogAesGcmEncryption(ByteArray(16))
+        val sut = getSut(host = url.toString(), storagePrefix = path, encryption = encryption)
+
+        sut.add(generateEvent("event0", givenUuuid = UUID.randomUUID()))
+        executor.awaitExecution()
+        assertFalse(File(path, API_KEY).listFiles()!!.single().readText().contains("event0"))
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val content = http.takeRequest().body.unGzip()
+        val batch = PostHogSerializer(PostHogConfig(API_KEY)).deserialize<PostHogBatchEvent>(content.reader())
+        assertEquals(listOf("event0"), batch.batch.map { it.event })
+    }
+
+    @Test
+    fun `encrypts the records of a segment one by one with a record encryption`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val encryption = PostHogAesGcmEncryption(ByteArray(16))
+        val sut =
+            getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 60_000, encryption = encryption)
+        for (i in 0 until 3) {
+            sut.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        sut.stop()
+        executor.awaitExecution()
+
+        // every record decrypts on its own
+        val segment = File(path, API_KEY).listFiles()!!.single()
+        var index = 0
+        val records =
+            segment.inputStream().use {
+                readSegment(it) { record ->
+                    String(encryption.decryptRecord(record.readBytes(), segment.name, index++))
+                }
+            }
+        assertEquals(3, records.size)
+        assertTrue(records[1]!!.contains("event1"))
+
+        sut.flush()
+        executor.shutdownAndAwaitTermination()
+
+        val content = http.takeRequest().body.unGzip()
+        val batch = PostHogSerializer(PostHogConfig(API_KEY)).deserialize<PostHogBatchEvent>(content.reader())
+        assertEquals(listOf("event0", "event1", "event2"), batch.batch.map { it.event })
+    }
+
+    @Test
+    fun `flush writes and sends the records waiting for the group commit`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val sut = getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 60_000)
+
+        sut.add(generateEvent("event0", givenUuuid = UUID.randomUUID()))
+        sut.add(generateEvent("event1", givenUuuid = UUID.randomUUID()))
+        sut.flush()
+        executor.awaitExecution()
+
+        assertEquals(1, http.requestCount)
+        assertEquals(0, sut.dequeList.size)
+
+        executor.shutdownAndAwaitTermination()
+    }
+
+    @Test
+    fun `loads group committed files from disk and counts their records`() {
+        val http = mockHttp()
+        val url = http.url("/")
+
+        val path = tmpDir.newFolder().absolutePath
+        val writer = getSut(host = url.toString(), storagePrefix = path, groupCommitWindowMs = 60_000)
+        for (i in 0 until 3) {
+            writer.add(generateEvent("event$i", givenUuuid = UUID.randomUUID()))
+        }
+        writer.stop()
+        executor.awaitExecution()
+
+        // a new queue over the same storage, flushing once 4 records are queued
+        val sut = getSut(host = url.toString(), storagePrefix = path, flushAt = 4)
+        sut.add(generateEvent("event3", givenUuuid = UUID.randomUUID()))
+        executor.shutdownAndAwaitTermination()
+
+        val content = http.takeRequest().body.unGzip()
+        val batch = PostHogSerializer(PostHogConfig(API_KEY)).deserialize<PostHogBatchEvent>(content.reader())
+        assertEquals(listOf("event0", "event1", "event2", "event3"), batch.batch.map { it.event })
+        assertEquals(0, File(path, API_KEY).listFiles()!!.size)
+    }
 }
@@ -1,10 +1,18 @@
 package com.posthog.internal
 
+import com.google.gson.JsonSyntaxException
+import com.google.gson.reflect.TypeToken
 import com.posthog.API_KEY
 import com.posthog.PostHogConfig
 import com.posthog.PostHogEvent
 import com.posthog.date
 import com.posthog.generateEvent
+import com.posthog.internal.replay.RRFullSnapshotEvent
+import com.posthog.internal.replay.RRIncrementalMutationData
+import com.posthog.internal.replay.RRIncrementalSnapshotEvent
+import com.posthog.internal.replay.RRMetaEvent
+import com.posthog.internal.replay.RRStyle
+import com.posthog.internal.replay.RRWireframe
 import org.junit.Rule
 import org.junit.rules.TemporaryFolder
 import java.io.File
@@ -17,13 +25,18 @@ import java.util.UUID
 import kotlin.test.AfterTest
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
 internal class PostHogSerializerTest {
     @get:Rule
     val tmpDir = TemporaryFolder()
 
+    private val mapType = object : TypeToken<Map<String, Any?>>() {}.type
+
     private fun getSut(): PostHogSerializer {
         val config = PostHogConfig(API_KEY)
         return PostHogSerializer(config)
@@ -321,4 +334,148 @@ internal class PostHogSerializerTest {
 
         assertEquals(expectedJson, actualJson)
     }
+
+    @Test
+    fun `drops non finite numbers while keeping their siblings`() {
+        val sut = getSut()
+        val properties =
+            mapOf<String, Any>(
+                "nan" to Double.NaN,
+                "infinite" to Float.POSITIVE_INFINITY,
+                "numbers" to listOf(1.5, Double.NEGATIVE_INFINITY, 2.5f),
+                "good" to 1.0,
+            )
+
+        val serialized = StringWriter()
+        sut.gson.toJson(properties, mapType, serialized)
+
+        assertEquals("{\"numbers\":[1.5,2.5],\"good\":1.0}", serialized.toString())
+    }
+
+    @Test
+    fun `writes maps into trees as it streams them`() {
+        class CustomTestData(val field1: String, val field2: Int)
+
+        val sut = getSut()
+        val properties =
+            mapOf<String, Any>(
+                "custom" to CustomTestData("custom", 999),
+                "bad" to Thread.currentThread(),
+                "nested" to mapOf("date" to Date(1234567890000L), "list" to arrayOf<Any?>("a", null, 1)),
+            )
+
+        val serialized = StringWriter()
+        sut.gson.toJson(properties, mapType, serialized)
+        val tree = sut.gson.toJsonTree(properties, mapType)
+
+        val expectedJson =
+            """
+            {
+                "custom": {
+                    "field1": "custom",
+                    "field2": 999
+                },
+                "nested": {
+                    "date": "2009-02-13T23:31:30.000Z",
+                    "list": ["a", 1]
+                }
+            }
+            """.replace(" ", "").replace("\n", "")
+        assertEquals(expectedJson, serialized.toString())
+        assertEquals(expectedJson, tree.toString())
+    }
+
+    @Suppress("DEPRECATION")
+    @Test
+    fun `writes events and batches as the reflective serializer does`() {
+        val config = PostHogConfig(API_KEY)
+        val sut = PostHogSerializer(config)
+        val reflective = PostHogSerializer(config, streamingModels = false)
+        val event =
+            generateEvent().copy(
+                properties = mutableMapOf("prop" to "value", "nested" to mapOf("list" to listOf(1, 2.5, true))),
+                type = "capture",
+                messageId = UUID.fromString("12345678-90ab-cdef-1234-567890abcdef"),
+                set = mapOf("email" to "user@example.com"),
+                apiKey = API_KEY,
+            )
+        val batch = PostHogBatchEvent(API_KEY, listOf(event, generateEvent()), sentAt = date)
+
+        assertEquals(reflective.toJson(event), sut.toJson(event))
+        assertEquals(reflective.toJson(batch), sut.toJson(batch))
+        assertEquals(reflective.toJson(batch.copy(sentAt = null)), sut.toJson(batch.copy(sentAt = null)))
+    }
+
+    @Test
+    fun `writes replay events as the reflective serializer does`() {
+        val config = PostHogConfig(API_KEY)
+        val sut = PostHogSerializer(config)
+        val reflective = PostHogSerializer(config, streamingModels = false)
+        val child =
+            RRWireframe(
+                id = 2,
+                x = 1,
+                y = 2,
+                width = 3,
+                height = 4,
+                type = "input",
+                inputType = "text_area",
+                value = 12,
+                style = RRStyle(color = "#000000", fontSize = 12, paddingLeft = 4),
+                disabled = false,
+                checked = true,
+                options = listOf("a", "b"),
+                parentId = 1,
+                max = 100,
+            )
+        val wireframe = RRWireframe(id = 1, x = 0, y = 0, width = 100, height = 200, childWireframes = listOf(child))
+        val events =
+            listOf(
+                RRMetaEvent(width = 100, height = 200, timestamp = 1, href = "screen"),
+                RRFullSnapshotEvent(listOf(wireframe), initialOffsetTop = 0, initialOffsetLeft = 0, timestamp = 2),
+                RRIncrementalSnapshotEvent(RRIncrementalMutationData(adds = emptyList()), timestamp = 3),
+            )
+
+        events.forEach { assertEquals(reflective.toJson(it), sut.toJson(it)) }
+        val json = sut.toJson(events[1])
+        assertTrue(json.contains("\"style\":{\"color\":\"#000000\",\"fontSize\":12,\"paddingLeft\":4}"))
+        assertFalse(json.contains("parentId"))
+    }
+
+    @Test
+    fun `reads events skipping unknown and null fields`() {
+        val sut = getSut()
+        val json =
+            """
+            {
+              "unknown": {"nested": [1, 2]},
+              "event": "event",
+              "distinct_id": "distinctId",
+              "properties": {"prop": "value"},
+              "timestamp": "2023-09-20T11:58:49.000Z",
+              "uuid": "8c04e5c1-8f6e-4002-96fd-1804799b6ffe",
+              "api_key": null
+            }
+            """
+
+        val event = sut.deserialize<PostHogEvent?>(json.reader())
+
+        assertEvent(event!!)
+        assertNull(event.apiKey)
+    }
+
+    @Test
+    fun `fails to read events without a name`() {
+        val sut = getSut()
+
+        assertFailsWith<JsonSyntaxException> {
+            sut.deserialize<PostHogEvent?>("{\"distinct_id\": \"distinctId\"}".reader())
+        }
+    }
+
+    private fun PostHogSerializer.toJson(value: Any): String {
+        val writer = StringWriter()
+        gson.toJson(value, value.javaClass, writer)
+        return writer.toString()
+    }
 }
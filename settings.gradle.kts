@@ -20,6 +20,9 @@ include(":posthog-android")
 include(":posthog-android-surveys-compose")
 include(":posthog-server")
 
+// benchmarks
+include(":posthog-benchmarks")
+
 // samples
 include(":posthog-samples:posthog-android-sample")
 include(":posthog-samples:posthog-java-sample")